@@ -0,0 +1,216 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import com.rackspace.salus.event.processor.LogicalExpressionStats.ChildStats;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.LogicalExpression;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Evaluates the children of an AND or OR expression in an order that is periodically
+ * re-computed from each child's observed cost and probability of short-circuiting the
+ * expression. For independent children, evaluating them in ascending order of
+ * <code>cost / P(short-circuit)</code> minimizes the expected cost. Children have no side
+ * effects, but may throw, such as a numerical comparison of a metric reported as a string. When
+ * a child throws while re-ordered, the children are evaluated again in their declared order, so
+ * an input that the declared order short-circuits before reaching that child still evaluates
+ * successfully. An input is still evaluated successfully when the current order short-circuits
+ * before reaching a child that would have thrown in the declared order.
+ * <p>
+ * Like the rest of a context, instances are only ever used by one thread at a time. Statistics
+ * may be read from other threads and are then approximate.
+ * </p>
+ */
+class AdaptiveLogicalEvaluator implements ExpressionEvaluator {
+
+  /**
+   * Evaluations between re-orderings, which is a power of two
+   */
+  static final int REORDER_INTERVAL = 4096;
+  /**
+   * Every n-th evaluation is timed, which is a power of two
+   */
+  static final int TIMING_INTERVAL = 64;
+
+  final LogicalExpression expression;
+  final ExpressionEvaluator[] children;
+  final String[] descriptions;
+  /**
+   * Position of each child in the declared order, which differs from its index once string
+   * matches are combined
+   */
+  final int[] declaredPositions;
+  /**
+   * True for OR, which short-circuits on the first true child, and false for AND
+   */
+  final boolean shortCircuitValue;
+
+  /**
+   * Indices of the children in their current order of evaluation
+   */
+  private int[] order;
+  /**
+   * Whether the current order differs from the declared order
+   */
+  private boolean reordered;
+  private final long[] childEvaluations;
+  private final long[] childTrueCounts;
+  private final long[] childTimedNanos;
+  private final long[] childTimings;
+  // pre-allocated so that re-ordering does not allocate
+  private final double[] scores;
+  private final int[] nextOrder;
+  private long evaluations;
+  private long reorders;
+
+  AdaptiveLogicalEvaluator(LogicalExpression expression, ExpressionEvaluator[] children,
+                           String[] descriptions, int[] declaredPositions, boolean isOr) {
+    this.expression = expression;
+    this.children = children;
+    this.descriptions = descriptions;
+    this.declaredPositions = declaredPositions;
+    this.shortCircuitValue = isOr;
+    order = new int[children.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    childEvaluations = new long[children.length];
+    childTrueCounts = new long[children.length];
+    childTimedNanos = new long[children.length];
+    childTimings = new long[children.length];
+    scores = new double[children.length];
+    nextOrder = new int[children.length];
+  }
+
+  @Override
+  public boolean evaluate(EventProcessorContext context, MetricInput input) {
+    final long evaluation = ++evaluations;
+    final boolean timed = (evaluation & (TIMING_INTERVAL - 1)) == 0;
+    final int[] currentOrder = order;
+
+    boolean result = !shortCircuitValue;
+    try {
+      for (int index : currentOrder) {
+        final boolean childResult;
+        if (timed) {
+          final long start = System.nanoTime();
+          childResult = children[index].evaluate(context, input);
+          childTimedNanos[index] += System.nanoTime() - start;
+          childTimings[index]++;
+        } else {
+          childResult = children[index].evaluate(context, input);
+        }
+
+        childEvaluations[index]++;
+        if (childResult) {
+          childTrueCounts[index]++;
+        }
+        if (childResult == shortCircuitValue) {
+          result = shortCircuitValue;
+          break;
+        }
+      }
+    } catch (RuntimeException e) {
+      if (!reordered) {
+        throw e;
+      }
+      // the declared order may short-circuit before reaching the child that threw
+      result = evaluateDeclared(context, input);
+    }
+
+    if ((evaluation & (REORDER_INTERVAL - 1)) == 0) {
+      reorder();
+    }
+    return result;
+  }
+
+  /**
+   * Evaluates the children in their declared order, which is the order of their indices, the
+   * same as the non-adaptive evaluators
+   */
+  private boolean evaluateDeclared(EventProcessorContext context, MetricInput input) {
+    for (ExpressionEvaluator child : children) {
+      if (child.evaluate(context, input) == shortCircuitValue) {
+        return shortCircuitValue;
+      }
+    }
+    return !shortCircuitValue;
+  }
+
+  private void reorder() {
+    for (int i = 0; i < children.length; i++) {
+      final double cost = childTimings[i] > 0 ?
+          (double) childTimedNanos[i] / childTimings[i] : 1;
+      final long shortCircuits = shortCircuitValue ?
+          childTrueCounts[i] : childEvaluations[i] - childTrueCounts[i];
+      // smoothed so that rarely reached children still get a finite score
+      final double probability = (shortCircuits + 1.0) / (childEvaluations[i] + 2.0);
+      scores[i] = cost / probability;
+    }
+
+    // insertion sort of the current order, which is stable and typically nearly sorted
+    System.arraycopy(order, 0, nextOrder, 0, nextOrder.length);
+    for (int i = 1; i < nextOrder.length; i++) {
+      final int index = nextOrder[i];
+      int j = i - 1;
+      while (j >= 0 && scores[nextOrder[j]] > scores[index]) {
+        nextOrder[j + 1] = nextOrder[j];
+        j--;
+      }
+      nextOrder[j + 1] = index;
+    }
+    System.arraycopy(nextOrder, 0, order, 0, order.length);
+    reordered = false;
+    for (int i = 0; i < order.length; i++) {
+      if (order[i] != i) {
+        reordered = true;
+        break;
+      }
+    }
+
+    // decay the observations so that the order follows changes in the inputs
+    for (int i = 0; i < children.length; i++) {
+      childEvaluations[i] >>= 1;
+      childTrueCounts[i] >>= 1;
+      childTimedNanos[i] >>= 1;
+      childTimings[i] >>= 1;
+    }
+    reorders++;
+  }
+
+  LogicalExpressionStats getStats() {
+    final int[] currentOrder = order.clone();
+    final List<ChildStats> childStats = new ArrayList<>(currentOrder.length);
+    for (int index : currentOrder) {
+      final long evaluated = childEvaluations[index];
+      final long timings = childTimings[index];
+      childStats.add(new ChildStats()
+          .setDescription(descriptions[index])
+          .setDeclaredPosition(declaredPositions[index])
+          .setEvaluations(evaluated)
+          .setTrueRate(evaluated > 0 ? (double) childTrueCounts[index] / evaluated : 0)
+          .setAverageNanos(timings > 0 ? (double) childTimedNanos[index] / timings : 0)
+      );
+    }
+    return new LogicalExpressionStats()
+        .setExpression(expression)
+        .setEvaluations(evaluations)
+        .setReorders(reorders)
+        .setChildren(childStats);
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import java.time.Duration;
+import lombok.Data;
+
+/**
+ * Configures the queuing and batching of an {@link AsyncStateChangeDispatcher}.
+ */
+@Data
+public class AsyncDispatchOptions {
+
+  /**
+   * The number of dispatching threads. Each task is assigned to one of them, which preserves
+   * the order of that task's transitions.
+   */
+  int laneCount = 1;
+
+  /**
+   * The maximum number of undispatched transitions per lane
+   */
+  int queueCapacity = 1024;
+
+  /**
+   * A batch is dispatched once it reaches this size or once {@link #maxBatchDelay} has passed
+   * since it was started, whichever is first.
+   */
+  int maxBatchSize = 100;
+
+  /**
+   * The longest that a partially filled batch waits for more transitions
+   */
+  Duration maxBatchDelay = Duration.ofMillis(10);
+
+  OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+  /**
+   * What happens to a transition emitted while its lane's queue is full
+   */
+  public enum OverflowPolicy {
+    /**
+     * Wait for space, which applies backpressure to evaluation
+     */
+    BLOCK,
+    /**
+     * Discard the new transition
+     */
+    DROP_NEWEST,
+    /**
+     * Discard the oldest queued transition of the lane to make room
+     */
+    DROP_OLDEST
+  }
+}
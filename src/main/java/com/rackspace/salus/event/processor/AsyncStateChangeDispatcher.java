@@ -0,0 +1,390 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import com.rackspace.salus.event.processor.AsyncDispatchOptions.OverflowPolicy;
+import com.rackspace.salus.telemetry.entities.EventEngineTask;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Decouples the handling of transitions from evaluation by queuing them and dispatching them
+ * in batches, by size or time, to a {@link StateChangeBatchHandler} on separate threads. A slow
+ * downstream therefore only delays evaluation when the queue fills and the
+ * {@link OverflowPolicy} is to block.
+ * <p>
+ * Each task is assigned to one lane by {@link PartitionedEventProcessor#partitionOf}, and each
+ * lane has its own queue and thread, so the transitions of a task are dispatched in the order
+ * they were emitted. Transitions are given to the dispatcher through the handler returned by
+ * {@link #handlerFor}, which can be used from any thread.
+ * </p>
+ * <p>
+ * The lanes are daemon threads, so they do not keep the JVM running. Transitions that are
+ * still queued when the JVM exits are lost unless {@link #close} is called first, which
+ * dispatches them. If a lane stops unexpectedly, such as when interrupted, its queued
+ * transitions are dropped and further transitions of its tasks are rejected, so that blocked
+ * producers do not wait forever.
+ * </p>
+ */
+@Slf4j
+public class AsyncStateChangeDispatcher implements AutoCloseable {
+
+  private static final long IDLE_POLL_MILLIS = 100;
+
+  private final StateChangeBatchHandler batchHandler;
+  private final int maxBatchSize;
+  private final long maxBatchDelayNanos;
+  private final OverflowPolicy overflowPolicy;
+  private final Lane[] lanes;
+  private volatile boolean closed;
+
+  public AsyncStateChangeDispatcher(StateChangeBatchHandler batchHandler,
+                                    AsyncDispatchOptions options) {
+    if (options.getLaneCount() < 1) {
+      throw new IllegalArgumentException("At least one lane is required");
+    }
+    if (options.getQueueCapacity() < 1) {
+      throw new IllegalArgumentException("Queue capacity must be positive");
+    }
+    if (options.getMaxBatchSize() < 1) {
+      throw new IllegalArgumentException("Max batch size must be positive");
+    }
+    if (options.getMaxBatchDelay() == null || options.getMaxBatchDelay().isNegative()) {
+      throw new IllegalArgumentException("Max batch delay must not be negative");
+    }
+    if (options.getOverflowPolicy() == null) {
+      throw new IllegalArgumentException("An overflow policy is required");
+    }
+    this.batchHandler = batchHandler;
+    maxBatchSize = options.getMaxBatchSize();
+    maxBatchDelayNanos = options.getMaxBatchDelay().toNanos();
+    overflowPolicy = options.getOverflowPolicy();
+    lanes = new Lane[options.getLaneCount()];
+    for (int i = 0; i < lanes.length; i++) {
+      lanes[i] = new Lane(i, options.getQueueCapacity());
+      lanes[i].thread.start();
+    }
+  }
+
+  /**
+   * @return a handler that queues the transitions of the given context's task for dispatch.
+   * It can be retained along with the context and passed to each {@link EventProcessor} call.
+   */
+  public StateChangeHandler handlerFor(EventProcessorContext context) {
+    final EventEngineTask task = context.getTask();
+    final Lane lane = lanes[PartitionedEventProcessor.partitionOf(context, lanes.length)];
+    return (transition, message) -> lane.enqueue(new StateChange(task, transition, message));
+  }
+
+  /**
+   * Waits until every transition queued before this call has been dispatched or dropped.
+   */
+  public void flush() throws InterruptedException {
+    for (Lane lane : lanes) {
+      lane.awaitSettled(lane.enqueued.get());
+    }
+  }
+
+  /**
+   * @return the number of transitions currently queued across all lanes
+   */
+  public int getQueueDepth() {
+    int depth = 0;
+    for (Lane lane : lanes) {
+      depth += lane.queue.size();
+    }
+    return depth;
+  }
+
+  /**
+   * @return the number of transitions successfully given to the batch handler
+   */
+  public long getDispatched() {
+    long total = 0;
+    for (Lane lane : lanes) {
+      total += lane.dispatched.get();
+    }
+    return total;
+  }
+
+  public long getBatches() {
+    long total = 0;
+    for (Lane lane : lanes) {
+      total += lane.batches.get();
+    }
+    return total;
+  }
+
+  /**
+   * @return the number of transitions discarded by the overflow policy or by closing
+   */
+  public long getDropped() {
+    long total = 0;
+    for (Lane lane : lanes) {
+      total += lane.dropped.get();
+    }
+    return total;
+  }
+
+  /**
+   * @return the number of transitions in batches where the batch handler threw an exception,
+   * which is logged
+   */
+  public long getFailed() {
+    long total = 0;
+    for (Lane lane : lanes) {
+      total += lane.failed.get();
+    }
+    return total;
+  }
+
+  /**
+   * @return the number of times that queuing a transition had to wait for space
+   */
+  public long getBlocked() {
+    long total = 0;
+    for (Lane lane : lanes) {
+      total += lane.blocked.get();
+    }
+    return total;
+  }
+
+  /**
+   * Stops accepting transitions, dispatches those already queued, and stops the lanes. Any
+   * transitions that were still being queued concurrently with closing are dropped.
+   */
+  @Override
+  public void close() throws InterruptedException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    for (Lane lane : lanes) {
+      lane.thread.join();
+    }
+  }
+
+  private class Lane implements Runnable {
+
+    final int id;
+    final BlockingQueue<StateChange> queue;
+    final Thread thread;
+    /**
+     * Given to this lane, whether or not the queue had space
+     */
+    final AtomicLong enqueued = new AtomicLong();
+    /**
+     * Dispatched, failed, or dropped, which eventually catches up with {@link #enqueued}
+     */
+    final AtomicLong settled = new AtomicLong();
+    final AtomicLong dispatched = new AtomicLong();
+    final AtomicLong batches = new AtomicLong();
+    final AtomicLong dropped = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    final AtomicLong blocked = new AtomicLong();
+    /**
+     * Set once the lane's thread has stopped taking from the queue
+     */
+    volatile boolean stopped;
+    /**
+     * The number of threads waiting in {@link #awaitSettled}, which is only modified while
+     * synchronized on this lane
+     */
+    volatile int settleWaiters;
+
+    Lane(int id, int capacity) {
+      this.id = id;
+      queue = new ArrayBlockingQueue<>(capacity);
+      thread = new Thread(this, "state-change-dispatcher-" + id);
+      thread.setDaemon(true);
+    }
+
+    void enqueue(StateChange stateChange) {
+      if (closed) {
+        throw new IllegalStateException("Dispatcher has been closed");
+      }
+      if (stopped) {
+        throw new IllegalStateException("Lane " + id + " of the dispatcher has stopped");
+      }
+      enqueued.incrementAndGet();
+      switch (overflowPolicy) {
+        case BLOCK:
+          if (!queue.offer(stateChange)) {
+            blocked.incrementAndGet();
+            try {
+              queue.put(stateChange);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              drop();
+            }
+          }
+          break;
+        case DROP_NEWEST:
+          if (!queue.offer(stateChange)) {
+            drop();
+          }
+          break;
+        case DROP_OLDEST:
+          while (!queue.offer(stateChange)) {
+            if (queue.poll() != null) {
+              drop();
+            }
+          }
+          break;
+        default:
+          throw new IllegalStateException("Unexpected overflow policy " + overflowPolicy);
+      }
+      // read after queuing, so that either the stopping lane drains this transition or it is
+      // drained here
+      if (stopped) {
+        dropQueued();
+      }
+    }
+
+    void drop() {
+      dropped.incrementAndGet();
+      settle(1);
+    }
+
+    void settle(int count) {
+      settled.addAndGet(count);
+      if (settleWaiters > 0) {
+        synchronized (this) {
+          notifyAll();
+        }
+      }
+    }
+
+    /**
+     * Waits until the given number of transitions have settled or the lane has stopped with
+     * nothing left to settle
+     */
+    synchronized void awaitSettled(long target) throws InterruptedException {
+      settleWaiters++;
+      try {
+        while (settled.get() < target && !(stopped && queue.isEmpty())) {
+          wait();
+        }
+      } finally {
+        settleWaiters--;
+      }
+    }
+
+    @Override
+    public void run() {
+      final List<StateChange> batch = new ArrayList<>(maxBatchSize);
+      try {
+        while (true) {
+          try {
+            final StateChange first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (first == null) {
+              if (closed && queue.isEmpty()) {
+                return;
+              }
+              continue;
+            }
+            batch.add(first);
+            fillBatch(batch);
+          } catch (InterruptedException e) {
+            log.warn("Lane={} interrupted with {} state changes queued", id, queue.size());
+            Thread.currentThread().interrupt();
+            dispatch(batch);
+            return;
+          }
+          dispatch(batch);
+        }
+      } finally {
+        stop();
+      }
+    }
+
+    /**
+     * Rejects further transitions and drops those still queued, including those of producers
+     * that were blocked waiting for space
+     */
+    private void stop() {
+      stopped = true;
+      final int remaining = dropQueued();
+      if (remaining > 0) {
+        log.warn("Dropped {} state changes of lane={} queued after it stopped", remaining, id);
+      }
+      synchronized (this) {
+        notifyAll();
+      }
+    }
+
+    /**
+     * @return the number of transitions dropped
+     */
+    private int dropQueued() {
+      int count = 0;
+      while (queue.poll() != null) {
+        count++;
+      }
+      if (count > 0) {
+        dropped.addAndGet(count);
+        settle(count);
+      }
+      return count;
+    }
+
+    /**
+     * Adds queued transitions until the batch is full or its delay has passed
+     */
+    private void fillBatch(List<StateChange> batch) throws InterruptedException {
+      final long deadline = System.nanoTime() + maxBatchDelayNanos;
+      while (batch.size() < maxBatchSize) {
+        queue.drainTo(batch, maxBatchSize - batch.size());
+        if (batch.size() >= maxBatchSize) {
+          return;
+        }
+        final long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return;
+        }
+        final StateChange next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+        if (next == null) {
+          return;
+        }
+        batch.add(next);
+      }
+    }
+
+    private void dispatch(List<StateChange> batch) {
+      if (batch.isEmpty()) {
+        return;
+      }
+      final int size = batch.size();
+      try {
+        batchHandler.handleStateChanges(batch);
+        dispatched.addAndGet(size);
+        batches.incrementAndGet();
+      } catch (RuntimeException e) {
+        failed.addAndGet(size);
+        log.warn("Failed to dispatch batch of {} state changes from lane={}", size, id, e);
+      } finally {
+        batch.clear();
+        settle(size);
+      }
+    }
+  }
+}
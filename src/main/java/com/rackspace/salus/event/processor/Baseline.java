@@ -0,0 +1,165 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+/**
+ * The exponentially weighted baseline of one metric within one zone, as configured by a
+ * {@link BaselineFunction}. It is updated after each input is evaluated so that an input is
+ * compared against the forecast made from the inputs before it. Each update is constant time
+ * and the memory is constant, apart from the seasonal terms.
+ * <p>
+ * When a season duration is given, the seasonal term of each input is chosen by its timestamp.
+ * Otherwise it is chosen by the input's position, which assumes inputs arrive at a fixed cadence
+ * without gaps: a missed input, or one skipped since its value is not a number, shifts the
+ * seasonal terms of every later input.
+ * </p>
+ */
+class Baseline implements ZoneAccumulator {
+
+  /**
+   * The smallest standard deviation used for deviations, relative to the forecast's magnitude,
+   * so that a baseline of steady inputs does not report an extreme deviation for the first small
+   * change
+   */
+  static final double MIN_RELATIVE_STANDARD_DEVIATION = 0.01;
+
+  private final int slot;
+  private final String metricName;
+  private final double alpha;
+  private final double beta;
+  private final double gamma;
+  private final int warmup;
+  /**
+   * Null when not seasonal
+   */
+  private final double[] seasonal;
+  /**
+   * The duration of a season, or 0 when seasonal terms are chosen by position
+   */
+  private final long seasonMillis;
+
+  private long count;
+  private double level;
+  private double trend;
+  /**
+   * Exponentially weighted variance of the differences between the inputs and their forecast
+   */
+  private double variance;
+
+  /**
+   * @param seasonLength the number of seasonal terms or 0 when not seasonal
+   * @param seasonMillis the duration of a season or 0 to choose seasonal terms by position
+   */
+  Baseline(int slot, String metricName, double alpha, double beta, double gamma,
+           int seasonLength, long seasonMillis, int warmup) {
+    this.slot = slot;
+    this.metricName = metricName;
+    this.alpha = alpha;
+    this.beta = beta;
+    this.gamma = gamma;
+    this.warmup = warmup;
+    this.seasonal = seasonLength > 0 ? new double[seasonLength] : null;
+    this.seasonMillis = seasonMillis;
+  }
+
+  @Override
+  public void afterEvaluation(MetricInput input) {
+    update(input.getNumber(slot, metricName), input.getTimestamp().toEpochMilli());
+  }
+
+  @Override
+  public long maxRetainedBytes() {
+    return 64 + (seasonal != null ? (long) seasonal.length * Double.BYTES : 0);
+  }
+
+  /**
+   * @param timestamp the epoch milliseconds of the input
+   */
+  void update(double value, long timestamp) {
+    if (Double.isNaN(value)) {
+      return;
+    }
+    if (count == 0) {
+      level = value;
+      count++;
+      return;
+    }
+
+    final int season = seasonIndex(timestamp);
+    final double seasonalTerm = seasonal != null ? seasonal[season] : 0;
+    final double residual = value - (level + trend + seasonalTerm);
+    // incremental form of the exponentially weighted variance
+    variance = (1 - alpha) * (variance + alpha * residual * residual);
+
+    final double previousLevel = level;
+    level = alpha * (value - seasonalTerm) + (1 - alpha) * (level + trend);
+    if (beta > 0) {
+      trend = beta * (level - previousLevel) + (1 - beta) * trend;
+    }
+    if (seasonal != null) {
+      seasonal[season] = gamma * (value - level) + (1 - gamma) * seasonalTerm;
+    }
+    count++;
+  }
+
+  /**
+   * @param timestamp the epoch milliseconds of the next input
+   * @return the forecast of the next input or NaN while warming up
+   */
+  double getForecast(long timestamp) {
+    if (count < warmup) {
+      return Double.NaN;
+    }
+    return level + trend + (seasonal != null ? seasonal[seasonIndex(timestamp)] : 0);
+  }
+
+  double getStandardDeviation() {
+    return Math.sqrt(variance);
+  }
+
+  /**
+   * @param timestamp the epoch milliseconds of the input
+   * @return the difference between the value and the forecast in standard deviations, which is
+   * NaN while warming up. The standard deviation is at least
+   * {@link #MIN_RELATIVE_STANDARD_DEVIATION} of the forecast's magnitude.
+   */
+  double getDeviation(double value, long timestamp) {
+    final double forecast = getForecast(timestamp);
+    final double difference = value - forecast;
+    if (difference == 0) {
+      return 0;
+    }
+    final double floor =
+        Math.max(MIN_RELATIVE_STANDARD_DEVIATION * Math.abs(forecast), Double.MIN_NORMAL);
+    return difference / Math.max(getStandardDeviation(), floor);
+  }
+
+  long getCount() {
+    return count;
+  }
+
+  private int seasonIndex(long timestamp) {
+    if (seasonal == null) {
+      return 0;
+    }
+    if (seasonMillis > 0) {
+      // the product is bounded by the season length limit times the season duration
+      return (int) (Math.floorMod(timestamp, seasonMillis) * seasonal.length / seasonMillis);
+    }
+    return (int) (count % seasonal.length);
+  }
+}
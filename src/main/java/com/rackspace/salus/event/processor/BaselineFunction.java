@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import lombok.Data;
+
+/**
+ * An expression input that compares a metric against its exponentially weighted baseline
+ * within the input's zone. The baseline is forecast from the earlier inputs only, by exponential
+ * smoothing or, when {@link #seasonLength} is set, by additive Holt-Winters smoothing. For
+ * example, to detect usage more than three standard deviations above its baseline:
+ * <pre>
+ * new ComparisonExpression()
+ *   .setInput(new BaselineFunction().setOf("usage").setOutput(Output.DEVIATION))
+ *   .setComparator(Comparator.GREATER_THAN)
+ *   .setComparisonValue(3)
+ * </pre>
+ * The state per zone is a few numbers plus the seasonal terms, regardless of how many inputs
+ * have been seen.
+ */
+@Data
+public class BaselineFunction {
+
+  public enum Output {
+    /**
+     * The difference between the value and its baseline in standard deviations of the
+     * earlier differences, which is negative when below the baseline
+     */
+    DEVIATION,
+    /**
+     * The magnitude of {@link #DEVIATION}
+     */
+    ABSOLUTE_DEVIATION,
+    /**
+     * The forecast value itself
+     */
+    BASELINE
+  }
+
+  String of;
+  Output output = Output.DEVIATION;
+  /**
+   * Smoothing factor of the level, within (0, 1], where higher values follow recent inputs
+   * more closely
+   */
+  double alpha = 0.1;
+  /**
+   * Smoothing factor of the trend, within [0, 1], where 0 disables the trend
+   */
+  double beta = 0;
+  /**
+   * Smoothing factor of the seasonal terms, within [0, 1]
+   */
+  double gamma = 0.1;
+  /**
+   * The number of seasonal terms per season, such as 288 for daily seasons of 5 minute inputs.
+   * When not set, the baseline has no seasonal terms.
+   */
+  Integer seasonLength;
+  /**
+   * The duration of a season, such as 86400 for daily seasons. When set, each input's seasonal
+   * term is chosen by its timestamp, so missed or extra inputs do not shift the seasons.
+   * Otherwise the terms are chosen by the input's position, which assumes inputs arrive at a
+   * fixed cadence without gaps.
+   */
+  Long seasonSeconds;
+  /**
+   * The number of inputs observed before the output is available, which defaults to 10 or two
+   * seasons when seasonal
+   */
+  Integer warmup;
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.StateExpression;
+
+/**
+ * Pairs a configured {@link StateExpression} with the evaluator compiled from its expression
+ * and the template parsed from its message.
+ */
+class CompiledStateExpression {
+
+  final StateExpression stateExpression;
+  final ExpressionEvaluator evaluator;
+  /**
+   * Null when the state expression has no message
+   */
+  final MessageTemplate messageTemplate;
+
+  CompiledStateExpression(StateExpression stateExpression, ExpressionEvaluator evaluator,
+                          MessageTemplate messageTemplate) {
+    this.stateExpression = stateExpression;
+    this.evaluator = evaluator;
+    this.messageTemplate = messageTemplate;
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.Expression;
+
+/**
+ * Allows a shared evaluation source to take over expressions as they are compiled by
+ * {@link ExpressionCompiler}.
+ */
+@FunctionalInterface
+interface ConditionBinder {
+
+  /**
+   * @param expression the expression that was compiled
+   * @param compiled the evaluator compiled from the expression
+   * @return the evaluator to use in place of the compiled one, which is typically a
+   * {@link SharedCondition} or the given evaluator when not bound
+   */
+  ExpressionEvaluator bind(Expression expression, ExpressionEvaluator compiled);
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.ComparisonExpression;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.Expression;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.LogicalExpression;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.PercentageFunction;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.PreviousFunction;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.RateFunction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deduplicates identical expressions, such as those of commonly used task templates, across all
+ * registered contexts. Each distinct expression of a measurement is a node of the network that
+ * is evaluated at most once per input by {@link #evaluate} and its result is fanned out to every
+ * context that contains it. Nodes of logical expressions consume the results of their child
+ * nodes rather than evaluating the children again.
+ * <p>
+ * Expressions that reference a {@link RateFunction}, {@link PreviousFunction}, or any other
+ * function of earlier inputs depend on the state of each context and are therefore never
+ * shared.
+ * </p>
+ * <p>
+ * A context can be registered with only one shared source, such as this network or a
+ * {@link ThresholdIndex}, at a time, since registering re-compiles the context's expressions
+ * for that source.
+ * </p>
+ */
+public class ConditionNetwork {
+
+  private final Map<String, Map<Expression, Node>> nodes = new HashMap<>();
+  private final Map<EventProcessorContext, List<Node>> registrations = new IdentityHashMap<>();
+  private final BitSet allocatedIds = new BitSet();
+  /**
+   * The version of each ID as of its latest allocation, so that results computed before an ID
+   * was re-used are not applied to its new node
+   */
+  private long[] idVersions = new long[0];
+  private long allocations;
+  private String compilingMeasurement;
+  private volatile Map<String, Measurement> snapshot = Map.of();
+  private volatile boolean dirty;
+
+  /**
+   * Registers, or re-registers, the given context by binding each of its shareable expressions to
+   * a node of this network.
+   * @throws IllegalStateException if the context is registered with another shared source
+   */
+  public synchronized void register(EventProcessorContext context) {
+    final String measurement = context.getTask().getTaskParameters().getMetricGroup();
+    final List<Node> referenced = new ArrayList<>();
+    if (measurement != null) {
+      try {
+        // sub-expressions are bound before their parents, so child nodes always precede parents
+        ExpressionCompiler.recompile(context, this, (expression, compiled) -> {
+          if (!isShareable(expression)) {
+            return compiled;
+          }
+          final Node node = intern(measurement, expression);
+          referenced.add(node);
+          return new SharedCondition(this, measurement, node.id, node.version, compiled);
+        });
+      } catch (RuntimeException e) {
+        // the context keeps its previous expressions and so its previous registration, if any
+        releaseNodes(referenced);
+        throw e;
+      }
+    }
+
+    // released only once re-compiled, so nodes that are still referenced keep their IDs
+    releaseNodes(registrations.put(context, referenced));
+    dirty = true;
+  }
+
+  /**
+   * Removes the given context from this network and restores its own evaluation of the
+   * previously shared expressions.
+   */
+  public synchronized void unregister(EventProcessorContext context) {
+    final List<Node> referenced = registrations.remove(context);
+    if (referenced != null) {
+      releaseNodes(referenced);
+      ExpressionCompiler.recompile(context, null, null);
+      dirty = true;
+    }
+  }
+
+  /**
+   * Evaluates each distinct expression of the given measurement once for the given input.
+   * @param measurement the measurement, or metric group, of the input
+   * @param input the input to evaluate. Only map-based inputs are supported since the slots of
+   * an {@link IndexedEventProcessorInput} are specific to one context.
+   * @return the results to pass along when processing each context of the measurement
+   */
+  public ConditionResults evaluate(String measurement, EventProcessorInput input) {
+    final Measurement current = currentSnapshot().get(measurement);
+    if (current == null) {
+      // no node of the measurement exists, so every condition falls back to its evaluator
+      return new ConditionResults(this, measurement, new BitSet(), new long[0]);
+    }
+
+    final ConditionResults results =
+        new ConditionResults(this, measurement, new BitSet(current.idVersions.length),
+            current.idVersions);
+    // node evaluators, like those of a context, are processed by one thread at a time
+    synchronized (current) {
+      // node evaluators consult the in-progress results for their child nodes
+      current.scope.setConditionResults(results);
+      try {
+        for (Node node : current.nodes) {
+          if (node.evaluator.evaluate(current.scope, input)) {
+            results.matched.set(node.id);
+          }
+        }
+      } finally {
+        current.scope.setConditionResults(null);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * @return the number of distinct expressions currently in the network
+   */
+  public synchronized int size() {
+    int size = 0;
+    for (Map<Expression, Node> byExpression : nodes.values()) {
+      size += byExpression.size();
+    }
+    return size;
+  }
+
+  /**
+   * @return the number of expressions of registered contexts that are served by the network,
+   * which is at least {@link #size()}
+   */
+  public synchronized int referenceCount() {
+    int count = 0;
+    for (List<Node> referenced : registrations.values()) {
+      count += referenced.size();
+    }
+    return count;
+  }
+
+  static boolean isShareable(Expression expression) {
+    if (expression instanceof LogicalExpression) {
+      final List<Expression> children = ((LogicalExpression) expression).getExpressions();
+      if (children == null) {
+        return false;
+      }
+      for (Expression child : children) {
+        if (!isShareable(child)) {
+          return false;
+        }
+      }
+      return true;
+    } else if (expression instanceof ComparisonExpression) {
+      // only inputs that are computed from the current input alone
+      final Object input = ((ComparisonExpression) expression).getInput();
+      return input instanceof String || input instanceof PercentageFunction;
+    }
+    return false;
+  }
+
+  private Node intern(String measurement, Expression expression) {
+    Node node = nodes.getOrDefault(measurement, Map.of()).get(expression);
+    if (node == null) {
+      compilingMeasurement = measurement;
+      final ExpressionEvaluator evaluator;
+      try {
+        // a compiler per node, since node evaluators only read map-based inputs by name and
+        // a shared compiler would retain a slot for every metric ever referenced
+        evaluator = new ExpressionCompiler(this::bindToNode).compileExpression(expression);
+      } finally {
+        compilingMeasurement = null;
+      }
+      final int id = allocateId();
+      node = new Node(measurement, expression, id, idVersions[id], evaluator);
+      // added once compiled, so a failed compile does not leave an empty measurement
+      nodes.computeIfAbsent(measurement, m -> new LinkedHashMap<>()).put(expression, node);
+    }
+    node.references++;
+    return node;
+  }
+
+  /**
+   * Binds the sub-expressions of a node being compiled to their existing nodes.
+   */
+  private ExpressionEvaluator bindToNode(Expression expression, ExpressionEvaluator compiled) {
+    final Node child = nodes.getOrDefault(compilingMeasurement, Map.of()).get(expression);
+    return child != null ?
+        new SharedCondition(this, compilingMeasurement, child.id, child.version, compiled) :
+        compiled;
+  }
+
+  private int allocateId() {
+    final int id = allocatedIds.nextClearBit(0);
+    allocatedIds.set(id);
+    if (id >= idVersions.length) {
+      idVersions = Arrays.copyOf(idVersions, Math.max(16, id * 2));
+    }
+    idVersions[id] = ++allocations;
+    return id;
+  }
+
+  private void releaseNodes(List<Node> referenced) {
+    if (referenced == null) {
+      return;
+    }
+    for (Node node : referenced) {
+      if (--node.references == 0) {
+        final Map<Expression, Node> byExpression = nodes.get(node.measurement);
+        byExpression.remove(node.expression);
+        if (byExpression.isEmpty()) {
+          nodes.remove(node.measurement);
+        }
+        allocatedIds.clear(node.id);
+      }
+    }
+  }
+
+  private Map<String, Measurement> currentSnapshot() {
+    if (dirty) {
+      synchronized (this) {
+        if (dirty) {
+          final Map<String, Measurement> rebuilt = new HashMap<>(nodes.size() * 2);
+          final long[] currentVersions = Arrays.copyOf(idVersions, allocatedIds.length());
+          nodes.forEach((measurement, byExpression) ->
+              rebuilt.put(measurement, new Measurement(
+                  byExpression.values().toArray(new Node[0]), currentVersions))
+          );
+          snapshot = rebuilt;
+          dirty = false;
+        }
+      }
+    }
+    return snapshot;
+  }
+
+  private static class Node {
+
+    final String measurement;
+    final Expression expression;
+    final int id;
+    final long version;
+    final ExpressionEvaluator evaluator;
+    int references;
+
+    Node(String measurement, Expression expression, int id, long version,
+         ExpressionEvaluator evaluator) {
+      this.measurement = measurement;
+      this.expression = expression;
+      this.id = id;
+      this.version = version;
+      this.evaluator = evaluator;
+    }
+  }
+
+  private static class Measurement {
+
+    /**
+     * In order of creation, which places child nodes before their parents
+     */
+    final Node[] nodes;
+    /**
+     * The version of each allocated ID, up to the highest one, when this snapshot was built
+     */
+    final long[] idVersions;
+    /**
+     * Passed to node evaluators in place of a task's context, which only carries the
+     * in-progress results while guarded by this measurement
+     */
+    final EventProcessorContext scope = new EventProcessorContext(null, null, null);
+
+    Measurement(Node[] nodes, long[] idVersions) {
+      this.nodes = nodes;
+      this.idVersions = idVersions;
+    }
+  }
+}
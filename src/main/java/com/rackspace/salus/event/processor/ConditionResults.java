@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import java.util.BitSet;
+
+/**
+ * The outcome of conditions that were evaluated once for an input on behalf of every
+ * registered context, such as by {@link ThresholdIndex#evaluate}. Instances are immutable once
+ * returned and can be shared by the threads processing each context.
+ */
+public class ConditionResults {
+
+  final Object source;
+  final String measurement;
+  final BitSet matched;
+  /**
+   * The version of each condition ID when these results were computed, since IDs that are
+   * released are re-used by later conditions.
+   */
+  final long[] idVersions;
+
+  ConditionResults(Object source, String measurement, BitSet matched, long[] idVersions) {
+    this.source = source;
+    this.measurement = measurement;
+    this.matched = matched;
+    this.idVersions = idVersions;
+  }
+
+  /**
+   * @return true if these results were computed by the given source for the given measurement
+   */
+  boolean covers(Object source, String measurement) {
+    return this.source == source && this.measurement.equals(measurement);
+  }
+
+  /**
+   * @return true if these results were computed for the condition that was allocated the given
+   * ID at the given version, rather than for an earlier or later holder of that ID
+   */
+  boolean includes(int id, long version) {
+    return id < idVersions.length && idVersions[id] == version;
+  }
+
+  public String getMeasurement() {
+    return measurement;
+  }
+
+  /**
+   * @return the number of conditions that matched the input
+   */
+  public int matchedCount() {
+    return matched.cardinality();
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import com.rackspace.salus.event.statemachines.EntryInterner;
+import lombok.Data;
+
+/**
+ * Optional behaviors of the contexts built by {@link EventProcessorContextBuilder}.
+ */
+@Data
+public class ContextBuildOptions {
+
+  static final int DEFAULT_MAX_WINDOW_SAMPLES = 4096;
+
+  /**
+   * When enabled, the children of each logical expression are periodically reordered by their
+   * observed cost and likelihood of short-circuiting the expression. Results are unaffected.
+   * The observations are available from {@link EventProcessorContext#getLogicalExpressionStats()}.
+   */
+  boolean adaptiveOrdering;
+
+  /**
+   * Bounds the samples that each zone retains for a {@link WindowFunction}, each of which
+   * occupies up to 64 bytes. Tasks whose windows could exceed it are rejected: a window of
+   * samples by its number of samples and a window of seconds by one sample per second. Must be
+   * at least 1.
+   */
+  int maxWindowSamples = DEFAULT_MAX_WINDOW_SAMPLES;
+
+  /**
+   * When enabled, the state of each zone is packed into a primitive array indexed by an
+   * interned zone ID rather than held by a state machine object per zone, which reduces the
+   * memory retained per zone. Results are unaffected.
+   */
+  boolean packedZoneStates;
+
+  /**
+   * Assigns the zone IDs of packed zone states, retaining every zone it has seen for as long as
+   * it is reachable. When null, the contexts share one interner that is never released, which
+   * suits zone names since they are drawn from the bounded set of monitoring zones.
+   */
+  EntryInterner<String> zoneInterner;
+
+  /**
+   * When enabled, inputs of different zones of a context may be passed to
+   * {@link EventProcessor#process} from different threads at once, while each zone is still
+   * processed by one thread at a time. The zone state machine is a
+   * {@link com.rackspace.salus.event.statemachines.ConcurrentQuorumStateMachine} and the
+   * compiled expressions keep their re-used regex matchers and quantile sketches per thread.
+   * Cannot be combined with {@link #packedZoneStates} or {@link #adaptiveOrdering}, whose
+   * reordering is not thread-safe.
+   */
+  boolean concurrentZoneStates;
+}
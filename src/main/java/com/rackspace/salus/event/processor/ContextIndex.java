@@ -0,0 +1,198 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.ComparisonExpression;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.Expression;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.LogicalExpression;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.PercentageFunction;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.PreviousFunction;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.RateFunction;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.StateExpression;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Indexes contexts by the metric names referenced by their expressions, either directly or as
+ * the target of a {@link RateFunction} or {@link PercentageFunction}, so that an input is only
+ * processed by the contexts that could match it. A context whose expressions reference none of
+ * the input's metrics would only fall through to the default state.
+ * <p>
+ * Expressions using a {@link PreviousFunction}, {@link WindowFunction},
+ * {@link QuantileFunction}, or {@link BaselineFunction} can match from earlier inputs alone, so
+ * contexts referencing one are returned for every input of their measurement.
+ * </p>
+ * <p>
+ * Processing only the returned contexts is not equivalent to processing every context of the
+ * measurement. A skipped context does not see the input at all: its zone is not driven to the
+ * default state, and neither its input history nor its stateful input functions record the
+ * input. For example, a task alerting on a metric that stops being reported remains in its
+ * alerting state until an input with the metric arrives, rather than recovering to OK. Callers
+ * that rely on recovering from absent metrics must process every context instead.
+ * </p>
+ */
+public class ContextIndex {
+
+  private final Map<EventProcessorContext, Registration> registrations =
+      new IdentityHashMap<>();
+  private volatile Map<String, Measurement> snapshot = Map.of();
+  private volatile boolean dirty;
+
+  /**
+   * Adds, or re-indexes, the given context
+   */
+  public synchronized void add(EventProcessorContext context) {
+    final EventEngineTaskParameters taskParameters = context.getTask().getTaskParameters();
+    final Registration registration = new Registration(taskParameters.getMetricGroup());
+    if (taskParameters.getStateExpressions() != null) {
+      for (StateExpression stateExpression : taskParameters.getStateExpressions()) {
+        registration.collect(stateExpression.getExpression());
+      }
+    }
+    registrations.put(context, registration);
+    dirty = true;
+  }
+
+  public synchronized void remove(EventProcessorContext context) {
+    if (registrations.remove(context) != null) {
+      dirty = true;
+    }
+  }
+
+  /**
+   * @param measurement the measurement, or metric group, of the input
+   * @param input the input to be processed
+   * @return the contexts of the measurement that reference at least one metric of the input, in
+   * no particular order
+   */
+  public List<EventProcessorContext> findAffected(String measurement, EventProcessorInput input) {
+    final Measurement current = currentSnapshot().get(measurement);
+    if (current == null) {
+      return List.of();
+    }
+
+    // a context referencing several of the input's metrics must only be returned once
+    final Set<EventProcessorContext> affected =
+        Collections.newSetFromMap(new IdentityHashMap<>());
+    Collections.addAll(affected, current.always);
+    for (String metricName : input.getMetrics().keySet()) {
+      final EventProcessorContext[] contexts = current.byMetric.get(metricName);
+      if (contexts != null) {
+        Collections.addAll(affected, contexts);
+      }
+    }
+    return new ArrayList<>(affected);
+  }
+
+  /**
+   * @return the number of indexed contexts
+   */
+  public synchronized int size() {
+    return registrations.size();
+  }
+
+  private Map<String, Measurement> currentSnapshot() {
+    if (dirty) {
+      synchronized (this) {
+        if (dirty) {
+          snapshot = buildSnapshot();
+          dirty = false;
+        }
+      }
+    }
+    return snapshot;
+  }
+
+  private Map<String, Measurement> buildSnapshot() {
+    final Map<String, Map<String, List<EventProcessorContext>>> byMetric = new HashMap<>();
+    final Map<String, List<EventProcessorContext>> always = new HashMap<>();
+    registrations.forEach((context, registration) -> {
+      final Map<String, List<EventProcessorContext>> measurementIndex =
+          byMetric.computeIfAbsent(registration.measurement, m -> new HashMap<>());
+      if (registration.usesEarlierInputs) {
+        always.computeIfAbsent(registration.measurement, m -> new ArrayList<>()).add(context);
+      } else {
+        for (String metricName : registration.metricNames) {
+          measurementIndex.computeIfAbsent(metricName, n -> new ArrayList<>()).add(context);
+        }
+      }
+    });
+
+    final Map<String, Measurement> measurements = new HashMap<>(byMetric.size() * 2);
+    byMetric.forEach((measurement, index) -> {
+      final Map<String, EventProcessorContext[]> frozen = new HashMap<>(index.size() * 2);
+      index.forEach((metricName, contexts) ->
+          frozen.put(metricName, contexts.toArray(new EventProcessorContext[0])));
+      measurements.put(measurement, new Measurement(frozen,
+          always.getOrDefault(measurement, List.of()).toArray(new EventProcessorContext[0])));
+    });
+    return measurements;
+  }
+
+  private static class Registration {
+
+    final String measurement;
+    final Set<String> metricNames = new LinkedHashSet<>();
+    boolean usesEarlierInputs;
+
+    Registration(String measurement) {
+      this.measurement = measurement;
+    }
+
+    void collect(Expression expression) {
+      if (expression instanceof LogicalExpression) {
+        final List<Expression> children = ((LogicalExpression) expression).getExpressions();
+        if (children != null) {
+          for (Expression child : children) {
+            collect(child);
+          }
+        }
+      } else if (expression instanceof ComparisonExpression) {
+        final Object input = ((ComparisonExpression) expression).getInput();
+        if (input instanceof String) {
+          metricNames.add((String) input);
+        } else if (input instanceof RateFunction) {
+          metricNames.add(((RateFunction) input).getOf());
+        } else if (input instanceof PercentageFunction) {
+          metricNames.add(((PercentageFunction) input).getPart());
+          metricNames.add(((PercentageFunction) input).getWhole());
+        } else if (input instanceof PreviousFunction || input instanceof WindowFunction
+            || input instanceof QuantileFunction || input instanceof BaselineFunction) {
+          usesEarlierInputs = true;
+        }
+      }
+    }
+  }
+
+  private static class Measurement {
+
+    final Map<String, EventProcessorContext[]> byMetric;
+    final EventProcessorContext[] always;
+
+    Measurement(Map<String, EventProcessorContext[]> byMetric, EventProcessorContext[] always) {
+      this.byMetric = byMetric;
+      this.always = always;
+    }
+  }
+}
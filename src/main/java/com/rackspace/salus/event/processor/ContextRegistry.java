@@ -0,0 +1,276 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.rackspace.salus.telemetry.entities.EventEngineTask;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Owns the {@link EventProcessorContext} of each task, keyed by task ID, within the entry or
+ * weighted budget of its {@link ContextRegistryOptions}. Contexts are evicted when the budget
+ * is exceeded, least recently used first, or once idle for the configured duration.
+ * <p>
+ * A miss builds the context with {@link EventProcessorContextBuilder#fromTask}, so an evicted
+ * task can always be resumed; however, its rebuilt context starts over with no zone state or
+ * input history. The registry is safe to use from multiple threads, although each context
+ * retains the single-writer requirements of {@link EventProcessor}.
+ * </p>
+ * <p>
+ * Evicting a context does not reach the inputs already queued for it, such as by a
+ * {@link PartitionedEventProcessor} or {@link RingBufferEventProcessor}, which are still
+ * processed against the evicted context. If the task is looked up again in the meantime, its
+ * later inputs go to a rebuilt context, so the task's state is split between the two and
+ * both may emit transitions. The budget and idle expiration should therefore leave enough
+ * headroom that a context is not evicted while it has queued inputs.
+ * </p>
+ */
+public class ContextRegistry {
+
+  /**
+   * Estimated bytes of a context apart from its expressions and zones, which covers the task,
+   * its schema and the compiled state machine
+   */
+  private static final int CONTEXT_BYTES = 2048;
+  /**
+   * Estimated bytes of each compiled state expression
+   */
+  private static final int EXPRESSION_BYTES = 512;
+  /**
+   * Estimated bytes of each zone's state and map entries, apart from its history and
+   * accumulators
+   */
+  private static final int ZONE_BYTES = 256;
+
+  private final Cache<UUID, Entry> contexts;
+  private final ContextBuildOptions buildOptions;
+  private final Weigher<UUID, EventProcessorContext> weigher;
+  /**
+   * The total weight of the registered contexts, which is their count without a weighted
+   * budget or weigher
+   */
+  private final AtomicLong weight = new AtomicLong();
+
+  public ContextRegistry(ContextRegistryOptions options) {
+    if (options.getBuildOptions() == null) {
+      throw new IllegalArgumentException("Build options are required");
+    }
+    buildOptions = options.getBuildOptions();
+
+    final CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+        .ticker(options.getTicker())
+        .recordStats();
+    if (options.getMaximumWeight() >= 0) {
+      if (options.getMaximumSize() >= 0) {
+        throw new IllegalArgumentException("Only one of maximum size or weight can be set");
+      }
+      // each entry is weighed once, when registered, since contexts change as they are used
+      builder.maximumWeight(options.getMaximumWeight())
+          .weigher((Weigher<UUID, Entry>) (taskId, entry) -> entry.weight);
+    } else if (options.getMaximumSize() >= 0) {
+      builder.maximumSize(options.getMaximumSize());
+    } else {
+      throw new IllegalArgumentException("Either a maximum size or weight is required");
+    }
+    if (options.getExpireAfterAccess() != null) {
+      builder.expireAfterAccess(options.getExpireAfterAccess());
+    }
+    final Weigher<UUID, EventProcessorContext> weigher;
+    if (options.getWeigher() != null) {
+      weigher = options.getWeigher();
+    } else if (options.getMaximumWeight() >= 0) {
+      weigher = (taskId, context) -> estimateBytes(context);
+    } else {
+      weigher = (taskId, context) -> 1;
+    }
+    final BiConsumer<EventProcessorContext, RemovalCause> removalListener =
+        options.getRemovalListener();
+    this.weigher = weigher;
+    contexts = builder
+        .removalListener((RemovalListener<UUID, Entry>) notification -> {
+          weight.addAndGet(-notification.getValue().weight);
+          if (removalListener != null) {
+            removalListener.accept(notification.getValue().context, notification.getCause());
+          }
+        })
+        .build();
+  }
+
+  /**
+   * Estimates the bytes the given context retains once its zones are full, which is the
+   * default weight with a {@link ContextRegistryOptions#maximumWeight}. Zones are counted as
+   * those seen so far, but at least the task's zone quorum count, since a newly built context
+   * has yet to see any. Each zone is counted with a full input history and its window and
+   * quantile accumulators at their maximum size.
+   */
+  public static int estimateBytes(EventProcessorContext context) {
+    final EventEngineTaskParameters parameters = context.getTask().getTaskParameters();
+    final InputHistory inputHistory = context.getInputHistory();
+    final ZoneAccumulators accumulators = context.getAccumulators();
+
+    long zones = 1;
+    if (parameters != null && parameters.getZoneQuorumCount() != null) {
+      zones = Math.max(zones, parameters.getZoneQuorumCount());
+    }
+    long bytesPerZone = ZONE_BYTES;
+    if (inputHistory != null) {
+      zones = Math.max(zones, inputHistory.zoneCount());
+      bytesPerZone += inputHistory.retainedBytesPerZone();
+    }
+    if (accumulators != null) {
+      zones = Math.max(zones, accumulators.zoneCount());
+      bytesPerZone += accumulators.maxRetainedBytesPerZone();
+    }
+    final int expressions = parameters != null && parameters.getStateExpressions() != null ?
+        parameters.getStateExpressions().size() : 0;
+
+    final long bytes =
+        CONTEXT_BYTES + (long) expressions * EXPRESSION_BYTES + zones * bytesPerZone;
+    return (int) Math.min(bytes, Integer.MAX_VALUE);
+  }
+
+  /**
+   * @return the registered context of the task, which is built and registered on a miss
+   * @throws IllegalArgumentException if the task's parameters are invalid
+   */
+  public EventProcessorContext get(EventEngineTask task) {
+    if (task == null || task.getId() == null) {
+      throw new IllegalArgumentException("A task with an ID is required");
+    }
+    try {
+      return contexts.get(task.getId(), () ->
+          newEntry(EventProcessorContextBuilder.fromTask(task, buildOptions))
+      ).context;
+    } catch (UncheckedExecutionException | ExecutionException e) {
+      if (e.getCause() instanceof IllegalArgumentException) {
+        throw (IllegalArgumentException) e.getCause();
+      }
+      throw new IllegalStateException("Failed to build context of task " + task.getId(),
+          e.getCause());
+    }
+  }
+
+  /**
+   * @return the registered context of the task or null if not registered
+   */
+  public EventProcessorContext getIfPresent(UUID taskId) {
+    final Entry entry = contexts.getIfPresent(taskId);
+    return entry != null ? entry.context : null;
+  }
+
+  /**
+   * Applies an update of a task's parameters to its registered context with
+   * {@link EventProcessorContextBuilder#update}, which carries over the state of the task's
+   * zones. The context is built when not registered. The update is atomic with respect to
+   * other operations on the task's registration, such as a concurrent {@link #get} that
+   * builds it. This must not be called while an input of the task is being processed.
+   * @return the context of the updated task, which is now registered in place of the previous
+   * one
+   * @throws IllegalArgumentException if the task's parameters are invalid, in which case the
+   * registered context is unchanged
+   */
+  public EventProcessorContext update(EventEngineTask task) {
+    if (task == null || task.getId() == null) {
+      throw new IllegalArgumentException("A task with an ID is required");
+    }
+    // the map view does not count towards the hit and miss statistics
+    return contexts.asMap().compute(task.getId(), (taskId, existing) -> newEntry(
+        existing != null ?
+            EventProcessorContextBuilder.update(existing.context, task) :
+            EventProcessorContextBuilder.fromTask(task, buildOptions)
+    )).context;
+  }
+
+  /**
+   * Registers the given context, replacing any existing context of its task.
+   */
+  public void put(EventProcessorContext context) {
+    contexts.put(context.getTask().getId(), newEntry(context));
+  }
+
+  /**
+   * Removes the context of a deleted task.
+   */
+  public void remove(UUID taskId) {
+    contexts.invalidate(taskId);
+  }
+
+  /**
+   * Performs any pending idle expiration, which otherwise happens gradually during other
+   * operations.
+   */
+  public void cleanUp() {
+    contexts.cleanUp();
+  }
+
+  /**
+   * @return the number of registered contexts
+   */
+  public long size() {
+    return contexts.size();
+  }
+
+  /**
+   * @return the total weight of the registered contexts, which is the same as {@link #size()}
+   * when not using a weighted budget
+   */
+  public long getWeight() {
+    return weight.get();
+  }
+
+  /**
+   * @return hit, miss (which are rebuilds), load time, and eviction statistics of this registry
+   */
+  public CacheStats getStats() {
+    return contexts.stats();
+  }
+
+  /**
+   * Weighs a context that is about to be registered and counts it towards the total weight,
+   * which its removal reverses by the same amount
+   */
+  private Entry newEntry(EventProcessorContext context) {
+    final Entry entry =
+        new Entry(context, weigher.weigh(context.getTask().getId(), context));
+    weight.addAndGet(entry.weight);
+    return entry;
+  }
+
+  private static class Entry {
+
+    final EventProcessorContext context;
+    /**
+     * The weight of the context when it was registered
+     */
+    final int weight;
+
+    Entry(EventProcessorContext context, int weight) {
+      this.context = context;
+      this.weight = weight;
+    }
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.Weigher;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import lombok.Data;
+
+/**
+ * Configures the budget and eviction of a {@link ContextRegistry}. Either an entry budget,
+ * {@link #maximumSize}, or a weighted budget, {@link #maximumWeight}, can be used but not
+ * both.
+ */
+@Data
+public class ContextRegistryOptions {
+
+  public static final long DEFAULT_MAXIMUM_SIZE = 100_000;
+
+  /**
+   * The maximum number of contexts retained or -1 when using {@link #maximumWeight}
+   */
+  long maximumSize = DEFAULT_MAXIMUM_SIZE;
+
+  /**
+   * The maximum total weight of the contexts retained or -1 when using {@link #maximumSize}.
+   * Without a {@link #weigher}, the weight is an estimate of each context's bytes by
+   * {@link ContextRegistry#estimateBytes}.
+   */
+  long maximumWeight = -1;
+
+  /**
+   * Weighs each context when it is registered, in place of the estimate of its bytes, when
+   * using {@link #maximumWeight}. A context keeps the weight it was given when registered,
+   * even if it grows afterwards. Null to use the default.
+   */
+  Weigher<UUID, EventProcessorContext> weigher;
+
+  /**
+   * Contexts not accessed for this long are evicted. Null to disable.
+   */
+  Duration expireAfterAccess;
+
+  /**
+   * Used to build the contexts on a miss
+   */
+  ContextBuildOptions buildOptions = new ContextBuildOptions();
+
+  /**
+   * Called with each context that leaves the registry and why, such as to unregister it from a
+   * {@link ThresholdIndex} or {@link ConditionNetwork}. A context leaves with
+   * {@link RemovalCause#REPLACED} when another context of its task is registered, such as by
+   * {@link ContextRegistry#update}, where the new context may already be registered with the
+   * same sources. Null if not needed.
+   */
+  BiConsumer<EventProcessorContext, RemovalCause> removalListener;
+
+  /**
+   * The time source of idle expiration, which can be replaced for testing
+   */
+  Ticker ticker = Ticker.systemTicker();
+}
@@ -17,250 +17,172 @@
 package com.rackspace.salus.event.processor;
 
 import com.rackspace.salus.event.statemachines.MultiStateTransition;
-import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters;
-import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.Comparator;
-import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.ComparisonExpression;
-import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.Expression;
-import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.LogicalExpression;
-import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.LogicalExpression.Operator;
-import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.PercentageFunction;
-import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.PreviousFunction;
-import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.RateFunction;
+import com.rackspace.salus.event.statemachines.QuorumStateMachine;
 import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.StateExpression;
 import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.TaskState;
-import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import javax.annotation.Nullable;
 
 public class EventProcessor {
 
-  private final static StateExpression FALLBACK_STATE_EXPR =
-      new StateExpression().setState(TaskState.OK);
+  private final static CompiledStateExpression FALLBACK_STATE_EXPR =
+      new CompiledStateExpression(
+          new StateExpression().setState(TaskState.OK), (context, input) -> true, null);
 
-  /**
-   * Used for interpolating field references in the configured message, such as
-   * "The value #{idle} is too low".
-   */
-  private static final Pattern MSG_INTERPOLATE = Pattern.compile("#\\{([^}]+)}");
-  private static final String MISSING_INTERPOLATION = "undefined";
+  private static final Comparator<MetricInput> BY_TIMESTAMP =
+      Comparator.comparing(MetricInput::getTimestamp);
 
   public void process(EventProcessorContext context, EventProcessorInput input,
                       StateChangeHandler stateChangeHandler) {
-    final EventEngineTaskParameters taskParameters = context.getTask().getTaskParameters();
-
-    final StateExpression result = taskParameters.getStateExpressions().stream()
-        .filter(
-            stateExpression -> evaluateExpression(context, input, stateExpression.getExpression())
-        )
-        .findFirst()
-        .orElse(FALLBACK_STATE_EXPR);
-
-    final MultiStateTransition<TaskState, String> transition = context.getStateMachine()
-        .process(input.getZone(), result.getState());
-
-    if (transition != null) {
-      stateChangeHandler
-          .handleStateChange(transition, interpolateMessage(
-              result.getMessage(), input.getMetrics()));
-    }
+    processInput(context, context.getCompiledStateExpressions(), context.getStateMachine(),
+        input, stateChangeHandler
+    );
   }
 
   /**
-   * Interpolates metric references as <code>#{metric-name}</code> in the given message template.
-   * <p><b>NOTE</b> package-private for unit testing</p>
+   * Processes an input where some of the context's conditions have already been evaluated
+   * once on behalf of all contexts, such as by {@link ThresholdIndex#evaluate}.
+   * @param conditionResults the shared results for this input, which are only consulted for
+   * conditions bound to the same source and measurement
    */
-  String interpolateMessage(String message, Map<String, Object> metrics) {
-    if (message == null) {
-      return null;
-    }
-
-    final Matcher matcher = MSG_INTERPOLATE.matcher(message);
-    final StringBuilder sb = new StringBuilder();
-    while (matcher.find()) {
-      final String metricName = matcher.group(1);
-      final Object value = metrics.get(metricName);
-      matcher.appendReplacement(sb, value != null ? value.toString() : MISSING_INTERPOLATION);
+  public void process(EventProcessorContext context, EventProcessorInput input,
+                      StateChangeHandler stateChangeHandler,
+                      ConditionResults conditionResults) {
+    context.setConditionResults(conditionResults);
+    try {
+      processInput(context, context.getCompiledStateExpressions(), context.getStateMachine(),
+          input, stateChangeHandler
+      );
+    } finally {
+      context.setConditionResults(null);
     }
-    matcher.appendTail(sb);
-    return sb.toString();
   }
 
-  private boolean evaluateExpression(EventProcessorContext context, EventProcessorInput input,
-                                     Expression expression) {
-    if (expression instanceof LogicalExpression) {
-      return evaluateLogicalExpression(context, input, ((LogicalExpression) expression));
-    } else {
-      return evaluateComparisonExpression(context, input, ((ComparisonExpression) expression));
-    }
+  /**
+   * Processes an input whose metrics are indexed by the {@link MetricSchema} of the given
+   * context, such as one created by {@link MetricSchema#newInput}.
+   * @throws IllegalArgumentException if the input was created for a different schema
+   */
+  public void process(EventProcessorContext context, IndexedEventProcessorInput input,
+                      StateChangeHandler stateChangeHandler) {
+    validateSchema(context, input);
+    processInput(context, context.getCompiledStateExpressions(), context.getStateMachine(),
+        input, stateChangeHandler
+    );
   }
 
-  private boolean evaluateLogicalExpression(EventProcessorContext context,
-                                            EventProcessorInput input,
-                                            LogicalExpression expression) {
-    try {
-      if (expression.getOperator().equals(Operator.OR)) {
-        return expression.getExpressions().stream()
-            .anyMatch(subEx -> evaluateExpression(context, input, subEx));
-      } else { // AND
-        return expression.getExpressions().stream()
-            .allMatch(subEx -> evaluateExpression(context, input, subEx));
-      }
-    } catch (IllegalArgumentException e) {
-      throw new IllegalArgumentException("Sub-expression of " + expression + " is not valid");
-    }
+  /**
+   * Processes a re-usable input, such as the slot of a {@link RingBufferEventProcessor}. As with
+   * any re-used input, a {@link LazyStateChangeHandler} must resolve the message before the
+   * input is next modified.
+   */
+  public void process(EventProcessorContext context, ReusableEventProcessorInput input,
+                      StateChangeHandler stateChangeHandler) {
+    processInput(context, context.getCompiledStateExpressions(), context.getStateMachine(),
+        input, stateChangeHandler
+    );
   }
 
-  private boolean evaluateComparisonExpression(EventProcessorContext context,
-                                               EventProcessorInput input,
-                                               ComparisonExpression expression) {
-    if (expression.getComparisonValue() instanceof Number) {
-      final Number comparisonValue;
-      try {
-        comparisonValue = (Number) expression.getComparisonValue();
-      } catch (ClassCastException e) {
-        throw new IllegalArgumentException(
-            "Expression " + expression + " contains invalid numeric comparison value");
-      }
-      return evaluateNumericalComparison(
-          resolveNumberInput(context, input, expression.getInput()),
-          expression.getComparator(),
-          comparisonValue
-      );
-
-    } else if (expression.getComparisonValue() instanceof String) {
-      final String comparisonValue;
-      try {
-        comparisonValue = (String) expression.getComparisonValue();
-      } catch (ClassCastException e) {
-        throw new IllegalArgumentException(
-            "Expression " + expression + " contains invalid string comparison value");
+  /**
+   * Processes a batch of inputs for the same task. The compiled expressions and state machine
+   * of the context are resolved once for the whole batch and the inputs are evaluated in
+   * timestamp order, where inputs with equal timestamps retain their order within the batch.
+   * @param context the context of the task that all of the inputs belong to
+   * @param inputs the inputs to process, which are not modified. These can be any mix of
+   * {@link EventProcessorInput} and {@link IndexedEventProcessorInput} created for the context's
+   * schema.
+   * @param stateChangeHandler invoked for each transition observed across the batch
+   */
+  public void processBatch(EventProcessorContext context, List<? extends MetricInput> inputs,
+                           StateChangeHandler stateChangeHandler) {
+    final List<CompiledStateExpression> stateExpressions = context.getCompiledStateExpressions();
+    final QuorumStateMachine<TaskState, String> stateMachine = context.getStateMachine();
+
+    for (MetricInput input : inputs) {
+      if (input instanceof IndexedEventProcessorInput) {
+        validateSchema(context, ((IndexedEventProcessorInput) input));
       }
-
-      return evaluateStringComparison(
-          resolveStringInput(context, input, expression.getInput()),
-          expression.getComparator(),
-          comparisonValue
-      );
-    } else {
-      throw new IllegalArgumentException(
-          "Expression " + expression + " contains invalid input type");
-    }
-
-  }
-
-  private boolean evaluateNumericalComparison(@Nullable Number lhs, Comparator comparator,
-                                              Number rhs) {
-    if (lhs == null) {
-      return false;
     }
 
-    final float lhsFloat = lhs.floatValue();
-    final float rhsFloat = rhs.floatValue();
-    switch (comparator) {
-      case GREATER_THAN:
-        return lhsFloat > rhsFloat;
-      case EQUAL_TO:
-        return lhsFloat == rhsFloat;
-      case GREATER_THAN_OR_EQUAL_TO:
-        return lhsFloat >= rhsFloat;
-      case LESS_THAN:
-        return lhsFloat < rhsFloat;
-      case LESS_THAN_OR_EQUAL_TO:
-        return lhsFloat <= rhsFloat;
-      case NOT_EQUAL_TO:
-        return lhsFloat != rhsFloat;
-      default:
-        throw new IllegalArgumentException(
-            "Invalid comparator " + comparator + " for numerical comparison");
+    final List<? extends MetricInput> orderedInputs = orderByTimestamp(inputs);
+    for (int i = 0; i < orderedInputs.size(); i++) {
+      processInput(context, stateExpressions, stateMachine, orderedInputs.get(i),
+          stateChangeHandler
+      );
     }
   }
 
-  private Number resolveNumberInput(EventProcessorContext context,
-                                    EventProcessorInput input,
-                                    Object expressionInput) {
-    if (expressionInput instanceof String) {
-      return ((Number) input.getMetrics().get(expressionInput));
-    } else if (expressionInput instanceof RateFunction) {
-      return resolveRateInput(context, input, ((RateFunction) expressionInput));
-    } else if (expressionInput instanceof PercentageFunction) {
-      return resolvePercentageInput(context, input, ((PercentageFunction) expressionInput));
-    } else if (expressionInput instanceof PreviousFunction) {
-      return resolvePreviousInput(context, input, ((PreviousFunction) expressionInput));
-    } else {
-      throw new IllegalArgumentException("Invalid numerical input type: " + expressionInput);
+  private static void validateSchema(EventProcessorContext context,
+                                     IndexedEventProcessorInput input) {
+    if (input.getSchema() != context.getMetricSchema()) {
+      throw new IllegalArgumentException("Input was not created for the schema of this context");
     }
   }
 
-  private Number resolvePreviousInput(EventProcessorContext context, EventProcessorInput input,
-                                      PreviousFunction expressionInput) {
-    final EventProcessorInput previousInput = context.getPreviousInput();
-
-    if (previousInput == null) {
-      return null;
+  private static List<? extends MetricInput> orderByTimestamp(
+      List<? extends MetricInput> inputs) {
+    for (int i = 1; i < inputs.size(); i++) {
+      if (inputs.get(i).getTimestamp().isBefore(inputs.get(i - 1).getTimestamp())) {
+        final List<MetricInput> sorted = new ArrayList<>(inputs);
+        // List.sort is stable, so same-timestamp inputs keep their relative order
+        sorted.sort(BY_TIMESTAMP);
+        return sorted;
+      }
     }
-
-    return (Number) previousInput.getMetrics().get(expressionInput.getOf());
-  }
-
-  private Number resolvePercentageInput(EventProcessorContext context, EventProcessorInput input,
-                                        PercentageFunction expressionInput) {
-    final Number partValue = (Number) input.getMetrics().get(expressionInput.getPart());
-    final Number wholeValue = (Number) input.getMetrics().get(expressionInput.getWhole());
-
-    return 100.0 * (partValue.floatValue() / wholeValue.floatValue());
+    // already in order, which is typical of records consumed from a partition
+    return inputs;
   }
 
-  private Number resolveRateInput(EventProcessorContext context, EventProcessorInput currentInput,
-                                  RateFunction expressionInput) {
-    final EventProcessorInput previousInput = context.getPreviousInput();
-
-    if (previousInput == null) {
-      return null;
+  private void processInput(EventProcessorContext context,
+                            List<CompiledStateExpression> stateExpressions,
+                            QuorumStateMachine<TaskState, String> stateMachine,
+                            MetricInput input,
+                            StateChangeHandler stateChangeHandler) {
+    final ZoneAccumulators accumulators = context.getAccumulators();
+    if (accumulators != null) {
+      accumulators.beforeEvaluation(input);
     }
 
-    final Number currentValue = (Number) currentInput.getMetrics().get(expressionInput.getOf());
-    final Number previousValue = (Number) previousInput.getMetrics().get(expressionInput.getOf());
-    if (currentValue == null || previousValue == null) {
-      return null;
+    CompiledStateExpression result = FALLBACK_STATE_EXPR;
+    for (int i = 0; i < stateExpressions.size(); i++) {
+      final CompiledStateExpression stateExpression = stateExpressions.get(i);
+      if (stateExpression.evaluator.evaluate(context, input)) {
+        result = stateExpression;
+        break;
+      }
     }
 
-    final long deltaSeconds = Duration.between(
-        previousInput.getTimestamp(),
-        currentInput.getTimestamp()
-    ).getSeconds();
+    final MultiStateTransition<TaskState, String> transition =
+        stateMachine.process(input.getZone(), result.stateExpression.getState());
 
-    return (currentValue.floatValue() - previousValue.floatValue()) / deltaSeconds;
-  }
-
-  private boolean evaluateStringComparison(String lhs, Comparator comparator, String rhs) {
-    if (lhs == null) {
-      return false;
+    if (transition != null) {
+      if (stateChangeHandler instanceof LazyStateChangeHandler) {
+        ((LazyStateChangeHandler) stateChangeHandler).handleLazyStateChange(
+            transition, new RenderedMessage(result.messageTemplate, input));
+      } else {
+        stateChangeHandler.handleStateChange(transition,
+            result.messageTemplate != null ? result.messageTemplate.render(input) : null);
+      }
     }
 
-    switch (comparator) {
-      case EQUAL_TO:
-        return lhs.equals(rhs);
-      case NOT_EQUAL_TO:
-        return !lhs.equals(rhs);
-      case REGEX_MATCH:
-        return Pattern.compile(rhs).matcher(lhs).find();
-      case NOT_REGEX_MATCH:
-        return !Pattern.compile(rhs).matcher(lhs).find();
-      default:
-        throw new IllegalArgumentException(
-            "Invalid comparator " + comparator + " for string comparison");
+    final InputHistory inputHistory = context.getInputHistory();
+    if (inputHistory != null) {
+      inputHistory.append(input);
+    }
+    if (accumulators != null) {
+      accumulators.afterEvaluation(input);
     }
   }
 
-  private String resolveStringInput(EventProcessorContext context,
-                                    EventProcessorInput input,
-                                    Object expressionInput) {
-    if (expressionInput instanceof String) {
-      return (String) input.getMetrics().get(expressionInput);
-    } else {
-      throw new IllegalArgumentException("Invalid string input type: " + expressionInput);
-    }
+  /**
+   * Interpolates metric references as <code>#{metric-name}</code> in the given message template.
+   * <p><b>NOTE</b> package-private for unit testing</p>
+   */
+  String interpolateMessage(String message, Map<String, Object> metrics) {
+    final MessageTemplate template = MessageTemplate.parse(message, metricName -> -1);
+    return template != null ?
+        template.render(new EventProcessorInput(null, null, metrics)) : null;
   }
 }
@@ -19,11 +19,94 @@ package com.rackspace.salus.event.processor;
 import com.rackspace.salus.event.statemachines.QuorumStateMachine;
 import com.rackspace.salus.telemetry.entities.EventEngineTask;
 import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.TaskState;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 
 @Data
 public class EventProcessorContext {
   final EventEngineTask task;
   final QuorumStateMachine<TaskState,String> stateMachine;
-  EventProcessorInput previousInput;
+  /**
+   * The slots of the metrics referenced by the task, which is used to create
+   * {@link IndexedEventProcessorInput}s for this context.
+   */
+  final MetricSchema metricSchema;
+  /**
+   * The task's state expressions compiled by {@link ExpressionCompiler}. These are replaced
+   * when the context is registered with or removed from a shared source, such as a
+   * {@link ThresholdIndex} or {@link ConditionNetwork}.
+   */
+  @Getter(AccessLevel.PACKAGE) @Setter(AccessLevel.PACKAGE)
+  @EqualsAndHashCode.Exclude @ToString.Exclude
+  volatile List<CompiledStateExpression> compiledStateExpressions;
+  /**
+   * The shared source that the compiled state expressions are currently bound to, if any. A
+   * context can only be bound to one shared source at a time.
+   */
+  @Getter(AccessLevel.PACKAGE) @Setter(AccessLevel.PACKAGE)
+  @EqualsAndHashCode.Exclude @ToString.Exclude
+  Object sharedSource;
+  /**
+   * The recent inputs of each zone that are looked back on by the task's expressions
+   */
+  @Setter(AccessLevel.PACKAGE)
+  @EqualsAndHashCode.Exclude @ToString.Exclude
+  InputHistory inputHistory;
+  /**
+   * Per-zone state of the task's stateful input functions, such as {@link WindowFunction}
+   */
+  @Getter(AccessLevel.PACKAGE) @Setter(AccessLevel.PACKAGE)
+  @EqualsAndHashCode.Exclude @ToString.Exclude
+  ZoneAccumulators accumulators;
+  @Setter(AccessLevel.PACKAGE)
+  ContextBuildOptions buildOptions = new ContextBuildOptions();
+  @Getter(AccessLevel.NONE) @Setter(AccessLevel.PACKAGE)
+  @EqualsAndHashCode.Exclude @ToString.Exclude
+  List<AdaptiveLogicalEvaluator> adaptiveEvaluators = List.of();
+  /**
+   * Shared condition results that apply to the input currently being processed, if any.
+   */
+  @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+  @EqualsAndHashCode.Exclude @ToString.Exclude
+  ConditionResults conditionResults;
+  /**
+   * The condition results of the input each thread is processing, which is used instead of
+   * {@link #conditionResults} when zones are processed concurrently
+   */
+  @Getter(AccessLevel.NONE) @Setter(AccessLevel.PACKAGE)
+  @EqualsAndHashCode.Exclude @ToString.Exclude
+  ThreadLocal<ConditionResults> threadConditionResults;
+
+  ConditionResults getConditionResults() {
+    return threadConditionResults != null ? threadConditionResults.get() : conditionResults;
+  }
+
+  EventProcessorContext setConditionResults(ConditionResults conditionResults) {
+    if (threadConditionResults == null) {
+      this.conditionResults = conditionResults;
+    } else if (conditionResults != null) {
+      threadConditionResults.set(conditionResults);
+    } else {
+      threadConditionResults.remove();
+    }
+    return this;
+  }
+
+  /**
+   * @return the observations of each logical expression when built with
+   * {@link ContextBuildOptions#isAdaptiveOrdering() adaptive ordering}, otherwise empty
+   */
+  public List<LogicalExpressionStats> getLogicalExpressionStats() {
+    final List<LogicalExpressionStats> stats = new ArrayList<>(adaptiveEvaluators.size());
+    for (AdaptiveLogicalEvaluator evaluator : adaptiveEvaluators) {
+      stats.add(evaluator.getStats());
+    }
+    return stats;
+  }
 }
@@ -16,43 +16,153 @@
 
 package com.rackspace.salus.event.processor;
 
-import com.rackspace.salus.event.statemachines.ConsecutiveCountStateMachine;
 import com.rackspace.salus.event.statemachines.ConsecutiveCountStateMachine.StateSpec;
+import com.rackspace.salus.event.statemachines.ConcurrentQuorumStateMachine;
+import com.rackspace.salus.event.statemachines.EntryInterner;
+import com.rackspace.salus.event.statemachines.EnumConsecutiveCountStateMachine;
+import com.rackspace.salus.event.statemachines.PackedQuorumStateMachine;
 import com.rackspace.salus.event.statemachines.QuorumStateMachine;
-import com.rackspace.salus.event.statemachines.StateHolder;
+import com.rackspace.salus.event.statemachines.StateSpecTable;
 import com.rackspace.salus.telemetry.entities.EventEngineTask;
 import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters;
 import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.TaskState;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 public class EventProcessorContextBuilder {
 
+  /**
+   * Interns the zones of the packed zone states of every context built without an interner of
+   * its own. It retains each zone name it has seen for the life of the JVM, which is bounded by
+   * the number of monitoring zones, in return for each context storing its zones as IDs.
+   */
+  static final EntryInterner<String> SHARED_ZONE_INTERNER = new EntryInterner<>();
+
   public static EventProcessorContext fromTask(EventEngineTask task) {
+    return fromTask(task, new ContextBuildOptions());
+  }
+
+  public static EventProcessorContext fromTask(EventEngineTask task,
+                                               ContextBuildOptions options) {
+    if (options.isAdaptiveOrdering() && options.isConcurrentZoneStates()) {
+      throw new IllegalArgumentException(
+          "Adaptive ordering and concurrent zone states cannot both be enabled");
+    }
+    final ExpressionCompiler compiler = new ExpressionCompiler(options);
+    final List<CompiledStateExpression> compiledStateExpressions =
+        compiler.compile(task.getTaskParameters());
+
     return new EventProcessorContext(
         task,
-        buildZonedStateMachine(task.getTaskParameters())
-    );
+        buildZonedStateMachine(task.getTaskParameters(), options),
+        compiler.buildSchema()
+    )
+        .setBuildOptions(options)
+        .setThreadConditionResults(threadConditionResultsFor(options))
+        .setInputHistory(compiler.buildHistory())
+        .setAccumulators(compiler.buildAccumulators())
+        .setAdaptiveEvaluators(compiler.getAdaptiveEvaluators())
+        .setCompiledStateExpressions(compiledStateExpressions);
   }
 
-  private static QuorumStateMachine<TaskState, String> buildZonedStateMachine(
-      EventEngineTaskParameters taskParameters) {
-    return new QuorumStateMachine<>(
-        taskParameters.getZoneQuorumCount(),
-        () -> buildPerLevelStateMachine(taskParameters)
-    );
+  /**
+   * Builds the context of an updated task, such as one with a new threshold or message, while
+   * carrying over the state of the task's existing context so that the update does not reset
+   * each zone's progress or cause re-alerts.
+   * <p>
+   * The state machine is carried over unless the zone quorum count or default consecutive
+   * count changed, in which case the context is rebuilt the same as {@link #fromTask}. The
+   * input history and the state of stateful input functions are carried over where the updated
+   * expressions still use them.
+   * </p>
+   * <p>
+   * Since the returned context shares state with the existing one, the existing context must
+   * not be processed afterwards. If it was registered with a shared source, such as a
+   * {@link ThresholdIndex}, it should be removed from that source and the returned context
+   * registered in its place.
+   * </p>
+   * @param existing the current context of the task, which is not modified
+   * @param task the updated task, with the same ID
+   * @throws IllegalArgumentException if the task's ID differs or its parameters are invalid, in
+   * which case the existing context remains usable
+   */
+  public static EventProcessorContext update(EventProcessorContext existing,
+                                             EventEngineTask task) {
+    if (!Objects.equals(existing.getTask().getId(), task.getId())) {
+      throw new IllegalArgumentException("Updated task must have the ID of the existing context");
+    }
+    final ContextBuildOptions options = existing.getBuildOptions();
+    final EventEngineTaskParameters previousParameters = existing.getTask().getTaskParameters();
+    final EventEngineTaskParameters taskParameters = task.getTaskParameters();
+    if (!Objects.equals(previousParameters.getZoneQuorumCount(),
+        taskParameters.getZoneQuorumCount()) ||
+        !Objects.equals(previousParameters.getDefaultConsecutiveCount(),
+            taskParameters.getDefaultConsecutiveCount())) {
+      return fromTask(task, options);
+    }
+
+    final ExpressionCompiler compiler = new ExpressionCompiler(options);
+    final List<CompiledStateExpression> compiledStateExpressions =
+        compiler.compile(taskParameters);
+
+    final InputHistory inputHistory = compiler.buildHistory();
+    if (existing.getInputHistory() != null) {
+      inputHistory.adoptZones(existing.getInputHistory());
+    }
+    final ZoneAccumulators accumulators = compiler.buildAccumulators();
+    if (existing.getAccumulators() != null) {
+      accumulators.adoptZones(existing.getAccumulators());
+    }
+
+    return new EventProcessorContext(
+        task,
+        existing.getStateMachine(),
+        compiler.buildSchema()
+    )
+        .setBuildOptions(options)
+        .setThreadConditionResults(threadConditionResultsFor(options))
+        .setInputHistory(inputHistory)
+        .setAccumulators(accumulators)
+        .setAdaptiveEvaluators(compiler.getAdaptiveEvaluators())
+        .setCompiledStateExpressions(compiledStateExpressions);
+  }
+
+  private static ThreadLocal<ConditionResults> threadConditionResultsFor(
+      ContextBuildOptions options) {
+    return options.isConcurrentZoneStates() ? new ThreadLocal<>() : null;
   }
 
-  private static StateHolder<TaskState> buildPerLevelStateMachine(
-      EventEngineTaskParameters taskParameters) {
+  private static QuorumStateMachine<TaskState, String> buildZonedStateMachine(
+      EventEngineTaskParameters taskParameters, ContextBuildOptions options) {
     // For now, all states share the default consecutive count declaration.
     // This code can be later adapted to perform asymmetric consecutive-count handling
     // when a 'count' field is added to StateExpression in EventEngineTaskParameters.
-    return new ConsecutiveCountStateMachine<>(
+    final StateSpecTable<TaskState> specs = StateSpecTable.of(
         Arrays.stream(TaskState.values())
             .map(taskState -> StateSpec.of(taskState, taskParameters.getDefaultConsecutiveCount()))
             .collect(Collectors.toList())
     );
+    if (options.isPackedZoneStates() && options.isConcurrentZoneStates()) {
+      throw new IllegalArgumentException(
+          "Packed and concurrent zone states cannot both be enabled");
+    }
+    if (options.isConcurrentZoneStates()) {
+      return new ConcurrentQuorumStateMachine<>(taskParameters.getZoneQuorumCount(), specs);
+    }
+    if (options.isPackedZoneStates()) {
+      return new PackedQuorumStateMachine<>(
+          taskParameters.getZoneQuorumCount(),
+          specs,
+          options.getZoneInterner() != null ? options.getZoneInterner() : SHARED_ZONE_INTERNER
+      );
+    }
+    // the spec table is shared, so each zone only allocates its own mutable state
+    return new QuorumStateMachine<>(
+        taskParameters.getZoneQuorumCount(),
+        () -> new EnumConsecutiveCountStateMachine<>(specs)
+    );
   }
 
 }
@@ -21,8 +21,29 @@ import java.util.Map;
 import lombok.Data;
 
 @Data
-public class EventProcessorInput {
+public class EventProcessorInput implements MetricInput {
   final Instant timestamp;
   final String zone;
   final Map<String,Object> metrics;
+
+  @Override
+  public float getNumber(int slot, String name) {
+    final Number value = (Number) metrics.get(name);
+    return value != null ? value.floatValue() : Float.NaN;
+  }
+
+  @Override
+  public String getString(int slot, String name) {
+    return (String) metrics.get(name);
+  }
+
+  @Override
+  public Object getValue(int slot, String name) {
+    return metrics.get(name);
+  }
+
+  @Override
+  public boolean hasMetric(int slot, String name) {
+    return metrics.get(name) != null;
+  }
 }
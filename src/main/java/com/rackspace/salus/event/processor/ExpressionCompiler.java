@@ -0,0 +1,921 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import com.rackspace.salus.event.processor.BaselineFunction.Output;
+import com.rackspace.salus.event.processor.InputHistory.ZoneHistory;
+import com.rackspace.salus.event.processor.WindowFunction.Aggregate;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.Comparator;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.ComparisonExpression;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.Expression;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.LogicalExpression;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.LogicalExpression.Operator;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.PercentageFunction;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.PreviousFunction;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.RateFunction;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.StateExpression;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles the expressions of {@link EventEngineTaskParameters} into {@link ExpressionEvaluator}
+ * trees. All type dispatch and validation of the configured expressions happens here, once per
+ * task, so that {@link EventProcessor#process} only needs to walk the pre-built evaluators.
+ */
+class ExpressionCompiler {
+
+  /**
+   * Detects constructs that would conflict or change meaning when patterns are combined into
+   * one alternation: back-references and named groups, which depend on group numbering, and
+   * quoting and inline flags, such as <code>\Q</code> and <code>(?x)</code>, which can extend
+   * past the end of each pattern.
+   */
+  private static final Pattern NOT_COMBINABLE =
+      Pattern.compile("\\\\[1-9]|\\\\k<|\\(\\?<[a-zA-Z]|\\\\Q|\\(\\?[a-zA-Z-]+[):]");
+
+  /**
+   * Bounds the seasonal terms of each zone's baseline
+   */
+  static final int MAX_SEASON_LENGTH = 1 << 16;
+  /**
+   * Bounds the season duration of a baseline to a year, which keeps the arithmetic of choosing
+   * a seasonal term within range
+   */
+  static final long MAX_SEASON_SECONDS = 366L * 24 * 60 * 60;
+  static final int DEFAULT_BASELINE_WARMUP = 10;
+  /**
+   * The earlier inputs retained per zone, since compiled functions only look back on the most
+   * recent one
+   */
+  static final int HISTORY_DEPTH = 1;
+
+  /**
+   * Slots of the metrics referenced so far, in the order they were first referenced.
+   */
+  private final Map<String, Integer> slots = new LinkedHashMap<>();
+  /**
+   * Columns of the metrics whose earlier values are looked back on, in the order they were
+   * first referenced.
+   */
+  private final Map<String, Integer> historyColumns = new LinkedHashMap<>();
+  /**
+   * Positions of the accumulators of stateful input functions, keyed by what identifies
+   * equivalent accumulators so that those are shared. Keys include the metric's slot since
+   * accumulators read inputs by slot.
+   */
+  private final Map<List<Object>, Integer> accumulatorPositions = new LinkedHashMap<>();
+  private final List<Supplier<ZoneAccumulator>> accumulatorFactories = new ArrayList<>();
+  private final ConditionBinder binder;
+  private final boolean adaptiveOrdering;
+  /**
+   * Whether different zones of a context may be evaluated by different threads at once, in
+   * which case the re-used scratch state of evaluators is held per thread
+   */
+  private final boolean concurrent;
+  /**
+   * Bounds the samples retained by each zone's window
+   */
+  private final int maxWindowSamples;
+  /**
+   * The adaptive evaluators compiled so far when adaptive ordering is enabled
+   */
+  private final List<AdaptiveLogicalEvaluator> adaptiveEvaluators = new ArrayList<>();
+
+  ExpressionCompiler() {
+    this(new ContextBuildOptions());
+  }
+
+  ExpressionCompiler(ContextBuildOptions options) {
+    this.binder = null;
+    this.adaptiveOrdering = options.isAdaptiveOrdering();
+    this.concurrent = options.isConcurrentZoneStates();
+    this.maxWindowSamples = validateMaxWindowSamples(options);
+  }
+
+  /**
+   * Creates a compiler for evaluators that are not tied to a context's schema and only
+   * evaluate map-based inputs.
+   */
+  ExpressionCompiler(ConditionBinder binder) {
+    this.binder = binder;
+    this.adaptiveOrdering = false;
+    this.concurrent = false;
+    this.maxWindowSamples = ContextBuildOptions.DEFAULT_MAX_WINDOW_SAMPLES;
+  }
+
+  /**
+   * Creates a compiler that re-compiles expressions for an existing schema, such as when
+   * binding them to a shared evaluation source.
+   */
+  ExpressionCompiler(MetricSchema schema, ConditionBinder binder, ContextBuildOptions options) {
+    for (String metricName : schema.getMetricNames()) {
+      slotOf(metricName);
+    }
+    this.binder = binder;
+    this.adaptiveOrdering = options.isAdaptiveOrdering();
+    this.concurrent = options.isConcurrentZoneStates();
+    this.maxWindowSamples = validateMaxWindowSamples(options);
+  }
+
+  private static int validateMaxWindowSamples(ContextBuildOptions options) {
+    if (options.getMaxWindowSamples() < 1) {
+      throw new IllegalArgumentException("Max window samples must be at least 1");
+    }
+    return options.getMaxWindowSamples();
+  }
+
+  /**
+   * Re-compiles the state expressions of the given context with the given binder, or without
+   * binding when null, and swaps them into the context.
+   * @param source the shared source that the binder belongs to, or null when restoring the
+   * context's own evaluation
+   * @throws IllegalStateException if the context is already bound to a different shared source,
+   * since binding would replace that source's evaluators
+   */
+  static void recompile(EventProcessorContext context, Object source, ConditionBinder binder) {
+    final Object existing = context.getSharedSource();
+    if (source != null && existing != null && existing != source) {
+      throw new IllegalStateException(
+          "Context is already registered with another shared source");
+    }
+    final ExpressionCompiler compiler =
+        new ExpressionCompiler(context.getMetricSchema(), binder, context.getBuildOptions());
+    final List<CompiledStateExpression> compiled =
+        compiler.compile(context.getTask().getTaskParameters());
+    if (compiler.slots.size() != context.getMetricSchema().size()) {
+      throw new IllegalStateException("Task expressions no longer match the context's schema");
+    }
+    context.setAdaptiveEvaluators(compiler.getAdaptiveEvaluators());
+    context.setCompiledStateExpressions(compiled);
+    context.setSharedSource(source);
+  }
+
+  List<CompiledStateExpression> compile(EventEngineTaskParameters taskParameters) {
+    final List<StateExpression> stateExpressions = taskParameters.getStateExpressions();
+    if (stateExpressions == null) {
+      return List.of();
+    }
+
+    final List<CompiledStateExpression> compiled = new ArrayList<>(stateExpressions.size());
+    for (StateExpression stateExpression : stateExpressions) {
+      compiled.add(new CompiledStateExpression(
+          stateExpression,
+          compileExpression(stateExpression.getExpression()),
+          MessageTemplate.parse(stateExpression.getMessage(), this::slotOf)
+      ));
+    }
+    return List.copyOf(compiled);
+  }
+
+  /**
+   * @return the schema of all metrics referenced by the expressions compiled so far
+   */
+  MetricSchema buildSchema() {
+    return new MetricSchema(slots.keySet());
+  }
+
+  /**
+   * @return the per-zone history of the metrics looked back on by the expressions compiled so
+   * far
+   */
+  InputHistory buildHistory() {
+    final int[] historySlots = new int[historyColumns.size()];
+    int column = 0;
+    for (String metricName : historyColumns.keySet()) {
+      historySlots[column++] = slotOf(metricName);
+    }
+    return new InputHistory(new ArrayList<>(historyColumns.keySet()), historySlots,
+        HISTORY_DEPTH);
+  }
+
+  /**
+   * @return the per-zone accumulators of the stateful input functions compiled so far
+   */
+  ZoneAccumulators buildAccumulators() {
+    return new ZoneAccumulators(
+        accumulatorFactories, new ArrayList<>(accumulatorPositions.keySet()));
+  }
+
+  private int accumulatorPositionOf(List<Object> key, Supplier<ZoneAccumulator> factory) {
+    Integer position = accumulatorPositions.get(key);
+    if (position == null) {
+      position = accumulatorFactories.size();
+      accumulatorFactories.add(factory);
+      accumulatorPositions.put(key, position);
+    }
+    return position;
+  }
+
+  private int historyColumnOf(String metricName) {
+    return historyColumns.computeIfAbsent(metricName, name -> historyColumns.size());
+  }
+
+  List<AdaptiveLogicalEvaluator> getAdaptiveEvaluators() {
+    return List.copyOf(adaptiveEvaluators);
+  }
+
+  private int slotOf(String metricName) {
+    return slots.computeIfAbsent(metricName, name -> slots.size());
+  }
+
+  ExpressionEvaluator compileExpression(Expression expression) {
+    final ExpressionEvaluator compiled;
+    if (expression instanceof LogicalExpression) {
+      compiled = compileLogicalExpression(((LogicalExpression) expression));
+    } else if (expression instanceof ComparisonExpression) {
+      compiled = compileComparisonExpression(((ComparisonExpression) expression));
+    } else {
+      throw new IllegalArgumentException("Invalid expression type: " + expression);
+    }
+    return binder != null ? binder.bind(expression, compiled) : compiled;
+  }
+
+  private ExpressionEvaluator compileLogicalExpression(LogicalExpression expression) {
+    final boolean isOr = Operator.OR.equals(expression.getOperator());
+    final List<ExpressionEvaluator> children;
+    final List<Object> sources = new ArrayList<>();
+    final List<Integer> positions = new ArrayList<>();
+    try {
+      children = isOr ?
+          compileOrChildren(expression.getExpressions(), sources, positions) :
+          compileChildren(expression.getExpressions(), sources, positions);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Sub-expression of " + expression + " is not valid", e);
+    }
+
+    if (adaptiveOrdering && children.size() > 1) {
+      final AdaptiveLogicalEvaluator adaptive = new AdaptiveLogicalEvaluator(
+          expression,
+          children.toArray(new ExpressionEvaluator[0]),
+          sources.stream().map(String::valueOf).toArray(String[]::new),
+          positions.stream().mapToInt(Integer::intValue).toArray(),
+          isOr
+      );
+      adaptiveEvaluators.add(adaptive);
+      return adaptive;
+    } else if (isOr) {
+      return new OrEvaluator(children.toArray(new ExpressionEvaluator[0]));
+    } else { // AND
+      return new AndEvaluator(children.toArray(new ExpressionEvaluator[0]));
+    }
+  }
+
+  /**
+   * @param sources populated with the expression of each compiled child
+   * @param positions populated with the declared position of each compiled child
+   */
+  private List<ExpressionEvaluator> compileChildren(List<Expression> subExpressions,
+                                                    List<Object> sources,
+                                                    List<Integer> positions) {
+    final List<ExpressionEvaluator> children = new ArrayList<>(subExpressions.size());
+    for (int i = 0; i < subExpressions.size(); i++) {
+      final Expression subExpression = subExpressions.get(i);
+      children.add(compileExpression(subExpression));
+      sources.add(subExpression);
+      positions.add(i);
+    }
+    return children;
+  }
+
+  /**
+   * Compiles the children of an OR expression where the equality and regex comparisons of the
+   * same string metric are combined into a single {@link StringSetMatch}, which takes the
+   * position of the first comparison of its group.
+   * @param sources populated with the expression, or expressions of a group, of each compiled
+   * child
+   * @param positions populated with the declared position of each compiled child
+   */
+  private List<ExpressionEvaluator> compileOrChildren(List<Expression> subExpressions,
+                                                      List<Object> sources,
+                                                      List<Integer> positions) {
+    final Map<String, List<ComparisonExpression>> groups = new LinkedHashMap<>();
+    for (Expression subExpression : subExpressions) {
+      if (isCombinableStringMatch(subExpression)) {
+        final ComparisonExpression comparison = (ComparisonExpression) subExpression;
+        groups.computeIfAbsent(((String) comparison.getInput()), k -> new ArrayList<>())
+            .add(comparison);
+      }
+    }
+
+    final List<ExpressionEvaluator> children = new ArrayList<>(subExpressions.size());
+    for (int i = 0; i < subExpressions.size(); i++) {
+      final Expression subExpression = subExpressions.get(i);
+      if (isCombinableStringMatch(subExpression)) {
+        final String metricName = (String) ((ComparisonExpression) subExpression).getInput();
+        final List<ComparisonExpression> group = groups.get(metricName);
+        if (group.size() > 1) {
+          if (group.get(0) == subExpression) {
+            children.add(compileStringSetMatch(metricName, group));
+            sources.add(group);
+            positions.add(i);
+          }
+          // else it was combined into the group's evaluator
+          continue;
+        }
+      }
+      children.add(compileExpression(subExpression));
+      sources.add(subExpression);
+      positions.add(i);
+    }
+    return children;
+  }
+
+  private static boolean isCombinableStringMatch(Expression expression) {
+    if (!(expression instanceof ComparisonExpression)) {
+      return false;
+    }
+    final ComparisonExpression comparison = (ComparisonExpression) expression;
+    if (!(comparison.getInput() instanceof String)
+        || !(comparison.getComparisonValue() instanceof String)) {
+      return false;
+    }
+    if (comparison.getComparator() == Comparator.EQUAL_TO) {
+      return true;
+    }
+    return comparison.getComparator() == Comparator.REGEX_MATCH
+        && !NOT_COMBINABLE.matcher(((String) comparison.getComparisonValue())).find();
+  }
+
+  private ExpressionEvaluator compileStringSetMatch(String metricName,
+                                                    List<ComparisonExpression> group) {
+    final Set<String> literals = new HashSet<>();
+    final List<Pattern> patterns = new ArrayList<>();
+    final StringJoiner combinedRegex = new StringJoiner("|");
+    for (ComparisonExpression comparison : group) {
+      final String value = (String) comparison.getComparisonValue();
+      if (comparison.getComparator() == Comparator.EQUAL_TO) {
+        literals.add(value);
+      } else {
+        // validates each pattern on its own so invalid ones are reported as such
+        patterns.add(PatternCache.shared().get(value));
+        combinedRegex.add("(?:" + value + ")");
+      }
+    }
+
+    Pattern[] matched = patterns.toArray(new Pattern[0]);
+    if (patterns.size() > 1) {
+      try {
+        matched = new Pattern[]{PatternCache.shared().get(combinedRegex.toString())};
+      } catch (IllegalArgumentException e) {
+        // a construct not detected by NOT_COMBINABLE, so each valid pattern is matched alone
+      }
+    }
+    return new StringSetMatch(compileStringInput(metricName), Set.copyOf(literals), matched,
+        concurrent);
+  }
+
+  private ExpressionEvaluator compileComparisonExpression(
+      ComparisonExpression expression) {
+    final Object comparisonValue = expression.getComparisonValue();
+    if (comparisonValue instanceof Number) {
+      return new NumericalComparison(
+          compileNumberInput(expression.getInput()),
+          validateNumericalComparator(expression.getComparator()),
+          ((Number) comparisonValue).floatValue(),
+          compileReported(expression.getInput())
+      );
+    } else if (comparisonValue instanceof String) {
+      return compileStringComparison(
+          compileStringInput(expression.getInput()),
+          expression.getComparator(),
+          ((String) comparisonValue)
+      );
+    } else {
+      throw new IllegalArgumentException(
+          "Expression " + expression + " contains invalid input type");
+    }
+  }
+
+  private static Comparator validateNumericalComparator(Comparator comparator) {
+    if (comparator == null) {
+      throw new IllegalArgumentException("Comparator is required for numerical comparison");
+    }
+    switch (comparator) {
+      case GREATER_THAN:
+      case EQUAL_TO:
+      case GREATER_THAN_OR_EQUAL_TO:
+      case LESS_THAN:
+      case LESS_THAN_OR_EQUAL_TO:
+      case NOT_EQUAL_TO:
+        return comparator;
+      default:
+        throw new IllegalArgumentException(
+            "Invalid comparator " + comparator + " for numerical comparison");
+    }
+  }
+
+  private NumberInput compileNumberInput(Object expressionInput) {
+    if (expressionInput instanceof String) {
+      final String metricName = (String) expressionInput;
+      final int slot = slotOf(metricName);
+      return (context, input) -> input.getNumber(slot, metricName);
+    } else if (expressionInput instanceof RateFunction) {
+      return compileRateInput(((RateFunction) expressionInput));
+    } else if (expressionInput instanceof PercentageFunction) {
+      return compilePercentageInput(((PercentageFunction) expressionInput));
+    } else if (expressionInput instanceof PreviousFunction) {
+      return compilePreviousInput(((PreviousFunction) expressionInput));
+    } else if (expressionInput instanceof WindowFunction) {
+      return compileWindowInput(((WindowFunction) expressionInput));
+    } else if (expressionInput instanceof QuantileFunction) {
+      return compileQuantileInput(((QuantileFunction) expressionInput));
+    } else if (expressionInput instanceof BaselineFunction) {
+      return compileBaselineInput(((BaselineFunction) expressionInput));
+    } else {
+      throw new IllegalArgumentException("Invalid numerical input type: " + expressionInput);
+    }
+  }
+
+  /**
+   * Compiles the check of whether the metrics that a numerical input is computed from were
+   * reported, which tells a NaN computed from reported values, such as a reported NaN or a
+   * percentage of a zero whole, from an unavailable input.
+   * @return the check or null for inputs that are unavailable whenever they are NaN, such as
+   * functions of earlier inputs, whose history does not retain whether a metric was reported
+   */
+  private Predicate<MetricInput> compileReported(Object expressionInput) {
+    if (expressionInput instanceof String) {
+      final String metricName = (String) expressionInput;
+      final int slot = slotOf(metricName);
+      return input -> input.hasMetric(slot, metricName);
+    } else if (expressionInput instanceof PercentageFunction) {
+      final String part = ((PercentageFunction) expressionInput).getPart();
+      final String whole = ((PercentageFunction) expressionInput).getWhole();
+      final int partSlot = slotOf(part);
+      final int wholeSlot = slotOf(whole);
+      return input -> input.hasMetric(partSlot, part) && input.hasMetric(wholeSlot, whole);
+    } else {
+      return null;
+    }
+  }
+
+  private NumberInput compilePreviousInput(PreviousFunction expressionInput) {
+    final String metricName = expressionInput.getOf();
+    slotOf(metricName);
+    final int column = historyColumnOf(metricName);
+    return (context, input) -> {
+      final ZoneHistory history = context.getInputHistory().getZone(input.getZone());
+
+      if (history == null) {
+        return NumberInput.UNAVAILABLE;
+      }
+
+      return history.getNumber(0, column);
+    };
+  }
+
+  private NumberInput compileWindowInput(WindowFunction expressionInput) {
+    final String metricName = expressionInput.getOf();
+    final Aggregate aggregate = expressionInput.getAggregate();
+    final Integer samples = expressionInput.getSamples();
+    final Long seconds = expressionInput.getSeconds();
+    if (metricName == null || aggregate == null) {
+      throw new IllegalArgumentException("Window function requires a metric and aggregate");
+    }
+    if ((samples == null) == (seconds == null)) {
+      throw new IllegalArgumentException(
+          "Window function requires exactly one of samples or seconds");
+    }
+    if (samples != null && (samples < 1 || samples > maxWindowSamples)) {
+      throw new IllegalArgumentException(
+          "Window samples must be between 1 and " + maxWindowSamples);
+    }
+    // a zone is expected to report at most an input per second, so that is the bound of the
+    // samples within a window of seconds
+    if (seconds != null && (seconds < 1 || seconds > maxWindowSamples)) {
+      throw new IllegalArgumentException(
+          "Window seconds must be between 1 and " + maxWindowSamples);
+    }
+
+    final int slot = slotOf(metricName);
+    final int maxSamples = samples != null ? samples : seconds.intValue();
+    final long maxAgeMillis = seconds != null ? toMillis(seconds, "Window") : Long.MAX_VALUE;
+    // aggregates of the same window share its accumulator
+    final int position = accumulatorPositionOf(
+        Arrays.asList(SlidingWindow.class, slot, metricName, samples, seconds),
+        () -> new SlidingWindow(slot, metricName, maxSamples, maxAgeMillis)
+    );
+    return (context, input) -> (float)
+        ((SlidingWindow) context.getAccumulators().get(input.getZone(), position))
+            .get(aggregate);
+  }
+
+  private NumberInput compileQuantileInput(QuantileFunction expressionInput) {
+    final String metricName = expressionInput.getOf();
+    final Double quantile = expressionInput.getQuantile();
+    final Long seconds = expressionInput.getSeconds();
+    if (metricName == null || quantile == null) {
+      throw new IllegalArgumentException("Quantile function requires a metric and quantile");
+    }
+    if (!(quantile >= 0 && quantile <= 1)) {
+      throw new IllegalArgumentException("Quantile must be between 0 and 1");
+    }
+    if (seconds != null && seconds < 1) {
+      throw new IllegalArgumentException("Quantile seconds must be positive");
+    }
+
+    final int slot = slotOf(metricName);
+    final long windowMillis = seconds != null ? toMillis(seconds, "Quantile") : Long.MAX_VALUE;
+    // quantiles of the same window share its sketches
+    final int position = accumulatorPositionOf(
+        Arrays.asList(QuantileWindow.class, slot, metricName, seconds),
+        () -> new QuantileWindow(slot, metricName, windowMillis)
+    );
+    final boolean acrossZones = expressionInput.isAcrossZones();
+    // re-used for each evaluation, which is safe since a context is used by one thread at a time,
+    // or per thread when the zones of the context are processed concurrently
+    final QuantileSketch shared = concurrent ? null : new QuantileSketch();
+    final ThreadLocal<QuantileSketch> perThread =
+        concurrent ? ThreadLocal.withInitial(QuantileSketch::new) : null;
+    return (context, input) -> {
+      final long now = input.getTimestamp().toEpochMilli();
+      final QuantileSketch merged = shared != null ? shared : perThread.get();
+      merged.clear();
+      if (acrossZones) {
+        for (ZoneAccumulator[] zone : context.getAccumulators().allZones()) {
+          ((QuantileWindow) zone[position]).mergeInto(merged, now);
+        }
+      } else {
+        ((QuantileWindow) context.getAccumulators().get(input.getZone(), position))
+            .mergeInto(merged, now);
+      }
+      return (float) merged.getQuantile(quantile);
+    };
+  }
+
+  /**
+   * @throws IllegalArgumentException if the seconds cannot be represented in milliseconds, which
+   * would otherwise wrap around to a negative age that expires every sample
+   */
+  private static long toMillis(long seconds, String function) {
+    try {
+      return Math.multiplyExact(seconds, 1000L);
+    } catch (ArithmeticException e) {
+      throw new IllegalArgumentException(function + " seconds are too large", e);
+    }
+  }
+
+  private NumberInput compileBaselineInput(BaselineFunction expressionInput) {
+    final String metricName = expressionInput.getOf();
+    final Output output = expressionInput.getOutput();
+    final double alpha = expressionInput.getAlpha();
+    final double beta = expressionInput.getBeta();
+    final double gamma = expressionInput.getGamma();
+    final int seasonLength =
+        expressionInput.getSeasonLength() != null ? expressionInput.getSeasonLength() : 0;
+    final Long seasonSeconds = expressionInput.getSeasonSeconds();
+    if (metricName == null || output == null) {
+      throw new IllegalArgumentException("Baseline function requires a metric and output");
+    }
+    if (!(alpha > 0 && alpha <= 1) || !(beta >= 0 && beta <= 1) || !(gamma >= 0 && gamma <= 1)) {
+      throw new IllegalArgumentException(
+          "Baseline smoothing factors must be within (0, 1] for alpha and [0, 1] otherwise");
+    }
+    if (expressionInput.getSeasonLength() != null
+        && (seasonLength < 1 || seasonLength > MAX_SEASON_LENGTH)) {
+      throw new IllegalArgumentException(
+          "Baseline season length must be between 1 and " + MAX_SEASON_LENGTH);
+    }
+    if (seasonSeconds != null && (seasonLength == 0 || seasonSeconds < 1
+        || seasonSeconds > MAX_SEASON_SECONDS)) {
+      throw new IllegalArgumentException(
+          "Baseline season seconds requires a season length and must be between 1 and "
+              + MAX_SEASON_SECONDS);
+    }
+    final int warmup = expressionInput.getWarmup() != null ? expressionInput.getWarmup() :
+        (seasonLength > 0 ? 2 * seasonLength : DEFAULT_BASELINE_WARMUP);
+    if (warmup < 1) {
+      throw new IllegalArgumentException("Baseline warmup must be positive");
+    }
+
+    final int slot = slotOf(metricName);
+    final long seasonMillis = seasonSeconds != null ? seasonSeconds * 1000 : 0;
+    // outputs of the same baseline share its state
+    final int position = accumulatorPositionOf(
+        Arrays.asList(Baseline.class, slot, metricName, alpha, beta, gamma, seasonLength,
+            seasonMillis, warmup),
+        () -> new Baseline(slot, metricName, alpha, beta, gamma, seasonLength, seasonMillis,
+            warmup)
+    );
+    return (context, input) -> {
+      final Baseline baseline =
+          (Baseline) context.getAccumulators().get(input.getZone(), position);
+      final long timestamp = input.getTimestamp().toEpochMilli();
+      switch (output) {
+        case BASELINE:
+          return (float) baseline.getForecast(timestamp);
+        case ABSOLUTE_DEVIATION:
+          return (float) Math.abs(
+              baseline.getDeviation(input.getNumber(slot, metricName), timestamp));
+        case DEVIATION:
+        default:
+          return (float) baseline.getDeviation(input.getNumber(slot, metricName), timestamp);
+      }
+    };
+  }
+
+  private NumberInput compilePercentageInput(PercentageFunction expressionInput) {
+    final String part = expressionInput.getPart();
+    final String whole = expressionInput.getWhole();
+    final int partSlot = slotOf(part);
+    final int wholeSlot = slotOf(whole);
+    return (context, input) -> {
+      final float partValue = input.getNumber(partSlot, part);
+      final float wholeValue = input.getNumber(wholeSlot, whole);
+
+      return (float) (100.0 * (partValue / wholeValue));
+    };
+  }
+
+  private NumberInput compileRateInput(RateFunction expressionInput) {
+    final String metricName = expressionInput.getOf();
+    final int slot = slotOf(metricName);
+    final int column = historyColumnOf(metricName);
+    return (context, currentInput) -> {
+      final ZoneHistory history = context.getInputHistory().getZone(currentInput.getZone());
+
+      if (history == null) {
+        return NumberInput.UNAVAILABLE;
+      }
+
+      final float currentValue = currentInput.getNumber(slot, metricName);
+      final float previousValue = history.getNumber(0, column);
+
+      return (currentValue - previousValue)
+          / secondsBetween(history.getEpochSecond(0), history.getNano(0),
+          currentInput.getTimestamp());
+    };
+  }
+
+  /**
+   * Equivalent to <code>Duration.between(start, end).getSeconds()</code> without allocating
+   * the {@link java.time.Duration}.
+   */
+  static long secondsBetween(long startEpochSecond, int startNano, Instant end) {
+    long seconds = end.getEpochSecond() - startEpochSecond;
+    if (end.getNano() < startNano) {
+      --seconds;
+    }
+    return seconds;
+  }
+
+  private StringInput compileStringInput(Object expressionInput) {
+    if (expressionInput instanceof String) {
+      final String metricName = (String) expressionInput;
+      final int slot = slotOf(metricName);
+      return (context, input) -> input.getString(slot, metricName);
+    } else {
+      throw new IllegalArgumentException("Invalid string input type: " + expressionInput);
+    }
+  }
+
+  private ExpressionEvaluator compileStringComparison(StringInput lhs,
+                                                      Comparator comparator,
+                                                      String rhs) {
+    if (comparator == null) {
+      throw new IllegalArgumentException("Comparator is required for string comparison");
+    }
+    switch (comparator) {
+      case EQUAL_TO:
+        return (context, input) -> {
+          final String value = lhs.resolve(context, input);
+          return value != null && value.equals(rhs);
+        };
+      case NOT_EQUAL_TO:
+        return (context, input) -> {
+          final String value = lhs.resolve(context, input);
+          return value != null && !value.equals(rhs);
+        };
+      case REGEX_MATCH:
+        return new RegexComparison(lhs, PatternCache.shared().get(rhs), false, concurrent);
+      case NOT_REGEX_MATCH:
+        return new RegexComparison(lhs, PatternCache.shared().get(rhs), true, concurrent);
+      default:
+        throw new IllegalArgumentException(
+            "Invalid comparator " + comparator + " for string comparison");
+    }
+  }
+
+  /**
+   * Resolves numerical inputs as primitives, so that evaluating a comparison does not box.
+   */
+  @FunctionalInterface
+  interface NumberInput {
+
+    /**
+     * Indicates the input is not available, such as a missing metric. Since this is NaN,
+     * comparisons consult {@link MetricInput#hasMetric} to tell a metric reported as NaN, which
+     * is unequal to every value, from an unavailable one.
+     */
+    float UNAVAILABLE = Float.NaN;
+
+    /**
+     * @return the resolved value or {@link #UNAVAILABLE}
+     */
+    float resolve(EventProcessorContext context, MetricInput input);
+  }
+
+  @FunctionalInterface
+  interface StringInput {
+
+    /**
+     * @return the resolved value or null if the input is not available
+     */
+    String resolve(EventProcessorContext context, MetricInput input);
+  }
+
+  static class AndEvaluator implements ExpressionEvaluator {
+
+    final ExpressionEvaluator[] children;
+
+    AndEvaluator(ExpressionEvaluator[] children) {
+      this.children = children;
+    }
+
+    @Override
+    public boolean evaluate(EventProcessorContext context, MetricInput input) {
+      for (ExpressionEvaluator child : children) {
+        if (!child.evaluate(context, input)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  static class OrEvaluator implements ExpressionEvaluator {
+
+    final ExpressionEvaluator[] children;
+
+    OrEvaluator(ExpressionEvaluator[] children) {
+      this.children = children;
+    }
+
+    @Override
+    public boolean evaluate(EventProcessorContext context, MetricInput input) {
+      for (ExpressionEvaluator child : children) {
+        if (child.evaluate(context, input)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  static class NumericalComparison implements ExpressionEvaluator {
+
+    final NumberInput lhs;
+    final Comparator comparator;
+    final float rhs;
+    /**
+     * Whether the metrics of the input were reported, which is only consulted when it resolves
+     * to NaN, or null when NaN always means unavailable
+     */
+    final Predicate<MetricInput> reported;
+
+    NumericalComparison(NumberInput lhs, Comparator comparator, float rhs,
+                        Predicate<MetricInput> reported) {
+      this.lhs = lhs;
+      this.comparator = comparator;
+      this.rhs = rhs;
+      this.reported = reported;
+    }
+
+    @Override
+    public boolean evaluate(EventProcessorContext context, MetricInput input) {
+      final float lhsFloat = lhs.resolve(context, input);
+      if (Float.isNaN(lhsFloat)) {
+        // a reported NaN is unequal to everything, as with comparing floats, while an
+        // unavailable input satisfies no comparison
+        return comparator == Comparator.NOT_EQUAL_TO && reported != null && reported.test(input);
+      }
+
+      switch (comparator) {
+        case GREATER_THAN:
+          return lhsFloat > rhs;
+        case EQUAL_TO:
+          return lhsFloat == rhs;
+        case GREATER_THAN_OR_EQUAL_TO:
+          return lhsFloat >= rhs;
+        case LESS_THAN:
+          return lhsFloat < rhs;
+        case LESS_THAN_OR_EQUAL_TO:
+          return lhsFloat <= rhs;
+        case NOT_EQUAL_TO:
+          return lhsFloat != rhs;
+        default:
+          // validated during compilation
+          throw new IllegalStateException("Unexpected comparator " + comparator);
+      }
+    }
+  }
+
+  /**
+   * Evaluates a regex comparison by re-using a single {@link Matcher}, which is safe since a
+   * context is only ever processed by one thread at a time, or a {@link Matcher} per thread when
+   * the zones of a context are processed concurrently.
+   */
+  static class RegexComparison implements ExpressionEvaluator {
+
+    final StringInput lhs;
+    /**
+     * The matcher re-used by every evaluation or null when held per thread
+     */
+    final Matcher matcher;
+    final ThreadLocal<Matcher> threadMatchers;
+    final boolean negate;
+
+    RegexComparison(StringInput lhs, Pattern pattern, boolean negate, boolean concurrent) {
+      this.lhs = lhs;
+      this.matcher = concurrent ? null : pattern.matcher("");
+      this.threadMatchers = concurrent ? ThreadLocal.withInitial(() -> pattern.matcher("")) : null;
+      this.negate = negate;
+    }
+
+    @Override
+    public boolean evaluate(EventProcessorContext context, MetricInput input) {
+      final String value = lhs.resolve(context, input);
+      if (value == null) {
+        return false;
+      }
+      final Matcher current = matcher != null ? matcher : threadMatchers.get();
+      return current.reset(value).find() != negate;
+    }
+  }
+
+  /**
+   * Evaluates an OR of equality and regex comparisons against the same string metric with one
+   * set lookup for the literals and, typically, one pass of an alternation of the regexes.
+   */
+  static class StringSetMatch implements ExpressionEvaluator {
+
+    final StringInput lhs;
+    final Set<String> literals;
+    /**
+     * A matcher of the combined alternation or, when the regexes could not be combined, of
+     * each regex. These are null when held per thread, since the zones of the context are
+     * processed concurrently.
+     */
+    final Matcher[] matchers;
+    final ThreadLocal<Matcher[]> threadMatchers;
+
+    StringSetMatch(StringInput lhs, Set<String> literals, Pattern[] patterns,
+                   boolean concurrent) {
+      this.lhs = lhs;
+      this.literals = literals;
+      this.matchers = concurrent ? null : matchersOf(patterns);
+      this.threadMatchers = concurrent ? ThreadLocal.withInitial(() -> matchersOf(patterns)) : null;
+    }
+
+    private static Matcher[] matchersOf(Pattern[] patterns) {
+      final Matcher[] matchers = new Matcher[patterns.length];
+      for (int i = 0; i < patterns.length; i++) {
+        matchers[i] = patterns[i].matcher("");
+      }
+      return matchers;
+    }
+
+    @Override
+    public boolean evaluate(EventProcessorContext context, MetricInput input) {
+      final String value = lhs.resolve(context, input);
+      if (value == null) {
+        return false;
+      }
+      if (literals.contains(value)) {
+        return true;
+      }
+      for (Matcher matcher : matchers != null ? matchers : threadMatchers.get()) {
+        if (matcher.reset(value).find()) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
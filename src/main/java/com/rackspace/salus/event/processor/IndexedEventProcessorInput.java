@@ -0,0 +1,205 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * An alternative to the map-based {@link EventProcessorInput} where metric values are held in
+ * slots assigned by a {@link MetricSchema}. Numerical values are stored unboxed along with
+ * a presence bitmap and string values are stored in a parallel array. Another bitmap records
+ * which numbers were set as integers, so that they render like the integer metrics of a
+ * map-based input.
+ * <p>
+ * Instances are created by {@link MetricSchema#newInput(Instant, String)} and may be re-used
+ * across inputs by calling {@link #clear()} prior to populating the next one. Metrics that the
+ * schema does not reference are ignored when set by name.
+ * </p>
+ */
+public class IndexedEventProcessorInput implements MetricInput {
+
+  private final MetricSchema schema;
+  private final double[] numbers;
+  private final long[] present;
+  private final long[] integral;
+  private final String[] strings;
+  private Instant timestamp;
+  private String zone;
+
+  IndexedEventProcessorInput(MetricSchema schema) {
+    this.schema = schema;
+    this.numbers = new double[schema.size()];
+    this.present = new long[(schema.size() + 63) >>> 6];
+    this.integral = new long[present.length];
+    this.strings = new String[schema.size()];
+  }
+
+  public MetricSchema getSchema() {
+    return schema;
+  }
+
+  @Override
+  public Instant getTimestamp() {
+    return timestamp;
+  }
+
+  public IndexedEventProcessorInput setTimestamp(Instant timestamp) {
+    this.timestamp = timestamp;
+    return this;
+  }
+
+  @Override
+  public String getZone() {
+    return zone;
+  }
+
+  public IndexedEventProcessorInput setZone(String zone) {
+    this.zone = zone;
+    return this;
+  }
+
+  public IndexedEventProcessorInput setNumber(int slot, double value) {
+    numbers[slot] = value;
+    present[slot >>> 6] |= 1L << slot;
+    integral[slot >>> 6] &= ~(1L << slot);
+    strings[slot] = null;
+    return this;
+  }
+
+  /**
+   * Sets an integer metric, which is stored as a double but rendered as an integer.
+   */
+  public IndexedEventProcessorInput setNumber(int slot, long value) {
+    setNumber(slot, (double) value);
+    integral[slot >>> 6] |= 1L << slot;
+    return this;
+  }
+
+  /**
+   * Sets the named metric, if referenced by the schema.
+   */
+  public IndexedEventProcessorInput setNumber(String name, double value) {
+    final int slot = schema.slotOf(name);
+    if (slot >= 0) {
+      setNumber(slot, value);
+    }
+    return this;
+  }
+
+  /**
+   * Sets the named integer metric, if referenced by the schema.
+   */
+  public IndexedEventProcessorInput setNumber(String name, long value) {
+    final int slot = schema.slotOf(name);
+    if (slot >= 0) {
+      setNumber(slot, value);
+    }
+    return this;
+  }
+
+  public IndexedEventProcessorInput setString(int slot, String value) {
+    strings[slot] = value;
+    present[slot >>> 6] &= ~(1L << slot);
+    return this;
+  }
+
+  /**
+   * Sets the named metric, if referenced by the schema.
+   */
+  public IndexedEventProcessorInput setString(String name, String value) {
+    final int slot = schema.slotOf(name);
+    if (slot >= 0) {
+      setString(slot, value);
+    }
+    return this;
+  }
+
+  public boolean hasNumber(int slot) {
+    return (present[slot >>> 6] & (1L << slot)) != 0;
+  }
+
+  /**
+   * Clears all metric values, timestamp, and zone so this instance can be re-used.
+   */
+  public IndexedEventProcessorInput clear() {
+    Arrays.fill(present, 0);
+    Arrays.fill(strings, null);
+    timestamp = null;
+    zone = null;
+    return this;
+  }
+
+  @Override
+  public float getNumber(int slot, String name) {
+    if (slot < 0) {
+      return Float.NaN;
+    }
+    if (strings[slot] != null) {
+      throw new ClassCastException("Metric " + name + " is not numerical");
+    }
+    return hasNumber(slot) ? (float) numbers[slot] : Float.NaN;
+  }
+
+  @Override
+  public String getString(int slot, String name) {
+    if (slot < 0) {
+      return null;
+    }
+    if (hasNumber(slot)) {
+      throw new ClassCastException("Metric " + name + " is not a string");
+    }
+    return strings[slot];
+  }
+
+  @Override
+  public Object getValue(int slot, String name) {
+    if (slot < 0) {
+      return null;
+    }
+    if (hasNumber(slot)) {
+      if ((integral[slot >>> 6] & (1L << slot)) != 0) {
+        return (long) numbers[slot];
+      }
+      return numbers[slot];
+    }
+    return strings[slot];
+  }
+
+  @Override
+  public boolean hasMetric(int slot, String name) {
+    return slot >= 0 && (hasNumber(slot) || strings[slot] != null);
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder("IndexedEventProcessorInput(timestamp=")
+        .append(timestamp).append(", zone=").append(zone).append(", metrics={");
+    boolean first = true;
+    for (int slot = 0; slot < schema.size(); slot++) {
+      final Object value = getValue(slot, schema.nameOf(slot));
+      if (value != null) {
+        if (!first) {
+          sb.append(", ");
+        }
+        sb.append(schema.nameOf(slot)).append('=').append(value);
+        first = false;
+      }
+    }
+    return sb.append("})").toString();
+  }
+}
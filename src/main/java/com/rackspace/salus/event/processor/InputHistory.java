@@ -0,0 +1,267 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Retains the recent numerical values, per monitoring zone, of the metrics that a task's
+ * expressions look back on, such as with a
+ * {@link com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.RateFunction}.
+ * Each zone has a fixed-size ring buffer of primitive arrays, so appending and looking up a
+ * sample are constant time and each zone occupies
+ * <code>depth * (12 + 4 * columns)</code> bytes of array data.
+ * <p>
+ * Zones are created through a concurrent map, so different zones may be appended to by
+ * different threads when a context is built with
+ * {@link ContextBuildOptions#isConcurrentZoneStates() concurrent zone states}, but each zone
+ * is written and read by one thread at a time.
+ * </p>
+ */
+public class InputHistory {
+
+  /**
+   * Key of the inputs that have no zone
+   */
+  private static final String NO_ZONE = "";
+
+  private final List<String> metricNames;
+  private final int[] slots;
+  private final int depth;
+  private final Map<String, ZoneHistory> zones = new ConcurrentHashMap<>();
+
+  /**
+   * @param metricNames the metrics retained, where the position of each is its column
+   * @param slots the slot of each metric in the task's {@link MetricSchema}
+   * @param depth the number of samples retained per zone
+   */
+  InputHistory(List<String> metricNames, int[] slots, int depth) {
+    if (depth < 1) {
+      throw new IllegalArgumentException("History depth must be at least 1");
+    }
+    this.metricNames = List.copyOf(metricNames);
+    this.slots = slots;
+    this.depth = depth;
+  }
+
+  /**
+   * @return true if the task looks back on any metrics, otherwise nothing is retained
+   */
+  public boolean isRetaining() {
+    return slots.length > 0;
+  }
+
+  public int getDepth() {
+    return depth;
+  }
+
+  /**
+   * @return the metrics retained, in column order
+   */
+  public List<String> getMetricNames() {
+    return metricNames;
+  }
+
+  /**
+   * @return the number of zones retained so far
+   */
+  int zoneCount() {
+    return zones.size();
+  }
+
+  /**
+   * @return the bytes of the samples retained per zone, once the zone's history is full
+   */
+  long retainedBytesPerZone() {
+    if (!isRetaining()) {
+      return 0;
+    }
+    return 64 + (long) depth * (Long.BYTES + Integer.BYTES + Float.BYTES * slots.length);
+  }
+
+  /**
+   * @return the history of the given zone or null if no input of that zone has been retained
+   */
+  public ZoneHistory getZone(String zone) {
+    return zones.get(zone != null ? zone : NO_ZONE);
+  }
+
+  /**
+   * Carries over the samples of a previous compilation of the same task. The zones are shared
+   * when the same metrics are retained, in the same column order, to the same depth. Otherwise
+   * the columns of the metrics that are still retained are copied by name, up to this depth,
+   * and those of newly retained metrics start out as absent. Must be called before this
+   * instance is used.
+   */
+  void adoptZones(InputHistory previous) {
+    if (!isRetaining()) {
+      return;
+    }
+    if (depth == previous.depth && metricNames.equals(previous.metricNames)) {
+      zones.putAll(previous.zones);
+      return;
+    }
+
+    final int[] previousColumns = new int[metricNames.size()];
+    boolean retained = false;
+    for (int column = 0; column < previousColumns.length; column++) {
+      previousColumns[column] = previous.metricNames.indexOf(metricNames.get(column));
+      retained |= previousColumns[column] >= 0;
+    }
+    if (retained) {
+      previous.zones.forEach((zone, zoneHistory) ->
+          zones.put(zone, zoneHistory.copyColumns(depth, previousColumns)));
+    }
+  }
+
+  /**
+   * Retains the given input as the most recent sample of its zone. The caller must have
+   * finished evaluating the input, since a zone's earlier samples are then shifted back.
+   */
+  void append(MetricInput input) {
+    if (!isRetaining()) {
+      return;
+    }
+    final String zone = input.getZone() != null ? input.getZone() : NO_ZONE;
+    ZoneHistory zoneHistory = zones.get(zone);
+    if (zoneHistory == null) {
+      zoneHistory = zones.computeIfAbsent(zone, z -> new ZoneHistory(depth, slots.length));
+    }
+    zoneHistory.append(input, slots, metricNames);
+  }
+
+  /**
+   * A ring buffer of the samples of one zone, which is written by one thread at a time.
+   */
+  public static class ZoneHistory {
+
+    private final int depth;
+    private final int columns;
+    private final long[] epochSeconds;
+    private final int[] nanos;
+    /**
+     * Row-major by sample, with {@link Float#NaN} for metrics absent from the sample
+     */
+    private final float[] values;
+    /**
+     * Index of the most recent sample
+     */
+    private int head = -1;
+    private int size;
+
+    ZoneHistory(int depth, int columns) {
+      this.depth = depth;
+      this.columns = columns;
+      epochSeconds = new long[depth];
+      nanos = new int[depth];
+      values = new float[depth * columns];
+    }
+
+    void append(MetricInput input, int[] slots, List<String> metricNames) {
+      head = head + 1 == depth ? 0 : head + 1;
+      final Instant timestamp = input.getTimestamp();
+      epochSeconds[head] = timestamp.getEpochSecond();
+      nanos[head] = timestamp.getNano();
+      final int offset = head * columns;
+      for (int column = 0; column < columns; column++) {
+        values[offset + column] = input.getNumber(slots[column], metricNames.get(column));
+      }
+      if (size < depth) {
+        size++;
+      }
+    }
+
+    /**
+     * @param previousColumns the column of this history that holds each column of the copy, or
+     * -1 for columns whose values are absent
+     * @return a copy of the most recent samples, up to the given depth, with its columns
+     * rearranged
+     */
+    ZoneHistory copyColumns(int depth, int[] previousColumns) {
+      final ZoneHistory copy = new ZoneHistory(depth, previousColumns.length);
+      // oldest first, so that the copy's head is the most recent sample
+      for (int back = Math.min(size, depth) - 1; back >= 0; back--) {
+        final int index = indexOf(back);
+        copy.head = copy.head + 1 == depth ? 0 : copy.head + 1;
+        copy.epochSeconds[copy.head] = epochSeconds[index];
+        copy.nanos[copy.head] = nanos[index];
+        final int offset = copy.head * copy.columns;
+        for (int column = 0; column < copy.columns; column++) {
+          final int previousColumn = previousColumns[column];
+          copy.values[offset + column] = previousColumn >= 0 ?
+              values[index * columns + previousColumn] : Float.NaN;
+        }
+        copy.size++;
+      }
+      return copy;
+    }
+
+    /**
+     * @return the number of samples retained, up to the depth
+     */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * @param back 0 for the most recent sample, 1 for the one before, and so on
+     * @return the value of the given column or {@link Float#NaN} if the sample does not exist
+     * or did not include the metric
+     */
+    public float getNumber(int back, int column) {
+      if (back >= size) {
+        return Float.NaN;
+      }
+      return values[indexOf(back) * columns + column];
+    }
+
+    public long getEpochSecond(int back) {
+      checkSample(back);
+      return epochSeconds[indexOf(back)];
+    }
+
+    public int getNano(int back) {
+      checkSample(back);
+      return nanos[indexOf(back)];
+    }
+
+    /**
+     * Convenience for {@link #getEpochSecond(int)} and {@link #getNano(int)}, which unlike this
+     * method do not allocate.
+     */
+    public Instant getTimestamp(int back) {
+      checkSample(back);
+      final int index = indexOf(back);
+      return Instant.ofEpochSecond(epochSeconds[index], nanos[index]);
+    }
+
+    private int indexOf(int back) {
+      final int index = head - back;
+      return index >= 0 ? index : index + depth;
+    }
+
+    private void checkSample(int back) {
+      if (back < 0 || back >= size) {
+        throw new IndexOutOfBoundsException(
+            "Sample " + back + " is not retained, size is " + size);
+      }
+    }
+  }
+}
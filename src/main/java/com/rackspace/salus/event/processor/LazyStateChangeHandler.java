@@ -0,0 +1,44 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import com.rackspace.salus.event.statemachines.MultiStateTransition;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.TaskState;
+import java.util.function.Supplier;
+
+/**
+ * A {@link StateChangeHandler} that receives the message of a transition as a supplier which
+ * only renders the message template when first requested, so that handlers that drop or
+ * de-duplicate transitions never pay for rendering.
+ * <p>
+ * The supplier caches the rendered message; however, it references the processed input, so
+ * it must be resolved before that input is modified, such as when re-using an
+ * {@link IndexedEventProcessorInput}.
+ * </p>
+ */
+@FunctionalInterface
+public interface LazyStateChangeHandler extends StateChangeHandler {
+
+  void handleLazyStateChange(MultiStateTransition<TaskState, String> transition,
+                             Supplier<String> message);
+
+  @Override
+  default void handleStateChange(MultiStateTransition<TaskState, String> transition,
+                                 String message) {
+    handleLazyStateChange(transition, () -> message);
+  }
+}
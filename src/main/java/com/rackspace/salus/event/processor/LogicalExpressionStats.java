@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.LogicalExpression;
+import java.util.List;
+import lombok.Data;
+
+/**
+ * A snapshot of the observations made while evaluating a logical expression with
+ * {@link ContextBuildOptions#isAdaptiveOrdering() adaptive ordering} enabled.
+ */
+@Data
+public class LogicalExpressionStats {
+
+  LogicalExpression expression;
+  long evaluations;
+  /**
+   * The number of times the children were re-ordered, which includes re-orderings that kept
+   * the same order.
+   */
+  long reorders;
+  /**
+   * In the current order of evaluation
+   */
+  List<ChildStats> children;
+
+  @Data
+  public static class ChildStats {
+
+    /**
+     * The expression, or for combined string matches the expressions, of this child
+     */
+    String description;
+    /**
+     * Position of the child in the declared order, where combined string matches take the
+     * position of the first of them
+     */
+    int declaredPosition;
+    /**
+     * Evaluations since the counts were last decayed
+     */
+    long evaluations;
+    double trueRate;
+    /**
+     * Average evaluation time of the sampled evaluations
+     */
+    double averageNanos;
+  }
+}
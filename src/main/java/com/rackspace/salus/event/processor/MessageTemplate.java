@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToIntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A state expression's message that has been parsed once into literal and metric field
+ * segments, such as "The value #{idle} is too low".
+ */
+class MessageTemplate {
+
+  /**
+   * Used for locating field references in the configured message.
+   */
+  static final Pattern FIELD_REFERENCE = Pattern.compile("#\\{([^}]+)}");
+  static final String MISSING_INTERPOLATION = "undefined";
+
+  /**
+   * Literal text, where each entry is followed by the field at the same index, if any.
+   */
+  private final String[] literals;
+  private final String[] fieldNames;
+  private final int[] fieldSlots;
+  private final int estimatedLength;
+
+  private MessageTemplate(String[] literals, String[] fieldNames, int[] fieldSlots,
+                          int estimatedLength) {
+    this.literals = literals;
+    this.fieldNames = fieldNames;
+    this.fieldSlots = fieldSlots;
+    this.estimatedLength = estimatedLength;
+  }
+
+  /**
+   * @param message the configured message, which may be null
+   * @param slotResolver provides the {@link MetricSchema} slot of each referenced field
+   * @return the parsed template or null if the given message was null
+   */
+  static MessageTemplate parse(String message, ToIntFunction<String> slotResolver) {
+    if (message == null) {
+      return null;
+    }
+
+    final List<String> literals = new ArrayList<>();
+    final List<String> fieldNames = new ArrayList<>();
+    final Matcher matcher = FIELD_REFERENCE.matcher(message);
+    int position = 0;
+    while (matcher.find()) {
+      literals.add(message.substring(position, matcher.start()));
+      fieldNames.add(matcher.group(1));
+      position = matcher.end();
+    }
+    literals.add(message.substring(position));
+
+    final int[] fieldSlots = new int[fieldNames.size()];
+    for (int i = 0; i < fieldSlots.length; i++) {
+      fieldSlots[i] = slotResolver.applyAsInt(fieldNames.get(i));
+    }
+
+    return new MessageTemplate(
+        literals.toArray(new String[0]),
+        fieldNames.toArray(new String[0]),
+        fieldSlots,
+        message.length() + 8 * fieldSlots.length
+    );
+  }
+
+  /**
+   * Renders the template with the field values of the given input where fields not present
+   * in the input are rendered as {@value #MISSING_INTERPOLATION}.
+   */
+  String render(MetricInput input) {
+    final StringBuilder sb = new StringBuilder(estimatedLength);
+    for (int i = 0; i < fieldNames.length; i++) {
+      sb.append(literals[i]);
+      final Object value = input.getValue(fieldSlots[i], fieldNames[i]);
+      sb.append(value != null ? value.toString() : MISSING_INTERPOLATION);
+    }
+    sb.append(literals[fieldNames.length]);
+    return sb.toString();
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import java.time.Instant;
+
+/**
+ * The view of an input that compiled expressions evaluate against. Metric accessors are given
+ * both the {@link MetricSchema} slot and the name of the metric, so that each implementation
+ * can use whichever one it is keyed by.
+ */
+public interface MetricInput {
+
+  Instant getTimestamp();
+
+  String getZone();
+
+  /**
+   * @return the metric's numerical value or NaN if not present
+   * @throws ClassCastException if the metric is present but not numerical
+   */
+  float getNumber(int slot, String name);
+
+  /**
+   * @return the metric's string value or null if not present
+   * @throws ClassCastException if the metric is present but not a string
+   */
+  String getString(int slot, String name);
+
+  /**
+   * @return the metric's value for rendering or null if not present
+   */
+  Object getValue(int slot, String name);
+
+  /**
+   * Distinguishes a metric reported as NaN from one that is not present, since
+   * {@link #getNumber} returns NaN for both.
+   * @return true if the metric is present, whatever its value
+   */
+  default boolean hasMetric(int slot, String name) {
+    return getValue(slot, name) != null;
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns a slot index to each metric name referenced by a task, which includes the metrics
+ * referenced by its expressions and message templates. A schema is built once per
+ * {@link EventProcessorContext} and is used to create {@link IndexedEventProcessorInput}s that
+ * the compiled expressions can read by slot rather than by name.
+ */
+public class MetricSchema {
+
+  private final List<String> metricNames;
+  private final Map<String, Integer> slots;
+
+  MetricSchema(Collection<String> metricNames) {
+    this.metricNames = List.copyOf(metricNames);
+    this.slots = new HashMap<>(this.metricNames.size() * 2);
+    for (int i = 0; i < this.metricNames.size(); i++) {
+      if (slots.putIfAbsent(this.metricNames.get(i), i) != null) {
+        throw new IllegalArgumentException(
+            "Duplicate metric name in schema: " + this.metricNames.get(i));
+      }
+    }
+  }
+
+  /**
+   * @return the slot of the given metric name or -1 if the task does not reference it
+   */
+  public int slotOf(String metricName) {
+    final Integer slot = slots.get(metricName);
+    return slot != null ? slot : -1;
+  }
+
+  public String nameOf(int slot) {
+    return metricNames.get(slot);
+  }
+
+  public int size() {
+    return metricNames.size();
+  }
+
+  public List<String> getMetricNames() {
+    return metricNames;
+  }
+
+  /**
+   * Creates an empty input that is bound to this schema and can be populated via the setters of
+   * {@link IndexedEventProcessorInput}.
+   */
+  public IndexedEventProcessorInput newInput(Instant timestamp, String zone) {
+    return new IndexedEventProcessorInput(this)
+        .setTimestamp(timestamp)
+        .setZone(zone);
+  }
+
+  @Override
+  public String toString() {
+    return "MetricSchema" + metricNames;
+  }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Processes inputs on a fixed number of worker threads where each context is assigned, by its
+ * task ID, to exactly one partition. Each partition has its own worker and bounded queue, so
+ * every context, including its state machines, only ever has one writer and needs no locking.
+ * <p>
+ * Submitting blocks, or fails when using {@link #trySubmit}, while the partition's queue is
+ * full, which applies backpressure to the consumer of inputs. The given
+ * {@link StateChangeHandler} is called from the worker threads and must be thread-safe.
+ * </p>
+ * <p>
+ * The workers are daemon threads, so they do not keep the JVM running. Inputs that are still
+ * queued when the JVM exits are lost unless {@link #close} is called first, which processes
+ * them.
+ * </p>
+ */
+@Slf4j
+public class PartitionedEventProcessor implements AutoCloseable {
+
+  /**
+   * How often waiting to drain checks whether the workers have stopped
+   */
+  private static final long DRAIN_POLL_MILLIS = 100;
+  /**
+   * Set in {@link #state} once closed
+   */
+  private static final long CLOSED = 1L << 62;
+
+  private final EventProcessor eventProcessor;
+  private final StateChangeHandler stateChangeHandler;
+  private final Partition[] partitions;
+  /**
+   * The number of submits in progress along with the {@link #CLOSED} bit, which are updated
+   * together so that closing cannot interleave with a submit that is about to queue its input
+   */
+  private final AtomicLong state = new AtomicLong();
+
+  /**
+   * @param partitionCount the number of worker threads, such as the number of available cores
+   * @param queueCapacity the maximum number of pending inputs per partition
+   */
+  public PartitionedEventProcessor(EventProcessor eventProcessor,
+                                   StateChangeHandler stateChangeHandler,
+                                   int partitionCount, int queueCapacity) {
+    if (partitionCount < 1) {
+      throw new IllegalArgumentException("At least one partition is required");
+    }
+    if (queueCapacity < 1) {
+      throw new IllegalArgumentException("Queue capacity must be positive");
+    }
+    this.eventProcessor = eventProcessor;
+    this.stateChangeHandler = stateChangeHandler;
+    partitions = new Partition[partitionCount];
+    for (int i = 0; i < partitionCount; i++) {
+      partitions[i] = new Partition(i, queueCapacity);
+      partitions[i].worker.start();
+    }
+  }
+
+  /**
+   * @return the partition that processes all inputs of the given context
+   */
+  public int partitionOf(EventProcessorContext context) {
+    return partitionOf(context, partitions.length);
+  }
+
+  /**
+   * Assigns contexts to partitions the same way for every stage of the partitioned model, so
+   * that a context stays on the same partition index across stages with equal counts.
+   */
+  static int partitionOf(EventProcessorContext context, int partitionCount) {
+    return Math.floorMod(context.getTask().getId().hashCode(), partitionCount);
+  }
+
+  /**
+   * Queues the input for processing by the context's partition, waiting for space if needed.
+   * @param input either an {@link EventProcessorInput} or an {@link IndexedEventProcessorInput}
+   * of the context's schema
+   * @throws IllegalStateException if this processor has been closed
+   */
+  public void submit(EventProcessorContext context, MetricInput input)
+      throws InterruptedException {
+    final Partition partition = partitions[partitionOf(context)];
+    final Work work = newWork(context, input);
+    beginSubmit();
+    try {
+      if (!partition.queue.offer(work)) {
+        partition.blocked.incrementAndGet();
+        partition.queue.put(work);
+      }
+    } finally {
+      state.decrementAndGet();
+    }
+  }
+
+  /**
+   * Queues the input for processing by the context's partition if there is space.
+   * @return false if the partition's queue is full
+   * @throws IllegalStateException if this processor has been closed
+   */
+  public boolean trySubmit(EventProcessorContext context, MetricInput input) {
+    final Partition partition = partitions[partitionOf(context)];
+    final Work work = newWork(context, input);
+    beginSubmit();
+    try {
+      if (partition.queue.offer(work)) {
+        return true;
+      }
+    } finally {
+      state.decrementAndGet();
+    }
+    partition.rejected.incrementAndGet();
+    return false;
+  }
+
+  /**
+   * Queues the input for processing by the context's partition, waiting up to the given time
+   * for space.
+   * @return false if the partition's queue remained full
+   * @throws IllegalStateException if this processor has been closed
+   */
+  public boolean trySubmit(EventProcessorContext context, MetricInput input,
+                           long timeout, TimeUnit unit) throws InterruptedException {
+    final Partition partition = partitions[partitionOf(context)];
+    final Work work = newWork(context, input);
+    beginSubmit();
+    try {
+      if (partition.queue.offer(work, timeout, unit)) {
+        return true;
+      }
+    } finally {
+      state.decrementAndGet();
+    }
+    partition.rejected.incrementAndGet();
+    return false;
+  }
+
+  /**
+   * Waits until every input submitted before this call has been processed.
+   * @throws IllegalStateException if this processor has been closed or a worker stopped before
+   * processing the inputs, since {@link #close} already waits for the queued inputs
+   */
+  public void drain() throws InterruptedException {
+    if (isClosed()) {
+      throw new IllegalStateException("Processor has been closed");
+    }
+    final CountDownLatch drained = new CountDownLatch(partitions.length);
+    final Work marker = new Work(null, null, drained);
+    // a concurrent close may stop the workers before they reach the marker
+    for (Partition partition : partitions) {
+      while (!partition.queue.offer(marker, DRAIN_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+        checkWorkersRunning();
+      }
+    }
+    while (!drained.await(DRAIN_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+      checkWorkersRunning();
+    }
+  }
+
+  private void checkWorkersRunning() {
+    for (Partition partition : partitions) {
+      if (!partition.worker.isAlive()) {
+        throw new IllegalStateException(isClosed() ?
+            "Processor has been closed" : "Worker of partition " + partition.id + " stopped");
+      }
+    }
+  }
+
+  /**
+   * @return a snapshot of the queue depth and counters of each partition
+   */
+  public List<PartitionStats> getPartitionStats() {
+    final List<PartitionStats> stats = new ArrayList<>(partitions.length);
+    for (Partition partition : partitions) {
+      stats.add(new PartitionStats()
+          .setPartition(partition.id)
+          .setQueueDepth(partition.queue.size())
+          .setQueueCapacity(partition.capacity)
+          .setProcessed(partition.processed.get())
+          .setFailed(partition.failed.get())
+          .setRejected(partition.rejected.get())
+          .setBlocked(partition.blocked.get())
+      );
+    }
+    return stats;
+  }
+
+  /**
+   * Stops accepting inputs, processes those already queued, including those of submits that
+   * were in progress, and stops the workers.
+   */
+  @Override
+  public void close() throws InterruptedException {
+    long current;
+    do {
+      current = state.get();
+      if ((current & CLOSED) != 0) {
+        return;
+      }
+    } while (!state.compareAndSet(current, current | CLOSED));
+
+    for (Partition partition : partitions) {
+      // only wakes an idle worker, since a worker with queued inputs finds the processor closed
+      // once it has processed them
+      partition.queue.offer(Work.STOP);
+    }
+    for (Partition partition : partitions) {
+      partition.worker.join();
+    }
+  }
+
+  private boolean isClosed() {
+    return (state.get() & CLOSED) != 0;
+  }
+
+  /**
+   * Counts a submit as in progress until its input is queued
+   * @throws IllegalStateException if this processor has been closed
+   */
+  private void beginSubmit() {
+    long current;
+    do {
+      current = state.get();
+      if ((current & CLOSED) != 0) {
+        throw new IllegalStateException("Processor has been closed");
+      }
+    } while (!state.compareAndSet(current, current + 1));
+  }
+
+  /**
+   * @return true once closed and no submit is in progress, so no more inputs can be queued
+   */
+  private boolean isStopped() {
+    return state.get() == CLOSED;
+  }
+
+  private Work newWork(EventProcessorContext context, MetricInput input) {
+    if (!(input instanceof EventProcessorInput) && !(input instanceof IndexedEventProcessorInput)) {
+      throw new IllegalArgumentException("Unsupported input type: " + input.getClass());
+    }
+    return new Work(context, input, null);
+  }
+
+  private void process(Work work) {
+    if (work.input instanceof IndexedEventProcessorInput) {
+      eventProcessor.process(work.context, (IndexedEventProcessorInput) work.input,
+          stateChangeHandler);
+    } else {
+      eventProcessor.process(work.context, (EventProcessorInput) work.input, stateChangeHandler);
+    }
+  }
+
+  @Data
+  public static class PartitionStats {
+
+    int partition;
+    int queueDepth;
+    int queueCapacity;
+    long processed;
+    /**
+     * Inputs whose processing threw an exception, which is logged
+     */
+    long failed;
+    /**
+     * Inputs that were not queued since the queue remained full
+     */
+    long rejected;
+    /**
+     * Submits that had to wait for space in the queue
+     */
+    long blocked;
+  }
+
+  private static class Work {
+
+    /**
+     * Wakes a worker once closed
+     */
+    static final Work STOP = new Work(null, null, null);
+
+    final EventProcessorContext context;
+    final MetricInput input;
+    /**
+     * Counted down instead of processing when draining
+     */
+    final CountDownLatch drained;
+
+    Work(EventProcessorContext context, MetricInput input, CountDownLatch drained) {
+      this.context = context;
+      this.input = input;
+      this.drained = drained;
+    }
+  }
+
+  private class Partition implements Runnable {
+
+    final int id;
+    final int capacity;
+    final BlockingQueue<Work> queue;
+    final Thread worker;
+    final AtomicLong processed = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    final AtomicLong rejected = new AtomicLong();
+    final AtomicLong blocked = new AtomicLong();
+
+    Partition(int id, int capacity) {
+      this.id = id;
+      this.capacity = capacity;
+      queue = new ArrayBlockingQueue<>(capacity);
+      worker = new Thread(this, "event-processor-" + id);
+      worker.setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        final Work work;
+        try {
+          // once closed, waits for in-progress submits rather than for a wake-up
+          work = isClosed() ?
+              queue.poll(DRAIN_POLL_MILLIS, TimeUnit.MILLISECONDS) : queue.take();
+        } catch (InterruptedException e) {
+          log.warn("Worker of partition={} interrupted with {} inputs queued", id, queue.size());
+          Thread.currentThread().interrupt();
+          return;
+        }
+
+        if (work == null || work == Work.STOP) {
+          // submits queue before they finish, so an empty queue after they have all finished
+          // means every accepted input was processed
+          if (isStopped() && queue.isEmpty()) {
+            return;
+          }
+          continue;
+        } else if (work.drained != null) {
+          work.drained.countDown();
+          continue;
+        }
+
+        try {
+          process(work);
+          processed.incrementAndGet();
+        } catch (RuntimeException e) {
+          failed.incrementAndGet();
+          log.warn("Failed to process input={} of task={}", work.input,
+              work.context.getTask().getId(), e);
+        }
+      }
+    }
+  }
+}
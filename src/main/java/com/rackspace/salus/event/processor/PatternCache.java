@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.util.regex.Pattern;
+
+/**
+ * A bounded, concurrent cache of compiled regex {@link Pattern}s keyed by the expression text.
+ * The {@link #shared()} instance is used when compiling the REGEX_MATCH and NOT_REGEX_MATCH
+ * comparisons of every {@link EventProcessorContext}, since many tenants configure the same
+ * patterns.
+ */
+public class PatternCache {
+
+  /**
+   * The default bound of the shared instance, which can be overridden with the system property
+   * {@value #MAXIMUM_SIZE_PROPERTY}.
+   */
+  public static final long DEFAULT_MAXIMUM_SIZE = 10_000;
+  public static final String MAXIMUM_SIZE_PROPERTY = "salus.event.patternCache.maximumSize";
+
+  private static final PatternCache SHARED = new PatternCache(
+      Long.getLong(MAXIMUM_SIZE_PROPERTY, DEFAULT_MAXIMUM_SIZE));
+
+  private final LoadingCache<String, Pattern> patterns;
+
+  public PatternCache(long maximumSize) {
+    patterns = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .recordStats()
+        .build(CacheLoader.from(Pattern::compile));
+  }
+
+  public static PatternCache shared() {
+    return SHARED;
+  }
+
+  /**
+   * @param regex the regular expression text
+   * @return the compiled pattern, which may be shared with other callers
+   * @throws IllegalArgumentException if the expression is not a valid regular expression
+   */
+  public Pattern get(String regex) {
+    if (regex == null) {
+      throw new IllegalArgumentException("regex is required");
+    }
+    try {
+      return patterns.getUnchecked(regex);
+    } catch (UncheckedExecutionException e) {
+      if (e.getCause() instanceof IllegalArgumentException) {
+        // typically a PatternSyntaxException
+        throw (IllegalArgumentException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * @return hit, miss, and eviction statistics of this cache
+   */
+  public CacheStats getStats() {
+    return patterns.stats();
+  }
+
+  public long size() {
+    return patterns.size();
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import lombok.Data;
+
+/**
+ * An expression input that estimates a quantile of a metric, such as the 95th percentile of
+ * latency over the last five minutes:
+ * <pre>
+ * new ComparisonExpression()
+ *   .setInput(new QuantileFunction().setOf("latency").setQuantile(0.95).setSeconds(300L))
+ *   .setComparator(Comparator.GREATER_THAN)
+ *   .setComparisonValue(250)
+ * </pre>
+ * The values are summarized per zone by {@link QuantileSketch}es, so memory is bounded
+ * regardless of the rate of inputs, and the estimate is within 1% of the true quantile.
+ */
+@Data
+public class QuantileFunction {
+
+  String of;
+  /**
+   * Within [0, 1], such as 0.95 for the 95th percentile
+   */
+  Double quantile;
+  /**
+   * The duration of the window in seconds, which advances in steps of a sixth of the
+   * duration. When not set, all inputs since the context was built are included.
+   */
+  Long seconds;
+  /**
+   * When true, the sketches of all zones of the task are merged to estimate the quantile across
+   * the zones. Otherwise only the sketch of the input's zone is used.
+   */
+  boolean acrossZones;
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+/**
+ * A mergeable sketch of a distribution that answers quantile queries within a relative error
+ * of the true value. Values are counted in buckets whose boundaries grow geometrically, so
+ * memory depends on the range of the values rather than the number of them, and is bounded
+ * by a maximum number of buckets beyond which the lowest buckets are collapsed together.
+ * Since buckets only hold counts, merging two sketches is exact.
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ */
+public class QuantileSketch {
+
+  public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+  public static final int DEFAULT_MAX_BUCKETS = 2048;
+
+  /**
+   * Values of a smaller magnitude are counted as zero
+   */
+  private static final double MIN_INDEXABLE_VALUE = 1e-9;
+
+  private final double relativeAccuracy;
+  private final int maxBuckets;
+  private final double gamma;
+  private final double logGamma;
+  private final Store positive;
+  /**
+   * Holds the magnitude of negative values
+   */
+  private final Store negative;
+  private long zeroCount;
+  private long count;
+  private double min = Double.POSITIVE_INFINITY;
+  private double max = Double.NEGATIVE_INFINITY;
+
+  public QuantileSketch() {
+    this(DEFAULT_RELATIVE_ACCURACY, DEFAULT_MAX_BUCKETS);
+  }
+
+  /**
+   * @param relativeAccuracy the relative error of quantiles, within (0, 1)
+   * @param maxBuckets the maximum number of buckets each for positive and negative values
+   */
+  public QuantileSketch(double relativeAccuracy, int maxBuckets) {
+    if (!(relativeAccuracy > 0 && relativeAccuracy < 1)) {
+      throw new IllegalArgumentException("Relative accuracy must be within (0, 1)");
+    }
+    if (maxBuckets < 1) {
+      throw new IllegalArgumentException("Maximum buckets must be positive");
+    }
+    this.relativeAccuracy = relativeAccuracy;
+    this.maxBuckets = maxBuckets;
+    gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+    logGamma = Math.log(gamma);
+    positive = new Store(maxBuckets);
+    negative = new Store(maxBuckets);
+  }
+
+  /**
+   * Adds the given value, unless it is NaN
+   */
+  public void add(double value) {
+    if (Double.isNaN(value)) {
+      return;
+    }
+    if (value > MIN_INDEXABLE_VALUE) {
+      positive.add(indexOf(value), 1);
+    } else if (value < -MIN_INDEXABLE_VALUE) {
+      negative.add(indexOf(-value), 1);
+    } else {
+      zeroCount++;
+    }
+    count++;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  /**
+   * Adds the counts of the other sketch to this one.
+   * @throws IllegalArgumentException if the sketches were created with different parameters
+   */
+  public void merge(QuantileSketch other) {
+    if (other.relativeAccuracy != relativeAccuracy || other.maxBuckets != maxBuckets) {
+      throw new IllegalArgumentException("Sketches with different parameters can't be merged");
+    }
+    if (other.count == 0) {
+      return;
+    }
+    positive.merge(other.positive);
+    negative.merge(other.negative);
+    zeroCount += other.zeroCount;
+    count += other.count;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+  }
+
+  /**
+   * @param quantile within [0, 1], such as 0.95 for the 95th percentile
+   * @return the approximate value at the given quantile, the exact minimum or maximum at 0 and
+   * 1, or NaN if the sketch is empty
+   */
+  public double getQuantile(double quantile) {
+    if (quantile < 0 || quantile > 1) {
+      throw new IllegalArgumentException("Quantile must be within [0, 1]");
+    }
+    if (count == 0) {
+      return Double.NaN;
+    }
+    if (quantile == 0) {
+      return min;
+    }
+    if (quantile == 1) {
+      return max;
+    }
+
+    final double rank = quantile * (count - 1);
+    long seen = 0;
+    // most negative values first, which are the highest indices of the negative store
+    for (int index = negative.maxIndex; negative.total > 0 && index >= negative.minIndex;
+        index--) {
+      seen += negative.countAt(index);
+      if (seen > rank) {
+        return clamp(-valueOf(index));
+      }
+    }
+    seen += zeroCount;
+    if (seen > rank) {
+      return 0;
+    }
+    for (int index = positive.minIndex; positive.total > 0 && index <= positive.maxIndex;
+        index++) {
+      seen += positive.countAt(index);
+      if (seen > rank) {
+        return clamp(valueOf(index));
+      }
+    }
+    return max;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public double getMin() {
+    return count > 0 ? min : Double.NaN;
+  }
+
+  public double getMax() {
+    return count > 0 ? max : Double.NaN;
+  }
+
+  public double getRelativeAccuracy() {
+    return relativeAccuracy;
+  }
+
+  /**
+   * @return an estimate of the most bytes this sketch retains, once both stores have grown to
+   * their maximum number of buckets
+   */
+  long maxRetainedBytes() {
+    return 128 + 2L * maxBuckets * Long.BYTES;
+  }
+
+  /**
+   * Empties the sketch while retaining its allocated buckets
+   */
+  public void clear() {
+    positive.clear();
+    negative.clear();
+    zeroCount = 0;
+    count = 0;
+    min = Double.POSITIVE_INFINITY;
+    max = Double.NEGATIVE_INFINITY;
+  }
+
+  private int indexOf(double magnitude) {
+    return (int) Math.ceil(Math.log(magnitude) / logGamma);
+  }
+
+  /**
+   * @return the value within the bucket of the given index that has the least relative error to
+   * any value of the bucket
+   */
+  private double valueOf(int index) {
+    return 2 * Math.pow(gamma, index) / (gamma + 1);
+  }
+
+  private double clamp(double value) {
+    return Math.max(min, Math.min(max, value));
+  }
+
+  /**
+   * Counts of contiguous bucket indices, which grows as needed up to the maximum number of
+   * buckets and then collapses the lowest indices into one.
+   */
+  private static class Store {
+
+    private static final long[] EMPTY = new long[0];
+    private static final int MIN_CAPACITY = 32;
+
+    final int maxBuckets;
+    long[] counts = EMPTY;
+    /**
+     * Bucket index of <code>counts[0]</code>
+     */
+    int offset;
+    int minIndex;
+    int maxIndex;
+    long total;
+
+    Store(int maxBuckets) {
+      this.maxBuckets = maxBuckets;
+    }
+
+    long countAt(int index) {
+      return counts[index - offset];
+    }
+
+    void add(int index, long n) {
+      final int target = ensureRange(index);
+      counts[target - offset] += n;
+      if (total == 0) {
+        minIndex = target;
+        maxIndex = target;
+      } else {
+        minIndex = Math.min(minIndex, target);
+        maxIndex = Math.max(maxIndex, target);
+      }
+      total += n;
+    }
+
+    void merge(Store other) {
+      if (other.total == 0) {
+        return;
+      }
+      for (int index = other.minIndex; index <= other.maxIndex; index++) {
+        final long n = other.countAt(index);
+        if (n > 0) {
+          add(index, n);
+        }
+      }
+    }
+
+    void clear() {
+      if (total > 0) {
+        for (int index = minIndex; index <= maxIndex; index++) {
+          counts[index - offset] = 0;
+        }
+      }
+      total = 0;
+    }
+
+    /**
+     * Makes room for the given index, collapsing the lowest buckets if the range of indices
+     * would exceed the maximum number of buckets
+     * @return the index to count at, which is higher than the given one when collapsed
+     */
+    private int ensureRange(int index) {
+      if (total == 0) {
+        if (counts.length > 0) {
+          // re-use the cleared buckets, centered on the first index
+          offset = index - counts.length / 2;
+          return index;
+        }
+      } else if (index >= offset && index < offset + counts.length) {
+        return index;
+      }
+
+      final int high = total == 0 ? index : Math.max(maxIndex, index);
+      final int low = Math.max(total == 0 ? index : Math.min(minIndex, index),
+          high - maxBuckets + 1);
+      final int needed = high - low + 1;
+
+      final boolean collapsing = total > 0 && low > minIndex;
+      if (!collapsing && low >= offset && high < offset + counts.length) {
+        return Math.max(index, low);
+      }
+
+      int capacity = Math.max(counts.length, MIN_CAPACITY);
+      while (capacity < needed) {
+        capacity <<= 1;
+      }
+      capacity = Math.min(capacity, maxBuckets);
+
+      final long[] resized = new long[capacity];
+      final int resizedOffset = low - (capacity - needed) / 2;
+      if (total > 0) {
+        for (int i = minIndex; i <= maxIndex; i++) {
+          resized[Math.max(i, low) - resizedOffset] += counts[i - offset];
+        }
+        minIndex = Math.max(minIndex, low);
+      }
+      counts = resized;
+      offset = resizedOffset;
+      return Math.max(index, low);
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+/**
+ * Summarizes the values of one metric within one zone over a time window by keeping a
+ * {@link QuantileSketch} per sixth of the window. Sketches of expired intervals are cleared and
+ * re-used, so memory is bounded by the sketches alone.
+ * <p>
+ * Since quantiles across zones merge the windows of every zone, which may be processed by other
+ * threads under {@link ContextBuildOptions#isConcurrentZoneStates() concurrent zone states},
+ * adding and merging synchronize on the window. Those locks are uncontended otherwise.
+ * </p>
+ */
+class QuantileWindow implements ZoneAccumulator {
+
+  static final int INTERVALS = 6;
+
+  private final int slot;
+  private final String metricName;
+  /**
+   * Duration of each interval or {@link Long#MAX_VALUE} when the window is unbounded
+   */
+  private final long intervalMillis;
+  private final QuantileSketch[] sketches;
+  /**
+   * The interval number, which is the time divided by the interval duration, held by each sketch
+   */
+  private final long[] intervals;
+
+  /**
+   * @param windowMillis the duration of the window or {@link Long#MAX_VALUE} for no limit
+   */
+  QuantileWindow(int slot, String metricName, long windowMillis) {
+    this.slot = slot;
+    this.metricName = metricName;
+    if (windowMillis == Long.MAX_VALUE) {
+      intervalMillis = Long.MAX_VALUE;
+      sketches = new QuantileSketch[]{new QuantileSketch()};
+    } else {
+      intervalMillis = Math.max(windowMillis / INTERVALS, 1);
+      sketches = new QuantileSketch[INTERVALS];
+      for (int i = 0; i < sketches.length; i++) {
+        sketches[i] = new QuantileSketch();
+      }
+    }
+    intervals = new long[sketches.length];
+  }
+
+  @Override
+  public synchronized void beforeEvaluation(MetricInput input) {
+    final float value = input.getNumber(slot, metricName);
+    if (Float.isNaN(value)) {
+      return;
+    }
+
+    final long interval = intervalOf(input.getTimestamp().toEpochMilli());
+    final int position = (int) Math.floorMod(interval, (long) sketches.length);
+    if (intervals[position] != interval) {
+      sketches[position].clear();
+      intervals[position] = interval;
+    }
+    sketches[position].add(value);
+  }
+
+  /**
+   * Merges the sketches of the intervals that are within the window as of the given time
+   */
+  synchronized void mergeInto(QuantileSketch target, long nowMillis) {
+    final long now = intervalOf(nowMillis);
+    for (int i = 0; i < sketches.length; i++) {
+      if (intervals[i] > now - sketches.length && intervals[i] <= now) {
+        target.merge(sketches[i]);
+      }
+    }
+  }
+
+  @Override
+  public long maxRetainedBytes() {
+    return 64 + sketches.length * (Long.BYTES + sketches[0].maxRetainedBytes());
+  }
+
+  private long intervalOf(long timeMillis) {
+    return intervalMillis == Long.MAX_VALUE ? 0 : Math.floorDiv(timeMillis, intervalMillis);
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import java.util.function.Supplier;
+
+/**
+ * Renders a {@link MessageTemplate} on first use and caches the result.
+ */
+class RenderedMessage implements Supplier<String> {
+
+  private final MessageTemplate template;
+  private MetricInput input;
+  private String message;
+
+  RenderedMessage(MessageTemplate template, MetricInput input) {
+    this.template = template;
+    this.input = input;
+  }
+
+  @Override
+  public String get() {
+    if (input != null) {
+      message = template != null ? template.render(input) : null;
+      // release the input since it is no longer needed
+      input = null;
+    }
+    return message;
+  }
+}
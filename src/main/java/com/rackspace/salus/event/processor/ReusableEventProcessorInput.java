@@ -0,0 +1,202 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * A mutable, name-keyed equivalent of {@link EventProcessorInput} that can be populated for
+ * any context and re-used across inputs, such as the slots of a
+ * {@link RingBufferEventProcessor}. Numerical values are held unboxed and metrics are located
+ * by a linear scan of their names, which suits the handful of metrics of a typical input.
+ * Numbers set as integers are recorded as such, so that they render like the integer metrics of
+ * a map-based input.
+ * <p>
+ * Unlike an {@link IndexedEventProcessorInput}, instances are not tied to a
+ * {@link MetricSchema}. Once grown to the largest number of metrics set, populating an
+ * instance allocates nothing.
+ * </p>
+ */
+public class ReusableEventProcessorInput implements MetricInput {
+
+  private static final int INITIAL_CAPACITY = 8;
+
+  private String[] names = new String[INITIAL_CAPACITY];
+  private double[] numbers = new double[INITIAL_CAPACITY];
+  /**
+   * True where the number was set as an integer
+   */
+  private boolean[] integral = new boolean[INITIAL_CAPACITY];
+  /**
+   * Non-null where the metric is a string rather than a number
+   */
+  private String[] strings = new String[INITIAL_CAPACITY];
+  private int size;
+  private Instant timestamp;
+  private String zone;
+
+  @Override
+  public Instant getTimestamp() {
+    return timestamp;
+  }
+
+  public ReusableEventProcessorInput setTimestamp(Instant timestamp) {
+    this.timestamp = timestamp;
+    return this;
+  }
+
+  @Override
+  public String getZone() {
+    return zone;
+  }
+
+  public ReusableEventProcessorInput setZone(String zone) {
+    this.zone = zone;
+    return this;
+  }
+
+  public ReusableEventProcessorInput setNumber(String name, double value) {
+    final int i = indexForSet(name);
+    numbers[i] = value;
+    integral[i] = false;
+    strings[i] = null;
+    return this;
+  }
+
+  /**
+   * Sets an integer metric, which is stored as a double but rendered as an integer.
+   */
+  public ReusableEventProcessorInput setNumber(String name, long value) {
+    final int i = indexForSet(name);
+    numbers[i] = value;
+    integral[i] = true;
+    strings[i] = null;
+    return this;
+  }
+
+  public ReusableEventProcessorInput setString(String name, String value) {
+    if (value == null) {
+      throw new IllegalArgumentException("String value of " + name + " must not be null");
+    }
+    strings[indexForSet(name)] = value;
+    return this;
+  }
+
+  /**
+   * @return the number of metrics currently set
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Clears all metric values, timestamp, and zone so this instance can be re-used.
+   */
+  public ReusableEventProcessorInput clear() {
+    Arrays.fill(names, 0, size, null);
+    Arrays.fill(strings, 0, size, null);
+    size = 0;
+    timestamp = null;
+    zone = null;
+    return this;
+  }
+
+  @Override
+  public float getNumber(int slot, String name) {
+    final int i = indexOf(name);
+    if (i < 0) {
+      return Float.NaN;
+    }
+    if (strings[i] != null) {
+      throw new ClassCastException("Metric " + name + " is not numerical");
+    }
+    return (float) numbers[i];
+  }
+
+  @Override
+  public String getString(int slot, String name) {
+    final int i = indexOf(name);
+    if (i < 0) {
+      return null;
+    }
+    if (strings[i] == null) {
+      throw new ClassCastException("Metric " + name + " is not a string");
+    }
+    return strings[i];
+  }
+
+  @Override
+  public Object getValue(int slot, String name) {
+    final int i = indexOf(name);
+    if (i < 0) {
+      return null;
+    }
+    if (strings[i] != null) {
+      return strings[i];
+    }
+    if (integral[i]) {
+      return (long) numbers[i];
+    }
+    return numbers[i];
+  }
+
+  @Override
+  public boolean hasMetric(int slot, String name) {
+    return indexOf(name) >= 0;
+  }
+
+  private int indexOf(String name) {
+    for (int i = 0; i < size; i++) {
+      if (names[i].equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private int indexForSet(String name) {
+    if (name == null) {
+      throw new IllegalArgumentException("Metric name must not be null");
+    }
+    final int existing = indexOf(name);
+    if (existing >= 0) {
+      return existing;
+    }
+    if (size == names.length) {
+      names = Arrays.copyOf(names, size * 2);
+      numbers = Arrays.copyOf(numbers, size * 2);
+      integral = Arrays.copyOf(integral, size * 2);
+      strings = Arrays.copyOf(strings, size * 2);
+    }
+    names[size] = name;
+    return size++;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder("ReusableEventProcessorInput(timestamp=")
+        .append(timestamp).append(", zone=").append(zone).append(", metrics={");
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(names[i]).append('=').append(getValue(-1, names[i]));
+    }
+    return sb.append("})").toString();
+  }
+}
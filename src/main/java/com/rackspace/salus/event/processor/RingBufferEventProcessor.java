@@ -0,0 +1,397 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import com.rackspace.salus.event.processor.PartitionedEventProcessor.PartitionStats;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A single-producer, multi-consumer ingestion stage in front of {@link EventProcessor} that
+ * hands inputs to the consumer threads through a preallocated ring of
+ * {@link ReusableEventProcessorInput} slots rather than a locking queue.
+ * <p>
+ * The producer claims a slot with {@link #next()}, populates the input returned by
+ * {@link #get(long)}, and makes it visible with {@link #publish(long, EventProcessorContext)}.
+ * Every consumer reads every published slot, in batches of whatever has been published since
+ * its last read, and processes only those whose context is assigned to its partition by
+ * {@link PartitionedEventProcessor#partitionOf}. So, as with {@link PartitionedEventProcessor},
+ * each context only ever has one writer. A slot is re-used once every consumer has moved past
+ * it, so neither the handoff nor steady-state processing allocates.
+ * </p>
+ * <p>
+ * Only one thread may produce. The given {@link StateChangeHandler} is called from the
+ * consumer threads and must be thread-safe; a {@link LazyStateChangeHandler} must resolve each
+ * message before returning since the slot's input is re-used afterwards.
+ * </p>
+ * <p>
+ * The consumers are daemon threads, so they do not keep the JVM running. An idle consumer
+ * spins and yields briefly, then parks until the next publish, so an idle processor does not
+ * consume CPU. A consumer stops if processing throws an {@link Error}, after which waiting for
+ * it to catch up fails rather than waiting forever.
+ * </p>
+ */
+@Slf4j
+public class RingBufferEventProcessor implements AutoCloseable {
+
+  private static final int SPIN_TRIES = 100;
+  private static final int YIELD_TRIES = 100;
+  /**
+   * The first park of a wait, which doubles on each further try up to {@link #MAX_PARK_NANOS}
+   */
+  private static final long PARK_NANOS = 50_000;
+  private static final long MAX_PARK_NANOS = 1_000_000;
+
+  private final EventProcessor eventProcessor;
+  private final StateChangeHandler stateChangeHandler;
+  private final Slot[] slots;
+  private final int mask;
+  private final Consumer[] consumers;
+  /**
+   * The sequence of the most recently published slot
+   */
+  private final AtomicLong cursor = new AtomicLong(-1);
+  private final AtomicLong producerWaits = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private volatile boolean closed;
+
+  // accessed only by the producer
+  private long claimed = -1;
+  private long cachedMinimumConsumed = -1;
+
+  /**
+   * @param partitionCount the number of consumer threads, such as the number of available cores
+   * @param bufferSize the number of slots, which must be a power of two
+   */
+  public RingBufferEventProcessor(EventProcessor eventProcessor,
+                                  StateChangeHandler stateChangeHandler,
+                                  int partitionCount, int bufferSize) {
+    if (partitionCount < 1) {
+      throw new IllegalArgumentException("At least one partition is required");
+    }
+    if (bufferSize < 1 || Integer.bitCount(bufferSize) != 1) {
+      throw new IllegalArgumentException("Buffer size must be a positive power of two");
+    }
+    this.eventProcessor = eventProcessor;
+    this.stateChangeHandler = stateChangeHandler;
+    slots = new Slot[bufferSize];
+    for (int i = 0; i < bufferSize; i++) {
+      slots[i] = new Slot();
+    }
+    mask = bufferSize - 1;
+    consumers = new Consumer[partitionCount];
+    for (int i = 0; i < partitionCount; i++) {
+      consumers[i] = new Consumer(i);
+      consumers[i].thread.start();
+    }
+  }
+
+  /**
+   * @return the partition, and therefore consumer, that processes all inputs of the given
+   * context
+   */
+  public int partitionOf(EventProcessorContext context) {
+    return PartitionedEventProcessor.partitionOf(context, consumers.length);
+  }
+
+  /**
+   * Claims the next slot, waiting for the slowest consumer if the buffer is full.
+   * @return the sequence of the claimed slot, which must be published before claiming another
+   * @throws IllegalStateException if this processor has been closed or a consumer stopped
+   * while waiting for it
+   */
+  public long next() {
+    checkNotClosed();
+    final long sequence = claimed + 1;
+    final long wrapPoint = sequence - slots.length;
+    if (wrapPoint > cachedMinimumConsumed) {
+      long minimumConsumed = minimumConsumed();
+      if (wrapPoint > minimumConsumed) {
+        producerWaits.incrementAndGet();
+        int tries = 0;
+        while (wrapPoint > (minimumConsumed = minimumConsumed())) {
+          checkConsumersRunning();
+          tries = idle(tries);
+        }
+      }
+      cachedMinimumConsumed = minimumConsumed;
+    }
+    claimed = sequence;
+    return sequence;
+  }
+
+  /**
+   * Claims the next slot if the buffer is not full.
+   * @return the sequence of the claimed slot or -1 if the buffer is full
+   * @throws IllegalStateException if this processor has been closed
+   */
+  public long tryNext() {
+    checkNotClosed();
+    final long sequence = claimed + 1;
+    final long wrapPoint = sequence - slots.length;
+    if (wrapPoint > cachedMinimumConsumed) {
+      cachedMinimumConsumed = minimumConsumed();
+      if (wrapPoint > cachedMinimumConsumed) {
+        rejected.incrementAndGet();
+        return -1;
+      }
+    }
+    claimed = sequence;
+    return sequence;
+  }
+
+  /**
+   * @param sequence a sequence returned by {@link #next()} that has not yet been published
+   * @return the input of the claimed slot, which is cleared and ready to be populated
+   */
+  public ReusableEventProcessorInput get(long sequence) {
+    return slots[(int) sequence & mask].input.clear();
+  }
+
+  /**
+   * Makes the claimed slot's input available for processing against the given context.
+   * @throws IllegalArgumentException if the sequence is not the one most recently claimed
+   */
+  public void publish(long sequence, EventProcessorContext context) {
+    if (sequence != claimed || sequence != cursor.get() + 1) {
+      throw new IllegalArgumentException("Sequence " + sequence + " is not the claimed slot");
+    }
+    final Slot slot = slots[(int) sequence & mask];
+    slot.context = context;
+    slot.partition = partitionOf(context);
+    // the volatile write publishes the slot's fields to the consumers
+    cursor.set(sequence);
+    for (Consumer consumer : consumers) {
+      if (consumer.waiting) {
+        LockSupport.unpark(consumer.thread);
+      }
+    }
+  }
+
+  /**
+   * Waits until every input published before this call has been processed.
+   * @throws IllegalStateException if a consumer stopped before processing the inputs
+   */
+  public void drain() throws InterruptedException {
+    final long published = cursor.get();
+    int tries = 0;
+    while (minimumConsumed() < published) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      checkConsumersRunning();
+      tries = idle(tries);
+    }
+  }
+
+  public int getBufferSize() {
+    return slots.length;
+  }
+
+  /**
+   * @return the number of slots published but not yet read by every consumer
+   */
+  public int getOccupancy() {
+    return (int) (cursor.get() - minimumConsumed());
+  }
+
+  /**
+   * @return the number of times {@link #next()} had to wait for a full buffer
+   */
+  public long getProducerWaits() {
+    return producerWaits.get();
+  }
+
+  /**
+   * @return the number of times {@link #tryNext()} found the buffer full
+   */
+  public long getRejected() {
+    return rejected.get();
+  }
+
+  /**
+   * @return a snapshot of each consumer where the queue depth is the number of published
+   * slots that consumer has yet to read, including those of other partitions
+   */
+  public List<PartitionStats> getPartitionStats() {
+    final long published = cursor.get();
+    final List<PartitionStats> stats = new ArrayList<>(consumers.length);
+    for (Consumer consumer : consumers) {
+      stats.add(new PartitionStats()
+          .setPartition(consumer.id)
+          .setQueueDepth((int) Math.max(0, published - consumer.consumed.get()))
+          .setQueueCapacity(slots.length)
+          .setProcessed(consumer.processed.get())
+          .setFailed(consumer.failed.get())
+      );
+    }
+    return stats;
+  }
+
+  /**
+   * Stops accepting inputs, processes those already published, and stops the consumers.
+   */
+  @Override
+  public void close() throws InterruptedException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    for (Consumer consumer : consumers) {
+      LockSupport.unpark(consumer.thread);
+    }
+    for (Consumer consumer : consumers) {
+      consumer.thread.join();
+    }
+  }
+
+  private void checkNotClosed() {
+    if (closed) {
+      throw new IllegalStateException("Processor has been closed");
+    }
+  }
+
+  /**
+   * Consumers only stop early when processing throws an {@link Error}, which leaves their
+   * sequence behind for good
+   */
+  private void checkConsumersRunning() {
+    for (Consumer consumer : consumers) {
+      if (!consumer.thread.isAlive()) {
+        throw new IllegalStateException(closed ?
+            "Processor has been closed" : "Consumer of partition " + consumer.id + " stopped");
+      }
+    }
+  }
+
+  private long minimumConsumed() {
+    long minimum = Long.MAX_VALUE;
+    for (Consumer consumer : consumers) {
+      minimum = Math.min(minimum, consumer.consumed.get());
+    }
+    return minimum;
+  }
+
+  /**
+   * Spins, then yields, then parks for increasingly long waits.
+   * @return the tries so far, to be passed to the next call
+   */
+  private static int idle(int tries) {
+    if (tries < SPIN_TRIES) {
+      Thread.onSpinWait();
+    } else if (tries < SPIN_TRIES + YIELD_TRIES) {
+      Thread.yield();
+    } else {
+      final int parks = tries - SPIN_TRIES - YIELD_TRIES;
+      LockSupport.parkNanos(Math.min(PARK_NANOS << Math.min(parks, 5), MAX_PARK_NANOS));
+      // the delay stops growing well before the count could overflow
+      return parks < 5 ? tries + 1 : tries;
+    }
+    return tries + 1;
+  }
+
+  private static class Slot {
+
+    final ReusableEventProcessorInput input = new ReusableEventProcessorInput();
+    EventProcessorContext context;
+    int partition;
+  }
+
+  private class Consumer implements Runnable {
+
+    final int id;
+    final Thread thread;
+    /**
+     * The sequence of the most recent slot this consumer has finished reading
+     */
+    final AtomicLong consumed = new AtomicLong(-1);
+    final AtomicLong processed = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    /**
+     * Set while this consumer may park until the next publish
+     */
+    volatile boolean waiting;
+
+    Consumer(int id) {
+      this.id = id;
+      thread = new Thread(this, "ring-event-processor-" + id);
+      thread.setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      long next = 0;
+      int tries = 0;
+      while (true) {
+        // read before the cursor so that a close after the final publish is never missed
+        final boolean stopping = closed;
+        final long available = cursor.get();
+        if (available < next) {
+          if (stopping) {
+            return;
+          }
+          if (tries < SPIN_TRIES + YIELD_TRIES) {
+            tries = idle(tries);
+          } else {
+            awaitPublish(next);
+          }
+          continue;
+        }
+        tries = 0;
+
+        long processedInBatch = 0;
+        for (long sequence = next; sequence <= available; sequence++) {
+          final Slot slot = slots[(int) sequence & mask];
+          if (slot.partition == id) {
+            try {
+              eventProcessor.process(slot.context, slot.input, stateChangeHandler);
+              processedInBatch++;
+            } catch (RuntimeException e) {
+              failed.incrementAndGet();
+              log.warn("Failed to process input={} of task={}", slot.input,
+                  slot.context.getTask().getId(), e);
+            }
+            // so that the slot does not keep an evicted context, or the input's strings,
+            // reachable until it is re-used
+            slot.context = null;
+            slot.input.clear();
+          }
+        }
+        processed.addAndGet(processedInBatch);
+        // releases the whole batch back to the producer at once
+        consumed.lazySet(available);
+        next = available + 1;
+      }
+    }
+
+    /**
+     * Parks until a publish or close, unless the given sequence was published in the meantime
+     */
+    private void awaitPublish(long next) {
+      waiting = true;
+      // checked after announcing the wait, so that the producer either sees the announcement
+      // or its publish is seen here
+      if (cursor.get() < next && !closed) {
+        LockSupport.park(this);
+      }
+      waiting = false;
+    }
+  }
+}
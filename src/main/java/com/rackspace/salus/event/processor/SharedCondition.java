@@ -0,0 +1,55 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+/**
+ * Takes the place of a compiled expression whose result is computed once per input by a
+ * shared source, such as {@link ThresholdIndex}, on behalf of all registered contexts. When the
+ * context is processed without {@link ConditionResults} from that source, or with results that
+ * were computed before this condition was registered, the original evaluator is used instead.
+ */
+class SharedCondition implements ExpressionEvaluator {
+
+  final Object source;
+  final String measurement;
+  final int id;
+  /**
+   * The version of the ID when it was allocated to this condition, which tells results computed
+   * for this condition apart from those computed for another holder of the same ID
+   */
+  final long version;
+  final ExpressionEvaluator fallback;
+
+  SharedCondition(Object source, String measurement, int id, long version,
+                  ExpressionEvaluator fallback) {
+    this.source = source;
+    this.measurement = measurement;
+    this.id = id;
+    this.version = version;
+    this.fallback = fallback;
+  }
+
+  @Override
+  public boolean evaluate(EventProcessorContext context, MetricInput input) {
+    final ConditionResults results = context.getConditionResults();
+    if (results != null && results.covers(source, measurement)
+        && results.includes(id, version)) {
+      return results.matched.get(id);
+    }
+    return fallback.evaluate(context, input);
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import com.rackspace.salus.event.processor.WindowFunction.Aggregate;
+
+/**
+ * The values of one metric within one zone over a window bounded by a number of samples, an age,
+ * or both. Each sum, average, minimum, and maximum is available in constant time: the sum is kept
+ * as a running total and the minimum and maximum are the fronts of monotonic deques of the
+ * window's samples. Every sample is added and evicted once, so maintaining the window is
+ * amortized constant time per input.
+ */
+class SlidingWindow implements ZoneAccumulator {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final int slot;
+  private final String metricName;
+  private final int maxSamples;
+  private final long maxAgeMillis;
+
+  // circular buffers indexed by sample sequence number masked by capacity
+  private double[] values;
+  private long[] times;
+  private long[] minDeque;
+  private long[] maxDeque;
+  private int mask;
+
+  /**
+   * Sequence number of the oldest sample in the window
+   */
+  private long head;
+  /**
+   * Sequence number of the next sample
+   */
+  private long tail;
+  private long minHead;
+  private long minTail;
+  private long maxHead;
+  private long maxTail;
+  private double sum;
+  /**
+   * Evictions since the sum was last re-computed, which bounds floating point drift
+   */
+  private int evictionsSinceResum;
+
+  /**
+   * @param maxSamples the maximum number of samples or {@link Integer#MAX_VALUE} for no limit
+   * @param maxAgeMillis the maximum age of samples, relative to the latest input, or
+   * {@link Long#MAX_VALUE} for no limit
+   */
+  SlidingWindow(int slot, String metricName, int maxSamples, long maxAgeMillis) {
+    this.slot = slot;
+    this.metricName = metricName;
+    this.maxSamples = maxSamples;
+    this.maxAgeMillis = maxAgeMillis;
+
+    // grown as samples arrive, up to room for one more than the limit since a sample is added
+    // before evicting the oldest, so that zones with few inputs retain little
+    allocate(INITIAL_CAPACITY);
+  }
+
+  @Override
+  public void beforeEvaluation(MetricInput input) {
+    add(input.getTimestamp().toEpochMilli(), input.getNumber(slot, metricName));
+  }
+
+  /**
+   * Adds the value unless it is {@link Float#NaN} and evicts the samples that are no longer
+   * within the window as of the given time.
+   */
+  void add(long timeMillis, double value) {
+    if (!Double.isNaN(value)) {
+      if (tail - head == values.length) {
+        allocate(values.length << 1);
+      }
+
+      final long seq = tail++;
+      values[index(seq)] = value;
+      times[index(seq)] = timeMillis;
+      sum += value;
+
+      while (minTail > minHead && values[index(minDeque[index(minTail - 1)])] >= value) {
+        minTail--;
+      }
+      minDeque[index(minTail++)] = seq;
+      while (maxTail > maxHead && values[index(maxDeque[index(maxTail - 1)])] <= value) {
+        maxTail--;
+      }
+      maxDeque[index(maxTail++)] = seq;
+    }
+
+    while (tail - head > maxSamples
+        || (tail > head && maxAgeMillis != Long.MAX_VALUE
+        && timeMillis - times[index(head)] > maxAgeMillis)) {
+      evictOldest();
+    }
+  }
+
+  /**
+   * Counts the buffers at the capacity they grow to for the maximum number of samples
+   */
+  @Override
+  public long maxRetainedBytes() {
+    final long capacity = Math.max(INITIAL_CAPACITY, Long.highestOneBit(maxSamples) << 1);
+    return 64 + capacity * (Double.BYTES + 3 * Long.BYTES);
+  }
+
+  int count() {
+    return (int) (tail - head);
+  }
+
+  double get(Aggregate aggregate) {
+    if (tail == head) {
+      return aggregate == Aggregate.COUNT ? 0 : Double.NaN;
+    }
+    switch (aggregate) {
+      case AVG:
+        return sum / (tail - head);
+      case MIN:
+        return values[index(minDeque[index(minHead)])];
+      case MAX:
+        return values[index(maxDeque[index(maxHead)])];
+      case SUM:
+        return sum;
+      case COUNT:
+        return tail - head;
+      default:
+        throw new IllegalArgumentException("Unsupported aggregate " + aggregate);
+    }
+  }
+
+  private void evictOldest() {
+    final long seq = head++;
+    if (minDeque[index(minHead)] == seq) {
+      minHead++;
+    }
+    if (maxDeque[index(maxHead)] == seq) {
+      maxHead++;
+    }
+
+    if (++evictionsSinceResum >= values.length) {
+      sum = 0;
+      for (long s = head; s < tail; s++) {
+        sum += values[index(s)];
+      }
+      evictionsSinceResum = 0;
+    } else {
+      sum -= values[index(seq)];
+    }
+  }
+
+  private int index(long seq) {
+    return (int) (seq & mask);
+  }
+
+  /**
+   * Allocates buffers of the given capacity, which is a power of two, and copies any existing
+   * samples and deque entries into them
+   */
+  private void allocate(int capacity) {
+    final double[] newValues = new double[capacity];
+    final long[] newTimes = new long[capacity];
+    final long[] newMinDeque = new long[capacity];
+    final long[] newMaxDeque = new long[capacity];
+    final int newMask = capacity - 1;
+
+    if (values != null) {
+      for (long seq = head; seq < tail; seq++) {
+        newValues[(int) (seq & newMask)] = values[index(seq)];
+        newTimes[(int) (seq & newMask)] = times[index(seq)];
+      }
+      for (long i = minHead; i < minTail; i++) {
+        newMinDeque[(int) (i & newMask)] = minDeque[index(i)];
+      }
+      for (long i = maxHead; i < maxTail; i++) {
+        newMaxDeque[(int) (i & newMask)] = maxDeque[index(i)];
+      }
+    }
+
+    values = newValues;
+    times = newTimes;
+    minDeque = newMinDeque;
+    maxDeque = newMaxDeque;
+    mask = newMask;
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import com.rackspace.salus.event.statemachines.MultiStateTransition;
+import com.rackspace.salus.telemetry.entities.EventEngineTask;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.TaskState;
+import lombok.Data;
+
+/**
+ * A transition of a task along with its rendered message, as delivered in batches by an
+ * {@link AsyncStateChangeDispatcher}.
+ */
+@Data
+public class StateChange {
+  final EventEngineTask task;
+  final MultiStateTransition<TaskState, String> transition;
+  /**
+   * Null when the matching state expression has no message
+   */
+  final String message;
+}
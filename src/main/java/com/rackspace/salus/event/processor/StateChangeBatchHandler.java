@@ -0,0 +1,32 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import java.util.List;
+
+/**
+ * Receives the transitions dispatched by an {@link AsyncStateChangeDispatcher}, where the
+ * changes of each task are in the order they were observed.
+ */
+@FunctionalInterface
+public interface StateChangeBatchHandler {
+
+  /**
+   * @param stateChanges the batch, which is re-used after this returns and must not be retained
+   */
+  void handleStateChanges(List<StateChange> stateChanges);
+}
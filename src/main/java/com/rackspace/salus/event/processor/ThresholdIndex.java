@@ -0,0 +1,371 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.Comparator;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.ComparisonExpression;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Indexes the comparisons of many tasks that have the shape <code>metric COMPARATOR value</code>,
+ * such as <code>cpu_usage &gt; X</code> with a different X per task. Comparisons are grouped by
+ * measurement, metric, and comparator into sorted threshold arrays so that a metric value of an
+ * input is matched against every task's threshold with a binary search rather than evaluating
+ * each task's comparison separately.
+ * <p>
+ * Typical usage is to {@link #register} each context and then for each input call
+ * {@link #evaluate} once and pass the results to
+ * {@link EventProcessor#process(EventProcessorContext, EventProcessorInput, StateChangeHandler, ConditionResults)}
+ * for each of the contexts of that measurement.
+ * </p>
+ * <p>
+ * A context can be registered with only one shared source, such as this index or a
+ * {@link ConditionNetwork}, at a time, since registering re-compiles the context's expressions
+ * for that source.
+ * </p>
+ */
+public class ThresholdIndex {
+
+  private final Map<EventProcessorContext, List<Entry>> registrations = new IdentityHashMap<>();
+  private final BitSet allocatedIds = new BitSet();
+  /**
+   * The version of each ID as of its latest allocation, so that results computed before an ID
+   * was re-used are not applied to its new condition
+   */
+  private long[] idVersions = new long[0];
+  private long allocations;
+  private volatile Snapshot snapshot = new Snapshot(Map.of(), new long[0]);
+  private volatile boolean dirty;
+
+  /**
+   * Registers, or re-registers, the given context by binding its eligible comparisons to this
+   * index. Any shape of comparison that is not indexed continues to be evaluated by the context.
+   * @throws IllegalStateException if the context is registered with another shared source
+   */
+  public synchronized void register(EventProcessorContext context) {
+    final String measurement = context.getTask().getTaskParameters().getMetricGroup();
+    final List<Entry> entries = new ArrayList<>();
+    try {
+      ExpressionCompiler.recompile(context, this, (expression, compiled) -> {
+        if (measurement != null && isIndexable(expression)) {
+          final ComparisonExpression comparison = (ComparisonExpression) expression;
+          final Entry entry = new Entry(
+              measurement,
+              (String) comparison.getInput(),
+              comparison.getComparator(),
+              ((Number) comparison.getComparisonValue()).floatValue(),
+              allocateId()
+          );
+          entries.add(entry);
+          return new SharedCondition(this, measurement, entry.id, idVersions[entry.id], compiled);
+        }
+        return compiled;
+      });
+    } catch (RuntimeException e) {
+      // the context keeps its previous expressions and so its previous registration, if any
+      releaseEntries(entries);
+      throw e;
+    }
+
+    // released only once re-compiled, since the context evaluated its previous entries until now
+    releaseEntries(registrations.put(context, entries));
+    dirty = true;
+  }
+
+  /**
+   * Removes the given context from this index and restores its own evaluation of the
+   * previously indexed comparisons.
+   */
+  public synchronized void unregister(EventProcessorContext context) {
+    final List<Entry> entries = registrations.remove(context);
+    if (entries != null) {
+      releaseEntries(entries);
+      ExpressionCompiler.recompile(context, null, null);
+      dirty = true;
+    }
+  }
+
+  /**
+   * Matches the metrics of the given input against the thresholds of every registered
+   * comparison of the given measurement.
+   * @param measurement the measurement, or metric group, of the input
+   * @param input the input to evaluate. Only map-based inputs are supported since the slots of
+   * an {@link IndexedEventProcessorInput} are specific to one context.
+   * @return the results to pass along when processing each context of the measurement
+   */
+  public ConditionResults evaluate(String measurement, EventProcessorInput input) {
+    final Snapshot current = currentSnapshot();
+
+    final BitSet matched = new BitSet(current.idVersions.length);
+    final Group[] groups = current.groups.get(measurement);
+    if (groups != null) {
+      for (Group group : groups) {
+        final float value = input.getNumber(-1, group.metricName);
+        group.match(value,
+            Float.isNaN(value) && input.hasMetric(-1, group.metricName), matched);
+      }
+    }
+    return new ConditionResults(this, measurement, matched, current.idVersions);
+  }
+
+  /**
+   * @return the number of comparisons currently indexed across all registered contexts
+   */
+  public synchronized int size() {
+    int size = 0;
+    for (List<Entry> entries : registrations.values()) {
+      size += entries.size();
+    }
+    return size;
+  }
+
+  static boolean isIndexable(Object expression) {
+    if (!(expression instanceof ComparisonExpression)) {
+      return false;
+    }
+    final ComparisonExpression comparison = (ComparisonExpression) expression;
+    return comparison.getInput() instanceof String
+        && comparison.getComparisonValue() instanceof Number
+        && comparison.getComparator() != null
+        && !Float.isNaN(((Number) comparison.getComparisonValue()).floatValue());
+  }
+
+  private int allocateId() {
+    final int id = allocatedIds.nextClearBit(0);
+    allocatedIds.set(id);
+    if (id >= idVersions.length) {
+      idVersions = Arrays.copyOf(idVersions, Math.max(16, id * 2));
+    }
+    idVersions[id] = ++allocations;
+    return id;
+  }
+
+  private void releaseEntries(List<Entry> entries) {
+    if (entries != null) {
+      for (Entry entry : entries) {
+        allocatedIds.clear(entry.id);
+      }
+    }
+  }
+
+  private Snapshot currentSnapshot() {
+    if (dirty) {
+      synchronized (this) {
+        if (dirty) {
+          // rebuilt lazily so that registering many contexts only sorts once
+          snapshot = buildSnapshot();
+          dirty = false;
+        }
+      }
+    }
+    return snapshot;
+  }
+
+  private Snapshot buildSnapshot() {
+    final Map<String, Map<GroupKey, List<Entry>>> grouped = new HashMap<>();
+    for (List<Entry> entries : registrations.values()) {
+      for (Entry entry : entries) {
+        grouped.computeIfAbsent(entry.measurement, m -> new HashMap<>())
+            .computeIfAbsent(new GroupKey(entry.metricName, entry.comparator),
+                k -> new ArrayList<>())
+            .add(entry);
+      }
+    }
+
+    final Map<String, Group[]> groups = new HashMap<>(grouped.size() * 2);
+    grouped.forEach((measurement, byKey) ->
+        groups.put(measurement, byKey.entrySet().stream()
+            .map(e -> new Group(e.getKey().metricName, e.getKey().comparator, e.getValue()))
+            .toArray(Group[]::new))
+    );
+    return new Snapshot(groups, Arrays.copyOf(idVersions, allocatedIds.length()));
+  }
+
+  private static class Entry {
+
+    final String measurement;
+    final String metricName;
+    final Comparator comparator;
+    final float threshold;
+    final int id;
+
+    Entry(String measurement, String metricName, Comparator comparator, float threshold, int id) {
+      this.measurement = measurement;
+      this.metricName = metricName;
+      this.comparator = comparator;
+      this.threshold = threshold;
+      this.id = id;
+    }
+  }
+
+  private static class GroupKey {
+
+    final String metricName;
+    final Comparator comparator;
+
+    GroupKey(String metricName, Comparator comparator) {
+      this.metricName = metricName;
+      this.comparator = comparator;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof GroupKey)) {
+        return false;
+      }
+      final GroupKey that = (GroupKey) o;
+      return metricName.equals(that.metricName) && comparator == that.comparator;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(metricName, comparator);
+    }
+  }
+
+  /**
+   * The thresholds of one (measurement, metric, comparator) combination sorted in ascending
+   * order along with the condition ID of each.
+   */
+  static class Group {
+
+    final String metricName;
+    final Comparator comparator;
+    final float[] thresholds;
+    final int[] ids;
+
+    Group(String metricName, Comparator comparator, List<Entry> entries) {
+      this.metricName = metricName;
+      this.comparator = comparator;
+      final List<Entry> sorted = new ArrayList<>(entries);
+      sorted.sort((a, b) -> Float.compare(a.threshold, b.threshold));
+      thresholds = new float[sorted.size()];
+      ids = new int[sorted.size()];
+      for (int i = 0; i < thresholds.length; i++) {
+        thresholds[i] = sorted.get(i).threshold;
+        ids[i] = sorted.get(i).id;
+      }
+    }
+
+    /**
+     * Sets the ID of each condition that is satisfied by the given value.
+     * @param reportedNaN whether the value is NaN because the metric was reported as NaN rather
+     * than absent, in which case it is unequal to every threshold
+     */
+    void match(float value, boolean reportedNaN, BitSet matched) {
+      if (Float.isNaN(value)) {
+        // consistent with NumericalComparison, where NaN only satisfies NOT_EQUAL_TO and an
+        // absent metric satisfies nothing
+        if (reportedNaN && comparator == Comparator.NOT_EQUAL_TO) {
+          set(0, thresholds.length, matched);
+        }
+        return;
+      }
+
+      switch (comparator) {
+        case GREATER_THAN:
+          // value > threshold
+          set(0, lowerBound(value), matched);
+          break;
+        case GREATER_THAN_OR_EQUAL_TO:
+          set(0, upperBound(value), matched);
+          break;
+        case LESS_THAN:
+          // value < threshold
+          set(upperBound(value), thresholds.length, matched);
+          break;
+        case LESS_THAN_OR_EQUAL_TO:
+          set(lowerBound(value), thresholds.length, matched);
+          break;
+        case EQUAL_TO:
+          set(lowerBound(value), upperBound(value), matched);
+          break;
+        case NOT_EQUAL_TO:
+          set(0, lowerBound(value), matched);
+          set(upperBound(value), thresholds.length, matched);
+          break;
+        default:
+          // non-numerical comparators are rejected when compiled
+          break;
+      }
+    }
+
+    private void set(int from, int to, BitSet matched) {
+      for (int i = from; i < to; i++) {
+        matched.set(ids[i]);
+      }
+    }
+
+    /**
+     * @return index of the first threshold that is greater than or equal to the value
+     */
+    private int lowerBound(float value) {
+      int low = 0;
+      int high = thresholds.length;
+      while (low < high) {
+        final int mid = (low + high) >>> 1;
+        if (thresholds[mid] < value) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+
+    /**
+     * @return index of the first threshold that is greater than the value
+     */
+    private int upperBound(float value) {
+      int low = 0;
+      int high = thresholds.length;
+      while (low < high) {
+        final int mid = (low + high) >>> 1;
+        if (thresholds[mid] <= value) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+  }
+
+  private static class Snapshot {
+
+    final Map<String, Group[]> groups;
+    /**
+     * The version of each allocated ID, up to the highest one, when this snapshot was built
+     */
+    final long[] idVersions;
+
+    Snapshot(Map<String, Group[]> groups, long[] idVersions) {
+      this.groups = groups;
+      this.idVersions = idVersions;
+    }
+  }
+}
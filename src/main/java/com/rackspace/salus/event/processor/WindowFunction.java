@@ -0,0 +1,57 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import lombok.Data;
+
+/**
+ * An expression input that aggregates the recent values of a metric within the input's zone,
+ * over either the last {@link #samples} inputs or the last {@link #seconds} of inputs. For
+ * example, to smooth CPU usage over the last five inputs:
+ * <pre>
+ * new ComparisonExpression()
+ *   .setInput(new WindowFunction().setOf("usage").setAggregate(Aggregate.AVG).setSamples(5))
+ *   .setComparator(Comparator.GREATER_THAN)
+ *   .setComparisonValue(90)
+ * </pre>
+ * Inputs that lack the metric do not contribute to the window. The aggregate of an empty window
+ * is unavailable, which fails any comparison.
+ */
+@Data
+public class WindowFunction {
+
+  public enum Aggregate {
+    AVG,
+    MIN,
+    MAX,
+    SUM,
+    COUNT
+  }
+
+  String of;
+  Aggregate aggregate;
+  /**
+   * The number of most recent inputs in the window, exclusive of {@link #seconds}
+   */
+  Integer samples;
+  /**
+   * The age in seconds of the oldest input in the window, exclusive of {@link #samples}. The
+   * window retains at most one sample per second of its age, evicting the oldest beyond that,
+   * so it covers less than its age when a zone reports faster.
+   */
+  Long seconds;
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+/**
+ * State of an expression input function that is accumulated from the inputs of one zone,
+ * such as a {@link SlidingWindow}. Instances are created per context and zone by
+ * {@link ZoneAccumulators}.
+ */
+interface ZoneAccumulator {
+
+  /**
+   * Called with each input of the zone before the input's expressions are evaluated
+   */
+  default void beforeEvaluation(MetricInput input) {
+  }
+
+  /**
+   * Called with each input of the zone after the input's expressions are evaluated
+   */
+  default void afterEvaluation(MetricInput input) {
+  }
+
+  /**
+   * @return an estimate of the most bytes this accumulator retains, which is used to weigh
+   * contexts
+   */
+  default long maxRetainedBytes() {
+    return 64;
+  }
+}
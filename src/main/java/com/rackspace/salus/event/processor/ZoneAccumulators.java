@@ -0,0 +1,158 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Holds the {@link ZoneAccumulator}s of a context for each zone, where the position of each
+ * accumulator was assigned by {@link ExpressionCompiler} when compiling the input function
+ * that reads it.
+ * <p>
+ * Zones are created through a concurrent map, so different zones may be processed by
+ * different threads, while each zone's accumulators are processed by one thread at a time.
+ * Accumulators that are also read across zones, such as {@link QuantileWindow}, synchronize
+ * those reads themselves.
+ * </p>
+ */
+class ZoneAccumulators {
+
+  /**
+   * Key of the inputs that have no zone
+   */
+  private static final String NO_ZONE = "";
+
+  private final List<Supplier<ZoneAccumulator>> factories;
+  /**
+   * What identifies the accumulator at each position, which is used to match positions when
+   * the task is recompiled
+   */
+  private final List<List<Object>> keys;
+  private final Map<String, ZoneAccumulator[]> zones = new ConcurrentHashMap<>();
+
+  ZoneAccumulators(List<Supplier<ZoneAccumulator>> factories, List<List<Object>> keys) {
+    this.factories = List.copyOf(factories);
+    this.keys = List.copyOf(keys);
+  }
+
+  boolean isEmpty() {
+    return factories.isEmpty();
+  }
+
+  int size() {
+    return factories.size();
+  }
+
+  /**
+   * @return the number of zones seen so far
+   */
+  int zoneCount() {
+    return zones.size();
+  }
+
+  /**
+   * @return an estimate of the most bytes retained by the accumulators of one zone
+   */
+  long maxRetainedBytesPerZone() {
+    long bytes = 0;
+    for (Supplier<ZoneAccumulator> factory : factories) {
+      bytes += factory.get().maxRetainedBytes();
+    }
+    return bytes;
+  }
+
+  /**
+   * @return the accumulator of the given zone and position, creating the zone's accumulators
+   * if needed
+   */
+  ZoneAccumulator get(String zone, int position) {
+    return forZone(zone)[position];
+  }
+
+  /**
+   * @return the accumulators of every zone seen so far
+   */
+  Collection<ZoneAccumulator[]> allZones() {
+    return zones.values();
+  }
+
+  /**
+   * Carries over the accumulators of a previous compilation of the same task whose keys match
+   * those of this one, so their state survives the task being updated. Any other positions
+   * start out empty. Must be called before this instance is used.
+   */
+  void adoptZones(ZoneAccumulators previous) {
+    if (isEmpty()) {
+      return;
+    }
+    final int[] previousPositions = new int[keys.size()];
+    boolean matched = false;
+    for (int i = 0; i < previousPositions.length; i++) {
+      previousPositions[i] = previous.keys.indexOf(keys.get(i));
+      matched |= previousPositions[i] >= 0;
+    }
+    if (!matched) {
+      return;
+    }
+
+    for (Map.Entry<String, ZoneAccumulator[]> entry : previous.zones.entrySet()) {
+      final ZoneAccumulator[] adopted = new ZoneAccumulator[factories.size()];
+      for (int i = 0; i < adopted.length; i++) {
+        adopted[i] = previousPositions[i] >= 0 ?
+            entry.getValue()[previousPositions[i]] : factories.get(i).get();
+      }
+      zones.put(entry.getKey(), adopted);
+    }
+  }
+
+  void beforeEvaluation(MetricInput input) {
+    if (isEmpty()) {
+      return;
+    }
+    for (ZoneAccumulator accumulator : forZone(input.getZone())) {
+      accumulator.beforeEvaluation(input);
+    }
+  }
+
+  void afterEvaluation(MetricInput input) {
+    if (isEmpty()) {
+      return;
+    }
+    for (ZoneAccumulator accumulator : forZone(input.getZone())) {
+      accumulator.afterEvaluation(input);
+    }
+  }
+
+  private ZoneAccumulator[] forZone(String zone) {
+    final String key = zone != null ? zone : NO_ZONE;
+    ZoneAccumulator[] accumulators = zones.get(key);
+    if (accumulators == null) {
+      accumulators = zones.computeIfAbsent(key, k -> {
+        final ZoneAccumulator[] created = new ZoneAccumulator[factories.size()];
+        for (int i = 0; i < created.length; i++) {
+          created[i] = factories.get(i).get();
+        }
+        return created;
+      });
+    }
+    return accumulators;
+  }
+}
@@ -0,0 +1,208 @@
+package com.rackspace.salus.event.statemachines;
+
+import static com.rackspace.salus.event.statemachines.PackedQuorumStateMachine.currentOf;
+import static com.rackspace.salus.event.statemachines.PackedQuorumStateMachine.pack;
+import static com.rackspace.salus.event.statemachines.PackedQuorumStateMachine.pendingOf;
+import static com.rackspace.salus.event.statemachines.PackedQuorumStateMachine.remainingOf;
+
+import com.rackspace.salus.event.statemachines.ConsecutiveCountStateMachine.StateSpec;
+import com.rackspace.salus.event.statemachines.MultiStateTransition.Observation;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A {@link QuorumStateMachine} of consecutive-count entries where different entries, such as
+ * the zones of a task, may be processed concurrently on different threads without a lock.
+ * Inputs of the same entry must still be processed by one thread at a time.
+ * <p>
+ * Each entry's current state ordinal, pending state ordinal, and remaining count are packed
+ * into a single <code>long</code> that is updated by compare-and-set. When an entry
+ * transitions, the number of entries in each state and the latched overall state are replaced
+ * together by a single compare-and-set of an immutable {@link Tally}, so the overall state only
+ * latches to a state that has a quorum of entries in the same tally, and each overall
+ * transition is returned by exactly one call to {@link #process}. As with
+ * {@link QuorumStateMachine}, the overall state remains latched when entries later leave it.
+ * The observations of a returned transition are a snapshot that may already include the
+ * states of later, concurrent inputs.
+ * </p>
+ * @param <S> type of state value
+ * @param <E> type of quorum entry identifier
+ */
+public class ConcurrentQuorumStateMachine<S extends Enum<S>, E> extends QuorumStateMachine<S, E> {
+
+  private static final int NONE = 0xFFFF;
+  static final int NO_STATE = -1;
+
+  private final StateSpecTable<S> specs;
+  private final Map<E, AtomicLong> entryStates = new ConcurrentHashMap<>();
+  private final AtomicReference<Tally> tally;
+
+  /**
+   * @param quorum the number of entries that need to be in a state for the overall state to
+   * transition there
+   * @param specs the possible states of each entry and the desired consecutive count for each,
+   * where the first is the initial state
+   */
+  public ConcurrentQuorumStateMachine(int quorum, List<StateSpec<S>> specs) {
+    this(quorum, StateSpecTable.of(specs));
+  }
+
+  /**
+   * @param quorum the number of entries that need to be in a state for the overall state to
+   * transition there
+   * @param specs the shared table of possible states of each entry and their consecutive counts
+   */
+  public ConcurrentQuorumStateMachine(int quorum, StateSpecTable<S> specs) {
+    super(quorum);
+    if (specs == null) {
+      throw new IllegalArgumentException("specs is required");
+    }
+    if (specs.states.length >= NONE) {
+      throw new IllegalArgumentException("Too many states to pack");
+    }
+    this.specs = specs;
+    tally = new AtomicReference<>(new Tally(new int[specs.states.length], NO_STATE));
+  }
+
+  @Override
+  public MultiStateTransition<S, E> process(E entry, S input) {
+    if (entry == null) {
+      throw new IllegalArgumentException("entry cannot be null");
+    }
+    if (input == null) {
+      throw new IllegalArgumentException("input cannot be null");
+    }
+
+    AtomicLong entryState = entryStates.get(entry);
+    if (entryState == null) {
+      final AtomicLong created = new AtomicLong(pack(specs.initialOrdinal, NONE, 0));
+      entryState = entryStates.putIfAbsent(entry, created);
+      if (entryState == null) {
+        entryState = created;
+        // entries are counted in their initial state, which does not evaluate the quorum
+        Tally previous;
+        do {
+          previous = tally.get();
+        } while (!tally.compareAndSet(previous,
+            previous.adjust(NO_STATE, specs.initialOrdinal, previous.overallOrdinal)));
+      }
+    }
+
+    final int ordinal = input.ordinal();
+    int fromOrdinal;
+    long packed;
+    long next;
+    do {
+      // the same steps as EnumConsecutiveCountStateMachine, retried if the entry's state was
+      // concurrently updated
+      packed = entryState.get();
+      fromOrdinal = currentOf(packed);
+      if (ordinal == fromOrdinal) {
+        next = pack(fromOrdinal, NONE, 0);
+      } else {
+        int remaining = remainingOf(packed);
+        if (ordinal != pendingOf(packed)) {
+          if (specs.consecutiveCounts[ordinal] == 0) {
+            throw new IllegalArgumentException("Unknown state name");
+          }
+          remaining = specs.consecutiveCounts[ordinal];
+        }
+        next = --remaining <= 0 ? pack(ordinal, NONE, 0) : pack(fromOrdinal, ordinal, remaining);
+      }
+    } while (packed != next && !entryState.compareAndSet(packed, next));
+
+    if (currentOf(next) == fromOrdinal) {
+      return null;
+    }
+
+    // the counts and the overall state are decided together so that concurrent transitions
+    // of other entries cannot latch a state that lacks a quorum
+    Tally previous;
+    Tally updated;
+    do {
+      previous = tally.get();
+      final int toCount = previous.counts[ordinal] + 1;
+      updated = previous.adjust(fromOrdinal, ordinal,
+          toCount >= getQuorum() ? ordinal : previous.overallOrdinal);
+    } while (!tally.compareAndSet(previous, updated));
+
+    if (updated.overallOrdinal == previous.overallOrdinal) {
+      return null;
+    }
+    return latched(previous.overallOrdinal, updated);
+  }
+
+  /**
+   * Builds the transition returned by the one call that latched the overall state.
+   * @param fromOrdinal the previously latched overall state or {@link #NO_STATE} if none
+   * @param latched the tally that latched the new overall state
+   */
+  MultiStateTransition<S, E> latched(int fromOrdinal, Tally latched) {
+    return new MultiStateTransition<S, E>()
+        .setOverall(fromOrdinal == NO_STATE ?
+            new StateTransition<>(null, specs.states[latched.overallOrdinal]) :
+            specs.transition(fromOrdinal, latched.overallOrdinal))
+        .setObservations(collectObservations());
+  }
+
+  /**
+   * @return the latched overall state or null if no quorum has been reached
+   */
+  public S getOverallState() {
+    final int ordinal = tally.get().overallOrdinal;
+    return ordinal != NO_STATE ? specs.states[ordinal] : null;
+  }
+
+  /**
+   * @return the current state of the given entry or null if it has not been processed
+   */
+  public S getState(E entry) {
+    final AtomicLong entryState = entryStates.get(entry);
+    return entryState != null ? specs.states[currentOf(entryState.get())] : null;
+  }
+
+  @Override
+  int countOf(S state) {
+    return tally.get().counts[state.ordinal()];
+  }
+
+  @Override
+  Map<E, Observation<S>> collectObservations() {
+    final Map<E, Observation<S>> observations = new HashMap<>();
+    entryStates.forEach((entry, entryState) -> observations.put(entry,
+        new Observation<S>().setState(specs.states[currentOf(entryState.get())])));
+    return observations;
+  }
+
+  /**
+   * The number of entries in each state, by ordinal, and the latched overall state, which are
+   * replaced together. Only allocated when an entry is added or transitions.
+   */
+  static final class Tally {
+
+    final int[] counts;
+    final int overallOrdinal;
+
+    Tally(int[] counts, int overallOrdinal) {
+      this.counts = counts;
+      this.overallOrdinal = overallOrdinal;
+    }
+
+    /**
+     * @param fromOrdinal the state an entry left or {@link #NO_STATE} for a new entry
+     * @param toOrdinal the state the entry entered
+     */
+    Tally adjust(int fromOrdinal, int toOrdinal, int overallOrdinal) {
+      final int[] adjusted = counts.clone();
+      if (fromOrdinal != NO_STATE) {
+        --adjusted[fromOrdinal];
+      }
+      ++adjusted[toOrdinal];
+      return new Tally(adjusted, overallOrdinal);
+    }
+  }
+}
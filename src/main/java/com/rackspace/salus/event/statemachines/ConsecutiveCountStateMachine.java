@@ -33,17 +33,17 @@ public class ConsecutiveCountStateMachine<S> implements StateHolder<S> {
       throw new IllegalArgumentException("input cannot be null");
     }
     if (input.equals(currentState)) {
-      pendingState = null;
+      if (pendingState != null) {
+        pendingState.active = false;
+      }
       return null;
     }
 
-    if (pendingState == null || !input.equals(pendingState.spec.state)) {
-      final StateSpec<S> next = specs.stream()
-          .filter(stateSpec -> stateSpec.state.equals(input))
-          .findFirst()
-          .orElseThrow(() -> new IllegalArgumentException("Unknown state name"));
-
-      pendingState = new PendingState<S>(next);
+    if (pendingState == null) {
+      pendingState = new PendingState<S>(findSpec(input));
+    } else if (!pendingState.active || !input.equals(pendingState.spec.state)) {
+      // re-use the pending state instance to avoid allocating as observations change
+      pendingState.reset(findSpec(input));
     }
 
     --pendingState.remainder;
@@ -52,13 +52,24 @@ public class ConsecutiveCountStateMachine<S> implements StateHolder<S> {
       final StateTransition<S> transition = new StateTransition<>(
           currentState, pendingState.spec.state);
       currentState = pendingState.spec.getState();
-      pendingState = null;
+      pendingState.active = false;
       return transition;
     } else {
       return null;
     }
   }
 
+  private StateSpec<S> findSpec(S state) {
+    // indexed loop rather than a stream since this is evaluated for every input
+    for (int i = 0; i < specs.size(); i++) {
+      final StateSpec<S> spec = specs.get(i);
+      if (spec.state.equals(state)) {
+        return spec;
+      }
+    }
+    throw new IllegalArgumentException("Unknown state name");
+  }
+
   @Override
   public S getState() {
     return currentState;
@@ -97,10 +108,16 @@ public class ConsecutiveCountStateMachine<S> implements StateHolder<S> {
 
     StateSpec<S> spec;
     int remainder;
+    boolean active;
 
     public PendingState(StateSpec<S> spec) {
+      reset(spec);
+    }
+
+    void reset(StateSpec<S> spec) {
       this.spec = spec;
       remainder = spec.consecutiveCount;
+      active = true;
     }
 
   }
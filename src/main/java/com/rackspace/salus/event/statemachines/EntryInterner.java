@@ -0,0 +1,65 @@
+package com.rackspace.salus.event.statemachines;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns a small, stable integer ID to each distinct quorum entry, such as a monitoring zone,
+ * so that state machines can refer to entries by ID rather than each retaining its own copy of
+ * the identifier. IDs are never released, so this is intended for identifiers drawn from a
+ * bounded set.
+ * @param <E> type of quorum entry identifier
+ */
+public class EntryInterner<E> {
+
+  private final Map<E, Integer> ids = new ConcurrentHashMap<>();
+  /**
+   * The entry of each ID, which is only appended to
+   */
+  private volatile Object[] entries = new Object[16];
+  private int size;
+
+  /**
+   * @return the ID of the given entry, which is assigned when first seen
+   */
+  public int idOf(E entry) {
+    final Integer id = ids.get(entry);
+    return id != null ? id : register(entry);
+  }
+
+  /**
+   * @return the ID of the given entry or -1 if it has not been seen, without assigning one
+   */
+  public int findId(E entry) {
+    final Integer id = ids.get(entry);
+    return id != null ? id : -1;
+  }
+
+  /**
+   * @param id an ID returned by {@link #idOf}
+   */
+  @SuppressWarnings("unchecked")
+  public E entryOf(int id) {
+    return (E) entries[id];
+  }
+
+  public int size() {
+    return ids.size();
+  }
+
+  private synchronized int register(E entry) {
+    final Integer existing = ids.get(entry);
+    if (existing != null) {
+      return existing;
+    }
+    if (size == entries.length) {
+      entries = Arrays.copyOf(entries, size * 2);
+    }
+    final int id = size++;
+    entries[id] = entry;
+    // publishes the entry to readers that later look up its ID
+    ids.put(entry, id);
+    return id;
+  }
+}
@@ -0,0 +1,77 @@
+package com.rackspace.salus.event.statemachines;
+
+import com.rackspace.salus.event.statemachines.ConsecutiveCountStateMachine.StateSpec;
+import java.util.List;
+
+/**
+ * A {@link ConsecutiveCountStateMachine} specialized for enum states, such as a task's
+ * states, which is evaluated for every input of every zone. Consecutive counts are looked up
+ * by ordinal from a {@link StateSpecTable} shared by all machines with the same specs, the
+ * pending state is tracked in primitive fields, and transitions are returned from immutable
+ * instances shared by all machines of the same enum type, so processing never allocates.
+ * @param <S> type of state value
+ */
+public class EnumConsecutiveCountStateMachine<S extends Enum<S>> implements StateHolder<S> {
+
+  private static final int NONE = -1;
+
+  private final StateSpecTable<S> specs;
+  private int currentOrdinal;
+  private int pendingOrdinal = NONE;
+  private int pendingRemainder;
+
+  /**
+   * Creates a consecutive-count state machine.
+   * @param specs the possible states to process and the desired consecutive count for each,
+   * where the first is the initial state
+   */
+  public EnumConsecutiveCountStateMachine(List<StateSpec<S>> specs) {
+    this(StateSpecTable.of(specs));
+  }
+
+  /**
+   * Creates a consecutive-count state machine that only allocates its own mutable state.
+   * @param specs the shared table of possible states and their consecutive counts
+   */
+  public EnumConsecutiveCountStateMachine(StateSpecTable<S> specs) {
+    if (specs == null) {
+      throw new IllegalArgumentException("specs is required");
+    }
+    this.specs = specs;
+    currentOrdinal = specs.initialOrdinal;
+  }
+
+  @Override
+  public StateTransition<S> process(S input) {
+    if (input == null) {
+      throw new IllegalArgumentException("input cannot be null");
+    }
+    final int ordinal = input.ordinal();
+    if (ordinal == currentOrdinal) {
+      pendingOrdinal = NONE;
+      return null;
+    }
+
+    if (ordinal != pendingOrdinal) {
+      if (specs.consecutiveCounts[ordinal] == 0) {
+        throw new IllegalArgumentException("Unknown state name");
+      }
+      pendingOrdinal = ordinal;
+      pendingRemainder = specs.consecutiveCounts[ordinal];
+    }
+
+    if (--pendingRemainder <= 0) {
+      final StateTransition<S> transition = specs.transition(currentOrdinal, ordinal);
+      currentOrdinal = ordinal;
+      pendingOrdinal = NONE;
+      return transition;
+    } else {
+      return null;
+    }
+  }
+
+  @Override
+  public S getState() {
+    return specs.states[currentOrdinal];
+  }
+}
@@ -0,0 +1,170 @@
+package com.rackspace.salus.event.statemachines;
+
+import com.rackspace.salus.event.statemachines.ConsecutiveCountStateMachine.StateSpec;
+import com.rackspace.salus.event.statemachines.MultiStateTransition.Observation;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link QuorumStateMachine} of {@link EnumConsecutiveCountStateMachine} entries that stores
+ * the state of each entry as a single packed <code>long</code> rather than as a map node and
+ * state holder objects. Each entry's current state ordinal, pending state ordinal, and
+ * remaining count are packed into a primitive array indexed by the entry's interned ID, which
+ * retains 12 bytes per entry rather than a map node, a state machine, and its arrays.
+ * <p>
+ * Entries are kept sorted by ID and located by binary search. Like the general machine,
+ * instances must only be processed by one thread at a time.
+ * </p>
+ * @param <S> type of state value
+ * @param <E> type of quorum entry identifier
+ */
+public class PackedQuorumStateMachine<S extends Enum<S>, E> extends QuorumStateMachine<S, E> {
+
+  private static final int NONE = 0xFFFF;
+  private static final int INITIAL_CAPACITY = 4;
+
+  private final EntryInterner<E> interner;
+  private final StateSpecTable<S> specs;
+  private int[] entryIds = new int[INITIAL_CAPACITY];
+  private long[] packedStates = new long[INITIAL_CAPACITY];
+  private int size;
+
+  /**
+   * @param quorum the number of entries that need to be in a state for the overall state to
+   * transition there
+   * @param specs the possible states of each entry and the desired consecutive count for each,
+   * where the first is the initial state
+   * @param interner assigns the IDs of entries, which may be shared by machines observing the
+   * same entries and retains every entry it has seen while reachable
+   */
+  public PackedQuorumStateMachine(int quorum, List<StateSpec<S>> specs,
+                                  EntryInterner<E> interner) {
+    this(quorum, StateSpecTable.of(specs), interner);
+  }
+
+  /**
+   * @param quorum the number of entries that need to be in a state for the overall state to
+   * transition there
+   * @param specs the shared table of possible states of each entry and their consecutive counts
+   * @param interner assigns the IDs of entries, which may be shared by machines observing the
+   * same entries and retains every entry it has seen while reachable
+   */
+  public PackedQuorumStateMachine(int quorum, StateSpecTable<S> specs,
+                                  EntryInterner<E> interner) {
+    super(quorum);
+    if (specs == null) {
+      throw new IllegalArgumentException("specs is required");
+    }
+    if (interner == null) {
+      throw new IllegalArgumentException("interner is required");
+    }
+    if (specs.states.length >= NONE) {
+      throw new IllegalArgumentException("Too many states to pack");
+    }
+    this.interner = interner;
+    this.specs = specs;
+  }
+
+  @Override
+  public MultiStateTransition<S, E> process(E entry, S input) {
+    if (entry == null) {
+      throw new IllegalArgumentException("entry cannot be null");
+    }
+    if (input == null) {
+      throw new IllegalArgumentException("input cannot be null");
+    }
+
+    final int id = interner.idOf(entry);
+    int index = Arrays.binarySearch(entryIds, 0, size, id);
+    if (index < 0) {
+      index = insert(-index - 1, id);
+      adjustCount(specs.states[specs.initialOrdinal], 1);
+    }
+
+    // the same steps as EnumConsecutiveCountStateMachine, applied to the packed fields
+    final long packed = packedStates[index];
+    final int currentOrdinal = currentOf(packed);
+    final int ordinal = input.ordinal();
+    if (ordinal == currentOrdinal) {
+      packedStates[index] = pack(currentOrdinal, NONE, 0);
+      return null;
+    }
+
+    int remaining = remainingOf(packed);
+    if (ordinal != pendingOf(packed)) {
+      if (specs.consecutiveCounts[ordinal] == 0) {
+        throw new IllegalArgumentException("Unknown state name");
+      }
+      remaining = specs.consecutiveCounts[ordinal];
+    }
+
+    if (--remaining <= 0) {
+      packedStates[index] = pack(ordinal, NONE, 0);
+      final StateTransition<S> transition = specs.transition(currentOrdinal, ordinal);
+      adjustCount(transition.getFrom(), -1);
+      adjustCount(transition.getTo(), 1);
+      return evaluateQuorum(transition);
+    } else {
+      packedStates[index] = pack(currentOrdinal, ordinal, remaining);
+      return null;
+    }
+  }
+
+  /**
+   * @return the current state of the given entry or null if it has not been processed
+   */
+  public S getState(E entry) {
+    // reads do not register unseen entries with the interner
+    final int id = interner.findId(entry);
+    if (id < 0) {
+      return null;
+    }
+    final int index = Arrays.binarySearch(entryIds, 0, size, id);
+    return index >= 0 ? specs.states[currentOf(packedStates[index])] : null;
+  }
+
+  @Override
+  Map<E, Observation<S>> collectObservations() {
+    final Map<E, Observation<S>> observations = new HashMap<>(size * 2);
+    for (int i = 0; i < size; i++) {
+      observations.put(interner.entryOf(entryIds[i]),
+          new Observation<S>().setState(specs.states[currentOf(packedStates[i])]));
+    }
+    return observations;
+  }
+
+  private int insert(int index, int id) {
+    if (size == entryIds.length) {
+      entryIds = Arrays.copyOf(entryIds, size * 2);
+      packedStates = Arrays.copyOf(packedStates, size * 2);
+    }
+    System.arraycopy(entryIds, index, entryIds, index + 1, size - index);
+    System.arraycopy(packedStates, index, packedStates, index + 1, size - index);
+    entryIds[index] = id;
+    packedStates[index] = pack(specs.initialOrdinal, NONE, 0);
+    size++;
+    return index;
+  }
+
+  /**
+   * Packs the current ordinal into bits 0-15, the pending ordinal into bits 16-31, and the
+   * remaining count of the pending state into bits 32-63.
+   */
+  static long pack(int currentOrdinal, int pendingOrdinal, int remaining) {
+    return currentOrdinal | ((long) pendingOrdinal << 16) | ((long) remaining << 32);
+  }
+
+  static int currentOf(long packed) {
+    return (int) (packed & 0xFFFF);
+  }
+
+  static int pendingOf(long packed) {
+    return (int) ((packed >>> 16) & 0xFFFF);
+  }
+
+  static int remainingOf(long packed) {
+    return (int) (packed >>> 32);
+  }
+}
@@ -1,6 +1,7 @@
 package com.rackspace.salus.event.statemachines;
 
 import com.rackspace.salus.event.statemachines.MultiStateTransition.Observation;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
@@ -19,17 +20,44 @@ public class QuorumStateMachine<S,E> {
 
   private final int quorum;
   private final StateHolderFactory<S> stateHolderFactory;
-  private final Map<E, StateHolder<S>> entries = new ConcurrentHashMap<>();
+  /**
+   * Null for subclasses that store the state of each entry themselves
+   */
+  private final Map<E, StateHolder<S>> entries;
   private final LatchingStateHolder<S> overall = new LatchingStateHolder<>();
+  /**
+   * The number of entries currently in each state, which is maintained as entries transition
+   * so that evaluating the quorum does not scan every entry. Enum states are counted by
+   * ordinal and any other states by value.
+   */
+  private int[] countsByOrdinal;
+  private final Map<S, int[]> countsByState;
 
   public QuorumStateMachine(int quorum,
                             StateHolderFactory<S> stateHolderFactory) {
+    this(quorum,
+        stateHolderFactory != null ? stateHolderFactory : LatchingStateHolder::new,
+        new ConcurrentHashMap<>(), new HashMap<>());
+  }
+
+  /**
+   * For subclasses of enum states that store the state of each entry themselves, overriding
+   * {@link #process} and {@link #collectObservations}, so that the entry and count maps they
+   * would not use are not allocated.
+   */
+  protected QuorumStateMachine(int quorum) {
+    this(quorum, null, null, null);
+  }
+
+  private QuorumStateMachine(int quorum, StateHolderFactory<S> stateHolderFactory,
+                             Map<E, StateHolder<S>> entries, Map<S, int[]> countsByState) {
     if (quorum <= 0) {
       throw new IllegalArgumentException("quorum must be greater than zero");
     }
     this.quorum = quorum;
-    this.stateHolderFactory =
-        stateHolderFactory != null ? stateHolderFactory : LatchingStateHolder::new;
+    this.stateHolderFactory = stateHolderFactory;
+    this.entries = entries;
+    this.countsByState = countsByState;
   }
 
   public MultiStateTransition<S, E> process(E entry, S input) {
@@ -40,25 +68,25 @@ public class QuorumStateMachine<S,E> {
       throw new IllegalArgumentException("input cannot be null");
     }
 
-    final StateHolder<S> entryState = entries.computeIfAbsent(entry,
-        e -> stateHolderFactory.create());
+    StateHolder<S> entryState = entries.get(entry);
+    if (entryState == null) {
+      entryState = stateHolderFactory.create();
+      entries.put(entry, entryState);
+      adjustCount(entryState.getState(), 1);
+    }
 
     final StateTransition<S> result = entryState.process(input);
     if (result != null) {
+      adjustCount(result.getFrom(), -1);
+      adjustCount(result.getTo(), 1);
       return evaluateQuorum(result);
     } else {
       return null;
     }
   }
 
-  private MultiStateTransition<S, E> evaluateQuorum(StateTransition<S> transition) {
-    final long countInNewState = entries.values().stream()
-        .map(StateHolder::getState)
-        .filter(s -> s.equals(transition.getTo()))
-        .count()
-        ;
-
-    if (countInNewState >= quorum) {
+  MultiStateTransition<S, E> evaluateQuorum(StateTransition<S> transition) {
+    if (countOf(transition.getTo()) >= quorum) {
       final StateTransition<S> overall = this.overall.process(transition.getTo());
       if (overall != null) {
         return new MultiStateTransition<S,E>()
@@ -69,7 +97,41 @@ public class QuorumStateMachine<S,E> {
     return null;
   }
 
-  private Map<E, Observation<S>> collectObservations() {
+  /**
+   * @return the number of entries currently in the given state
+   */
+  int countOf(S state) {
+    if (state instanceof Enum) {
+      return countsByOrdinal != null ? countsByOrdinal[((Enum<?>) state).ordinal()] : 0;
+    }
+    final int[] count = countsByState.get(state);
+    return count != null ? count[0] : 0;
+  }
+
+  void adjustCount(S state, int delta) {
+    if (state == null) {
+      // indeterminate states are never the subject of a quorum
+      return;
+    }
+    if (state instanceof Enum) {
+      if (countsByOrdinal == null) {
+        countsByOrdinal =
+            new int[((Enum<?>) state).getDeclaringClass().getEnumConstants().length];
+      }
+      countsByOrdinal[((Enum<?>) state).ordinal()] += delta;
+    } else {
+      countsByState.computeIfAbsent(state, s -> new int[1])[0] += delta;
+    }
+  }
+
+  /**
+   * @return the number of entries needed for the overall state to transition
+   */
+  int getQuorum() {
+    return quorum;
+  }
+
+  Map<E, Observation<S>> collectObservations() {
     return entries.entrySet().stream()
         .collect(Collectors.toMap(
             Entry::getKey,
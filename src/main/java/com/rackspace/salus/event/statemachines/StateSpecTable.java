@@ -0,0 +1,115 @@
+package com.rackspace.salus.event.statemachines;
+
+import com.rackspace.salus.event.statemachines.ConsecutiveCountStateMachine.StateSpec;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable, ordinal-indexed form of the {@link StateSpec}s of enum states, which is
+ * interned by {@link #of} so that the state machines of every zone and task with the same
+ * specs share one instance and only allocate their own mutable state.
+ * @param <S> type of state value
+ */
+public final class StateSpecTable<S extends Enum<S>> {
+
+  /**
+   * Transitions between every pair of constants of each enum type, indexed by the ordinals
+   * of the from and to states
+   */
+  private static final ClassValue<StateTransition<?>[][]> TRANSITIONS =
+      new ClassValue<>() {
+        @Override
+        protected StateTransition<?>[][] computeValue(Class<?> type) {
+          final Object[] constants = type.getEnumConstants();
+          final StateTransition<?>[][] transitions =
+              new StateTransition<?>[constants.length][constants.length];
+          for (int from = 0; from < constants.length; from++) {
+            for (int to = 0; to < constants.length; to++) {
+              transitions[from][to] = new StateTransition<>(constants[from], constants[to]);
+            }
+          }
+          return transitions;
+        }
+      };
+
+  private static final Map<Key, StateSpecTable<?>> INTERNED = new ConcurrentHashMap<>();
+
+  final S[] states;
+  /**
+   * The consecutive count of each state by ordinal, where zero indicates a state that was not
+   * specified
+   */
+  final int[] consecutiveCounts;
+  final int initialOrdinal;
+  private final StateTransition<?>[][] transitions;
+
+  private StateSpecTable(Class<S> type, int[] consecutiveCounts, int initialOrdinal) {
+    this.states = type.getEnumConstants();
+    this.consecutiveCounts = consecutiveCounts;
+    this.initialOrdinal = initialOrdinal;
+    this.transitions = TRANSITIONS.get(type);
+  }
+
+  /**
+   * @param specs the possible states and the desired consecutive count for each, where the
+   * first is the initial state
+   * @return the shared table of the given specs
+   */
+  @SuppressWarnings("unchecked")
+  public static <S extends Enum<S>> StateSpecTable<S> of(List<StateSpec<S>> specs) {
+    if (specs == null || specs.isEmpty()) {
+      throw new IllegalArgumentException("specs must be non-empty");
+    }
+    final Class<S> type = specs.get(0).getState().getDeclaringClass();
+    final int[] consecutiveCounts = new int[type.getEnumConstants().length];
+    for (StateSpec<S> spec : specs) {
+      consecutiveCounts[spec.getState().ordinal()] = spec.consecutiveCount;
+    }
+    final Key key = new Key(type, consecutiveCounts, specs.get(0).getState().ordinal());
+    return (StateSpecTable<S>) INTERNED.computeIfAbsent(key,
+        k -> new StateSpecTable<>(type, k.consecutiveCounts, k.initialOrdinal));
+  }
+
+  /**
+   * @return the shared transition between the states of the given ordinals
+   */
+  @SuppressWarnings("unchecked")
+  StateTransition<S> transition(int fromOrdinal, int toOrdinal) {
+    return (StateTransition<S>) transitions[fromOrdinal][toOrdinal];
+  }
+
+  private static final class Key {
+
+    final Class<?> type;
+    final int[] consecutiveCounts;
+    final int initialOrdinal;
+
+    Key(Class<?> type, int[] consecutiveCounts, int initialOrdinal) {
+      this.type = type;
+      this.consecutiveCounts = consecutiveCounts;
+      this.initialOrdinal = initialOrdinal;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      final Key key = (Key) o;
+      return initialOrdinal == key.initialOrdinal &&
+          type == key.type &&
+          Arrays.equals(consecutiveCounts, key.consecutiveCounts);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(type, initialOrdinal) * 31 + Arrays.hashCode(consecutiveCounts);
+    }
+  }
+}
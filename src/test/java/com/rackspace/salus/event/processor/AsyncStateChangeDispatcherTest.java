@@ -0,0 +1,221 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.rackspace.salus.event.processor.AsyncDispatchOptions.OverflowPolicy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+
+public class AsyncStateChangeDispatcherTest {
+
+  private static final String MESSAGE = "Usage is #{usage}";
+
+  @Test
+  public void testDispatch_batchedInTaskOrder() throws InterruptedException {
+    final Map<UUID, List<String>> messagesByTask = new ConcurrentHashMap<>();
+    final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+    final StateChangeBatchHandler batchHandler = stateChanges -> {
+      batchSizes.add(stateChanges.size());
+      for (StateChange stateChange : stateChanges) {
+        messagesByTask.computeIfAbsent(stateChange.getTask().getId(), id -> new ArrayList<>())
+            .add(stateChange.getMessage());
+      }
+    };
+
+    final EventProcessor eventProcessor = new EventProcessor();
+    final List<EventProcessorContext> contexts = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      contexts.add(EventProcessorContextBuilder.fromTask(TestTasks.cpuTask(MESSAGE)));
+    }
+
+    try (AsyncStateChangeDispatcher dispatcher = new AsyncStateChangeDispatcher(batchHandler,
+        new AsyncDispatchOptions()
+            .setLaneCount(3)
+            .setMaxBatchSize(16)
+            .setMaxBatchDelay(Duration.ofMillis(5)))) {
+      final List<StateChangeHandler> handlers = new ArrayList<>();
+      for (EventProcessorContext context : contexts) {
+        handlers.add(dispatcher.handlerFor(context));
+      }
+
+      // alternates between CRITICAL, with a message of the usage, and OK, without a message
+      for (int n = 0; n < 100; n++) {
+        for (int i = 0; i < contexts.size(); i++) {
+          eventProcessor.process(contexts.get(i), buildInput(n % 2 == 0 ? 100 + n : 10),
+              handlers.get(i));
+        }
+      }
+      dispatcher.flush();
+
+      assertThat(dispatcher.getDispatched()).isEqualTo(1000);
+      assertThat(dispatcher.getDropped()).isEqualTo(0);
+    }
+
+    final List<String> expected = new ArrayList<>();
+    for (int n = 0; n < 100; n++) {
+      expected.add(n % 2 == 0 ? "Usage is " + (100 + n) : null);
+    }
+    assertThat(messagesByTask).hasSize(contexts.size());
+    assertThat(messagesByTask.values()).allSatisfy(messages ->
+        assertThat(messages).isEqualTo(expected));
+    assertThat(batchSizes).allSatisfy(size -> assertThat(size).isBetween(1, 16));
+  }
+
+  @Test
+  public void testDispatch_dropNewest() throws InterruptedException {
+    assertThat(dispatchWhileStalled(OverflowPolicy.DROP_NEWEST)).containsExactly("0", "1", "2");
+  }
+
+  @Test
+  public void testDispatch_dropOldest() throws InterruptedException {
+    assertThat(dispatchWhileStalled(OverflowPolicy.DROP_OLDEST)).containsExactly("0", "2", "3");
+  }
+
+  @Test
+  public void testDispatch_failedBatch() throws InterruptedException {
+    final EventProcessorContext context =
+        EventProcessorContextBuilder.fromTask(TestTasks.cpuTask(MESSAGE));
+
+    try (AsyncStateChangeDispatcher dispatcher = new AsyncStateChangeDispatcher(
+        stateChanges -> {
+          throw new IllegalStateException("downstream unavailable");
+        }, new AsyncDispatchOptions())) {
+      dispatcher.handlerFor(context).handleStateChange(null, "first");
+      dispatcher.flush();
+
+      assertThat(dispatcher.getFailed()).isEqualTo(1);
+      assertThat(dispatcher.getDispatched()).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void testHandlerFor_closed() throws InterruptedException {
+    final AsyncStateChangeDispatcher dispatcher =
+        new AsyncStateChangeDispatcher(stateChanges -> {}, new AsyncDispatchOptions());
+    final StateChangeHandler handler =
+        dispatcher.handlerFor(EventProcessorContextBuilder.fromTask(TestTasks.cpuTask(MESSAGE)));
+    dispatcher.close();
+
+    assertThatThrownBy(() -> handler.handleStateChange(null, "late"))
+        .isInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  public void testDispatch_interruptedLaneReleasesBlockedProducer() throws InterruptedException {
+    final CountDownLatch dispatching = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<Thread> laneThreads = new CopyOnWriteArrayList<>();
+    final StateChangeBatchHandler batchHandler = stateChanges -> {
+      laneThreads.add(Thread.currentThread());
+      dispatching.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    };
+
+    try (AsyncStateChangeDispatcher dispatcher = new AsyncStateChangeDispatcher(batchHandler,
+        new AsyncDispatchOptions()
+            .setQueueCapacity(1)
+            .setMaxBatchSize(1)
+            .setOverflowPolicy(OverflowPolicy.BLOCK))) {
+      final StateChangeHandler handler =
+          dispatcher.handlerFor(EventProcessorContextBuilder.fromTask(TestTasks.cpuTask(MESSAGE)));
+      handler.handleStateChange(null, "0");
+      dispatching.await();
+      final Thread lane = laneThreads.get(0);
+      assertThat(lane.isDaemon()).isTrue();
+      handler.handleStateChange(null, "1");
+
+      // blocks on the full queue
+      final Thread producer = new Thread(() -> handler.handleStateChange(null, "2"));
+      producer.start();
+      // once the producer has found the queue full, the stopping lane must release it
+      while (dispatcher.getBlocked() == 0) {
+        Thread.yield();
+      }
+
+      lane.interrupt();
+      producer.join(10_000);
+      assertThat(producer.isAlive()).isFalse();
+
+      dispatcher.flush();
+      assertThat(dispatcher.getDispatched()).isEqualTo(1);
+      assertThat(dispatcher.getDropped()).isEqualTo(2);
+      assertThatThrownBy(() -> handler.handleStateChange(null, "3"))
+          .isInstanceOf(IllegalStateException.class);
+    }
+  }
+
+  /**
+   * Emits four messages to a single-entry queue while the first is held by the downstream
+   */
+  private static List<String> dispatchWhileStalled(OverflowPolicy overflowPolicy)
+      throws InterruptedException {
+    final CountDownLatch dispatching = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+    final StateChangeBatchHandler batchHandler = stateChanges -> {
+      dispatching.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      for (StateChange stateChange : stateChanges) {
+        messages.add(stateChange.getMessage());
+      }
+    };
+
+    try (AsyncStateChangeDispatcher dispatcher = new AsyncStateChangeDispatcher(batchHandler,
+        new AsyncDispatchOptions()
+            .setQueueCapacity(2)
+            .setMaxBatchSize(1)
+            .setOverflowPolicy(overflowPolicy))) {
+      final StateChangeHandler handler =
+          dispatcher.handlerFor(EventProcessorContextBuilder.fromTask(TestTasks.cpuTask(MESSAGE)));
+      handler.handleStateChange(null, "0");
+      dispatching.await();
+      handler.handleStateChange(null, "1");
+      handler.handleStateChange(null, "2");
+      handler.handleStateChange(null, "3");
+
+      release.countDown();
+      dispatcher.flush();
+      assertThat(dispatcher.getDropped()).isEqualTo(1);
+    }
+    return messages;
+  }
+
+  private static EventProcessorInput buildInput(int usage) {
+    return new EventProcessorInput(
+        Instant.parse("2007-12-03T10:15:30.00Z"), "public/west", Map.of("usage", usage));
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class BaselineTest {
+
+  @Test
+  public void testGetDeviation_warmup() {
+    final Baseline baseline = new Baseline(-1, "usage", 0.1, 0, 0.1, 0, 0, 3);
+
+    baseline.update(50, 0);
+    baseline.update(52, 0);
+    assertThat(baseline.getForecast(0)).isNaN();
+    assertThat(baseline.getDeviation(100, 0)).isNaN();
+
+    baseline.update(48, 0);
+    assertThat(baseline.getForecast(0)).isCloseTo(50, within(1.0));
+  }
+
+  @Test
+  public void testGetDeviation_spike() {
+    final Random random = new Random(0);
+    final Baseline baseline = new Baseline(-1, "usage", 0.1, 0, 0.1, 0, 0, 10);
+    for (int i = 0; i < 500; i++) {
+      baseline.update(50 + random.nextGaussian(), 0);
+    }
+
+    assertThat(baseline.getStandardDeviation()).isCloseTo(1, within(0.5));
+    assertThat(baseline.getDeviation(51, 0)).isLessThan(3);
+    assertThat(baseline.getDeviation(60, 0)).isGreaterThan(5);
+    assertThat(baseline.getDeviation(40, 0)).isLessThan(-5);
+  }
+
+  @Test
+  public void testGetDeviation_seasonal() {
+    final Random random = new Random(0);
+    final int seasonLength = 24;
+    final Baseline baseline = new Baseline(-1, "usage", 0.2, 0, 0.3, seasonLength, 0, 48);
+    int i = 0;
+    for (; i < seasonLength * 40; i++) {
+      baseline.update(seasonalValue(i) + random.nextGaussian(), 0);
+    }
+
+    // what is normal at this point of the season is accepted
+    assertThat(Math.abs(baseline.getDeviation(seasonalValue(i), 0))).isLessThan(3);
+    // but not a value normal for another point of the season
+    assertThat(Math.abs(baseline.getDeviation(seasonalValue(i + seasonLength / 4), 0)))
+        .isGreaterThan(5);
+  }
+
+  @Test
+  public void testGetDeviation_seasonalByTimestamp() {
+    final Random random = new Random(0);
+    final int seasonLength = 24;
+    final long hour = 60 * 60 * 1000;
+    final Baseline baseline =
+        new Baseline(-1, "usage", 0.2, 0, 0.3, seasonLength, seasonLength * hour, 48);
+    int i = 0;
+    for (; i < seasonLength * 40; i++) {
+      // inputs are missed, which would shift seasonal terms chosen by position
+      if (random.nextInt(4) != 0) {
+        baseline.update(seasonalValue(i) + random.nextGaussian(), i * hour);
+      }
+    }
+
+    assertThat(Math.abs(baseline.getDeviation(seasonalValue(i), i * hour))).isLessThan(3);
+    assertThat(Math.abs(baseline.getDeviation(seasonalValue(i + seasonLength / 4), i * hour)))
+        .isGreaterThan(5);
+  }
+
+  @Test
+  public void testGetDeviation_steadyInputs() {
+    final Baseline baseline = new Baseline(-1, "usage", 0.1, 0, 0.1, 0, 0, 10);
+    for (int i = 0; i < 100; i++) {
+      baseline.update(50, 0);
+    }
+
+    assertThat(baseline.getStandardDeviation()).isEqualTo(0);
+    assertThat(baseline.getDeviation(50, 0)).isEqualTo(0);
+    // the standard deviation is floored at 1% of the forecast
+    assertThat(baseline.getDeviation(50.5, 0)).isCloseTo(1, within(0.001));
+    assertThat(baseline.getDeviation(45, 0)).isCloseTo(-10, within(0.001));
+  }
+
+  private static double seasonalValue(int i) {
+    return 100 + 50 * Math.sin(2 * Math.PI * i / 24);
+  }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.rackspace.salus.telemetry.entities.EventEngineTask;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.Comparator;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.ComparisonExpression;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.Expression;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.LogicalExpression;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.LogicalExpression.Operator;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.RateFunction;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.StateExpression;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.TaskState;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.Test;
+
+public class ConditionNetworkTest {
+
+  @Test
+  public void testRegister_deduplicatesAcrossTasks() {
+    final ConditionNetwork network = new ConditionNetwork();
+    for (int i = 0; i < 10; i++) {
+      network.register(EventProcessorContextBuilder.fromTask(buildTask(i % 2 == 0 ? 50 : 80)));
+    }
+
+    // usage>50, usage>80, device regex, idle<10, the AND, and the two ORs
+    assertThat(network.size()).isEqualTo(7);
+    // each task has five shareable expressions, the rate comparison is not shared
+    assertThat(network.referenceCount()).isEqualTo(50);
+  }
+
+  @Test
+  public void testEvaluate_matchesDirectEvaluation() {
+    final ConditionNetwork network = new ConditionNetwork();
+    final List<EventProcessorContext> contexts = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      final EventProcessorContext context =
+          EventProcessorContextBuilder.fromTask(buildTask(i % 2 == 0 ? 50 : 80));
+      network.register(context);
+      contexts.add(context);
+    }
+
+    final List<Map<String, Object>> inputs = List.of(
+        Map.of("usage", 60, "device", "/dev/sda1", "idle", 5),
+        Map.of("usage", 90, "device", "/dev/xvda", "idle", 50),
+        Map.of("usage", 10, "device", "/dev/sdb2", "idle", 5),
+        Map.of("device", "/dev/sdb2")
+    );
+    for (Map<String, Object> metrics : inputs) {
+      final EventProcessorInput input = new EventProcessorInput(
+          Instant.parse("2007-12-03T10:15:30.00Z"), "public/west", metrics);
+      final ConditionResults results = network.evaluate("cpu", input);
+
+      for (EventProcessorContext context : contexts) {
+        final ExpressionEvaluator shared = context.getCompiledStateExpressions().get(0).evaluator;
+        assertThat(shared).isInstanceOf(SharedCondition.class);
+        assertThat(context.getCompiledStateExpressions().get(1).evaluator)
+            .isNotInstanceOf(SharedCondition.class);
+
+        final boolean direct = shared.evaluate(context, input);
+        context.setConditionResults(results);
+        try {
+          assertThat(shared.evaluate(context, input)).as("%s", metrics).isEqualTo(direct);
+        } finally {
+          context.setConditionResults(null);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testUnregister_releasesUnreferencedNodes() {
+    final ConditionNetwork network = new ConditionNetwork();
+    final EventProcessorContext first = EventProcessorContextBuilder.fromTask(buildTask(50));
+    final EventProcessorContext second = EventProcessorContextBuilder.fromTask(buildTask(80));
+    network.register(first);
+    network.register(second);
+
+    network.unregister(first);
+
+    // usage>80, device regex, idle<10, the AND, and the OR of the second task
+    assertThat(network.size()).isEqualTo(5);
+    assertThat(first.getCompiledStateExpressions().get(0).evaluator)
+        .isNotInstanceOf(SharedCondition.class);
+
+    network.unregister(second);
+    assertThat(network.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void testEvaluate_staleResultsFallBackForReusedIds() {
+    final ConditionNetwork network = new ConditionNetwork();
+    final EventProcessorContext removed = EventProcessorContextBuilder.fromTask(buildTask(50));
+    network.register(removed);
+
+    final EventProcessorInput input = new EventProcessorInput(
+        Instant.parse("2007-12-03T10:15:30.00Z"), "public/west",
+        Map.of("usage", 60, "device", "/dev/xvda", "idle", 50));
+    final ConditionResults results = network.evaluate("cpu", input);
+    assertThat(results.matchedCount()).isGreaterThan(0);
+
+    network.unregister(removed);
+    // re-uses the IDs of the removed context's nodes
+    final EventProcessorContext added = EventProcessorContextBuilder.fromTask(buildTask(80));
+    network.register(added);
+
+    final ExpressionEvaluator shared = added.getCompiledStateExpressions().get(0).evaluator;
+    added.setConditionResults(results);
+    try {
+      assertThat(shared.evaluate(added, input)).isFalse();
+    } finally {
+      added.setConditionResults(null);
+    }
+  }
+
+  @Test
+  public void testRegister_failedRecompileKeepsRegistration() {
+    final ConditionNetwork network = new ConditionNetwork();
+    final EventProcessorContext context = EventProcessorContextBuilder.fromTask(buildTask(50));
+    network.register(context);
+    final ExpressionEvaluator registered =
+        context.getCompiledStateExpressions().get(0).evaluator;
+    final StateExpression warning =
+        context.getTask().getTaskParameters().getStateExpressions().get(1);
+    final Expression rate = warning.getExpression();
+
+    // references a metric outside of the context's schema, so re-compiling fails after the
+    // comparison was interned as a node
+    warning.setExpression(new ComparisonExpression()
+        .setInput("system")
+        .setComparator(Comparator.GREATER_THAN)
+        .setComparisonValue(5));
+    assertThatThrownBy(() -> network.register(context))
+        .isInstanceOf(IllegalStateException.class);
+
+    assertThat(network.size()).isEqualTo(5);
+    assertThat(context.getCompiledStateExpressions().get(0).evaluator).isSameAs(registered);
+
+    warning.setExpression(rate);
+    network.unregister(context);
+    assertThat(network.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void testRegister_rejectsSecondSharedSource() {
+    final ConditionNetwork network = new ConditionNetwork();
+    final ThresholdIndex index = new ThresholdIndex();
+    final EventProcessorContext context = EventProcessorContextBuilder.fromTask(buildTask(50));
+    index.register(context);
+
+    assertThatThrownBy(() -> network.register(context))
+        .isInstanceOf(IllegalStateException.class);
+    assertThat(network.size()).isEqualTo(0);
+
+    // re-registering with the same source is allowed
+    index.register(context);
+    assertThat(index.size()).isEqualTo(2);
+  }
+
+  private static EventEngineTask buildTask(int usageThreshold) {
+    final Expression expression = new LogicalExpression()
+        .setOperator(Operator.OR)
+        .setExpressions(List.of(
+            new ComparisonExpression()
+                .setInput("usage")
+                .setComparator(Comparator.GREATER_THAN)
+                .setComparisonValue(usageThreshold),
+            new LogicalExpression()
+                .setOperator(Operator.AND)
+                .setExpressions(List.of(
+                    new ComparisonExpression()
+                        .setInput("device")
+                        .setComparator(Comparator.REGEX_MATCH)
+                        .setComparisonValue("^/dev/sd[a-z]\\d$"),
+                    new ComparisonExpression()
+                        .setInput("idle")
+                        .setComparator(Comparator.LESS_THAN)
+                        .setComparisonValue(10)
+                ))
+        ));
+
+    return new EventEngineTask()
+        .setId(UUID.randomUUID())
+        .setTenantId("t-1")
+        .setTaskParameters(new EventEngineTaskParameters()
+            .setMetricGroup("cpu")
+            .setZoneQuorumCount(1)
+            .setDefaultConsecutiveCount(1)
+            .setStateExpressions(List.of(
+                new StateExpression()
+                    .setState(TaskState.CRITICAL)
+                    .setExpression(expression),
+                new StateExpression()
+                    .setState(TaskState.WARNING)
+                    .setExpression(new ComparisonExpression()
+                        .setInput(new RateFunction().setOf("usage"))
+                        .setComparator(Comparator.GREATER_THAN)
+                        .setComparisonValue(5))
+            ))
+        );
+  }
+}
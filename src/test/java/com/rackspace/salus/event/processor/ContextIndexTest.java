@@ -0,0 +1,147 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.rackspace.salus.telemetry.entities.EventEngineTask;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.Comparator;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.ComparisonExpression;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.LogicalExpression;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.LogicalExpression.Operator;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.PercentageFunction;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.PreviousFunction;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.StateExpression;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.TaskState;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.Test;
+
+public class ContextIndexTest {
+
+  @Test
+  public void testFindAffected() {
+    final EventProcessorContext usage = buildContext("cpu", new ComparisonExpression()
+        .setInput("usage")
+        .setComparator(Comparator.GREATER_THAN)
+        .setComparisonValue(90));
+    final EventProcessorContext percentage = buildContext("cpu", new LogicalExpression()
+        .setOperator(Operator.AND)
+        .setExpressions(List.of(
+            new ComparisonExpression()
+                .setInput(new PercentageFunction().setPart("used").setWhole("total"))
+                .setComparator(Comparator.GREATER_THAN)
+                .setComparisonValue(90),
+            new ComparisonExpression()
+                .setInput("usage")
+                .setComparator(Comparator.GREATER_THAN)
+                .setComparisonValue(10)
+        )));
+    final EventProcessorContext otherMeasurement = buildContext("mem", new ComparisonExpression()
+        .setInput("usage")
+        .setComparator(Comparator.GREATER_THAN)
+        .setComparisonValue(90));
+
+    final ContextIndex index = new ContextIndex();
+    index.add(usage);
+    index.add(percentage);
+    index.add(otherMeasurement);
+
+    assertThat(index.findAffected("cpu", buildInput(Map.of("usage", 95, "total", 100))))
+        .containsExactlyInAnyOrder(usage, percentage);
+    assertThat(index.findAffected("cpu", buildInput(Map.of("used", 95))))
+        .containsExactly(percentage);
+    assertThat(index.findAffected("cpu", buildInput(Map.of("idle", 5))))
+        .isEmpty();
+    assertThat(index.findAffected("disk", buildInput(Map.of("usage", 95))))
+        .isEmpty();
+
+    index.remove(percentage);
+    assertThat(index.findAffected("cpu", buildInput(Map.of("used", 95))))
+        .isEmpty();
+  }
+
+  @Test
+  public void testFindAffected_previousFunction() {
+    final EventProcessorContext previous = buildContext("cpu", new ComparisonExpression()
+        .setInput(new PreviousFunction().setOf("usage"))
+        .setComparator(Comparator.GREATER_THAN)
+        .setComparisonValue(90));
+
+    final ContextIndex index = new ContextIndex();
+    index.add(previous);
+
+    // the previous input alone may satisfy the expression
+    assertThat(index.findAffected("cpu", buildInput(Map.of("idle", 5))))
+        .containsExactly(previous);
+  }
+
+  @Test
+  public void testFindAffected_skippedContextKeepsItsState() {
+    final EventProcessorContext context = buildContext("cpu", new ComparisonExpression()
+        .setInput("usage")
+        .setComparator(Comparator.GREATER_THAN)
+        .setComparisonValue(90));
+    final ContextIndex index = new ContextIndex();
+    index.add(context);
+    final EventProcessor eventProcessor = new EventProcessor();
+    final List<TaskState> states = new ArrayList<>();
+    final StateChangeHandler handler =
+        (transition, message) -> states.add(transition.getOverall().getTo());
+
+    final EventProcessorInput alerting = buildInput(Map.of("usage", 95));
+    for (EventProcessorContext affected : index.findAffected("cpu", alerting)) {
+      eventProcessor.process(affected, alerting, handler);
+    }
+    assertThat(states).containsExactly(TaskState.CRITICAL);
+
+    // the metric is no longer reported, so the context is skipped and stays critical
+    final EventProcessorInput withoutUsage = buildInput(Map.of("idle", 5));
+    assertThat(index.findAffected("cpu", withoutUsage)).isEmpty();
+    assertThat(states).containsExactly(TaskState.CRITICAL);
+
+    // whereas processing it anyway falls through to the default state
+    eventProcessor.process(context, withoutUsage, handler);
+    assertThat(states).containsExactly(TaskState.CRITICAL, TaskState.OK);
+  }
+
+  private static EventProcessorContext buildContext(String metricGroup,
+      EventEngineTaskParameters.Expression expression) {
+    return EventProcessorContextBuilder.fromTask(new EventEngineTask()
+        .setId(UUID.randomUUID())
+        .setTenantId("t-1")
+        .setTaskParameters(new EventEngineTaskParameters()
+            .setMetricGroup(metricGroup)
+            .setZoneQuorumCount(1)
+            .setDefaultConsecutiveCount(1)
+            .setStateExpressions(List.of(
+                new StateExpression()
+                    .setState(TaskState.CRITICAL)
+                    .setExpression(expression)
+            ))
+        ));
+  }
+
+  private static EventProcessorInput buildInput(Map<String, Object> metrics) {
+    return new EventProcessorInput(Instant.parse("2007-12-03T10:15:30.00Z"), "public/west",
+        metrics);
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.RemovalCause;
+import com.rackspace.salus.event.processor.WindowFunction.Aggregate;
+import com.rackspace.salus.telemetry.entities.EventEngineTask;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.Comparator;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.ComparisonExpression;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class ContextRegistryTest {
+
+  @Test
+  public void testGet_buildsOnMiss() {
+    final ContextRegistry registry = new ContextRegistry(new ContextRegistryOptions());
+    final EventEngineTask task = TestTasks.cpuTask();
+
+    final EventProcessorContext context = registry.get(task);
+
+    assertThat(context.getTask()).isSameAs(task);
+    assertThat(registry.get(task)).isSameAs(context);
+    assertThat(registry.getIfPresent(task.getId())).isSameAs(context);
+    assertThat(registry.getStats().loadSuccessCount()).isEqualTo(1);
+    assertThat(registry.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void testGet_evictsLeastRecentlyUsed() {
+    final List<EventProcessorContext> removed = new ArrayList<>();
+    final ContextRegistry registry = new ContextRegistry(new ContextRegistryOptions()
+        .setMaximumSize(2)
+        .setRemovalListener((context, cause) -> removed.add(context)));
+    final EventEngineTask first = TestTasks.cpuTask();
+    final EventEngineTask second = TestTasks.cpuTask();
+    final EventEngineTask third = TestTasks.cpuTask();
+
+    registry.get(first);
+    registry.get(second);
+    registry.get(first);
+    registry.get(third);
+
+    assertThat(registry.size()).isEqualTo(2);
+    assertThat(registry.getIfPresent(second.getId())).isNull();
+    assertThat(removed).extracting(EventProcessorContext::getTask).containsExactly(second);
+    assertThat(registry.getStats().evictionCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testGet_evictsIdle() {
+    final AtomicLong nanos = new AtomicLong();
+    final ContextRegistry registry = new ContextRegistry(new ContextRegistryOptions()
+        .setExpireAfterAccess(Duration.ofMinutes(5))
+        .setTicker(new Ticker() {
+          @Override
+          public long read() {
+            return nanos.get();
+          }
+        }));
+    final EventEngineTask task = TestTasks.cpuTask();
+    final EventProcessorContext original = registry.get(task);
+
+    nanos.addAndGet(Duration.ofMinutes(6).toNanos());
+    registry.cleanUp();
+    assertThat(registry.size()).isEqualTo(0);
+
+    // rebuilt on the next miss
+    assertThat(registry.get(task)).isNotSameAs(original);
+    assertThat(registry.getStats().loadSuccessCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testGet_weightedBudget() {
+    final ContextRegistry registry = new ContextRegistry(new ContextRegistryOptions()
+        .setMaximumSize(-1)
+        .setMaximumWeight(10)
+        .setWeigher((taskId, context) -> 4));
+
+    registry.get(TestTasks.cpuTask());
+    registry.get(TestTasks.cpuTask());
+    registry.get(TestTasks.cpuTask());
+
+    assertThat(registry.size()).isEqualTo(2);
+    assertThat(registry.getWeight()).isEqualTo(8);
+  }
+
+  @Test
+  public void testGet_defaultWeigherEstimatesBytes() {
+    final ContextRegistry registry = new ContextRegistry(new ContextRegistryOptions()
+        .setMaximumSize(-1)
+        .setMaximumWeight(Integer.MAX_VALUE));
+    final EventEngineTask quorumTask = TestTasks.cpuTask();
+    quorumTask.getTaskParameters().setZoneQuorumCount(3);
+    final EventEngineTask windowTask = TestTasks.cpuTask();
+    ((ComparisonExpression) windowTask.getTaskParameters().getStateExpressions().get(0)
+        .getExpression())
+        .setInput(new WindowFunction().setOf("usage").setAggregate(Aggregate.AVG)
+            .setSamples(1000));
+
+    final EventProcessorContext context = registry.get(TestTasks.cpuTask());
+    assertThat(ContextRegistry.estimateBytes(context)).isPositive();
+    assertThat(registry.getWeight()).isEqualTo(ContextRegistry.estimateBytes(context));
+
+    // a newly built context is weighed for the zones its quorum needs
+    assertThat(ContextRegistry.estimateBytes(registry.get(quorumTask)))
+        .isGreaterThan(ContextRegistry.estimateBytes(context));
+    // and for its windows once full
+    assertThat(ContextRegistry.estimateBytes(registry.get(windowTask)))
+        .isGreaterThan(ContextRegistry.estimateBytes(context) + 1000 * Double.BYTES);
+  }
+
+  @Test
+  public void testRemove_subtractsWeightGivenWhenRegistered() {
+    // a weight that changes after registering, such as one that grows with the zones seen
+    final AtomicInteger currentWeight = new AtomicInteger(3);
+    final ContextRegistry registry = new ContextRegistry(new ContextRegistryOptions()
+        .setMaximumSize(-1)
+        .setMaximumWeight(100)
+        .setWeigher((taskId, context) -> currentWeight.get()));
+    final EventEngineTask task = TestTasks.cpuTask();
+
+    registry.get(task);
+    currentWeight.set(7);
+    registry.update(TestTasks.cpuTask(Comparator.GREATER_THAN, 75).setId(task.getId()));
+    assertThat(registry.getWeight()).isEqualTo(7);
+
+    currentWeight.set(20);
+    registry.remove(task.getId());
+    assertThat(registry.getWeight()).isEqualTo(0);
+  }
+
+  @Test
+  public void testGet_invalidTask() {
+    final ContextRegistry registry = new ContextRegistry(new ContextRegistryOptions());
+
+    assertThatThrownBy(() -> registry.get(TestTasks.cpuTask(Comparator.REGEX_MATCH, "/var/[log")))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThat(registry.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void testUpdate_preservesStateMachine() {
+    final List<EventProcessorContext> removed = new ArrayList<>();
+    final List<RemovalCause> causes = new ArrayList<>();
+    final ContextRegistry registry = new ContextRegistry(new ContextRegistryOptions()
+        .setRemovalListener((context, cause) -> {
+          removed.add(context);
+          causes.add(cause);
+        }));
+    final EventEngineTask task = TestTasks.cpuTask();
+    final EventProcessorContext original = registry.get(task);
+
+    final EventEngineTask updatedTask = TestTasks.cpuTask(Comparator.GREATER_THAN, 75)
+        .setId(task.getId());
+    final EventProcessorContext updated = registry.update(updatedTask);
+
+    assertThat(updated.getTask()).isSameAs(updatedTask);
+    assertThat(updated.getStateMachine()).isSameAs(original.getStateMachine());
+    assertThat(registry.getIfPresent(task.getId())).isSameAs(updated);
+    assertThat(registry.size()).isEqualTo(1);
+    assertThat(registry.getWeight()).isEqualTo(1);
+    assertThat(removed).containsExactly(original);
+    assertThat(causes).containsExactly(RemovalCause.REPLACED);
+  }
+
+  @Test
+  public void testConstructor_conflictingBudgets() {
+    assertThatThrownBy(() ->
+        new ContextRegistry(new ContextRegistryOptions()
+            .setMaximumWeight(10)
+            .setWeigher((taskId, context) -> 1))
+    ).isInstanceOf(IllegalArgumentException.class);
+  }
+}
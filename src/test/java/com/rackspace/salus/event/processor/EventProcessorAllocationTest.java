@@ -0,0 +1,140 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.junit.Assume.assumeTrue;
+
+import com.rackspace.salus.telemetry.entities.EventEngineTask;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.Comparator;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.ComparisonExpression;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.LogicalExpression;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.LogicalExpression.Operator;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.PercentageFunction;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.StateExpression;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.TaskState;
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.Test;
+
+/**
+ * Enforces the allocation budget of {@link EventProcessor#process} for inputs that do not
+ * cause a state transition, as measured by the per-thread allocation counter.
+ */
+public class EventProcessorAllocationTest {
+
+  private static final int WARMUP_ITERATIONS = 50_000;
+  private static final int MEASURED_ITERATIONS = 100_000;
+  /**
+   * Covers the small, fixed cost of reading the counter itself, which is far less than one
+   * object allocated per call across the measured iterations
+   */
+  private static final long ALLOCATION_ALLOWANCE_BYTES = 1024;
+
+  @Test
+  public void testProcess_noTransitionIsAllocationFree() {
+    final com.sun.management.ThreadMXBean threadMXBean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+    threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+    final EventProcessor eventProcessor = new EventProcessor();
+    final EventProcessorContext context = EventProcessorContextBuilder.fromTask(buildTask());
+    final EventProcessorInput input = new EventProcessorInput(
+        Instant.parse("2007-12-03T10:15:30.00Z"), "public/west",
+        Map.of(
+            "usage", 20,
+            "idle", 80.5,
+            "used", 10L,
+            "total", 100L,
+            "device", "/dev/sda1"
+        )
+    );
+    final StateChangeHandler handler = (transition, message) -> fail("unexpected transition");
+
+    // establish the OK state, which involves transitions and therefore is not measured
+    for (int i = 0; i < context.getTask().getTaskParameters().getDefaultConsecutiveCount(); i++) {
+      eventProcessor.process(context, input, (transition, message) -> {});
+    }
+
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      eventProcessor.process(context, input, handler);
+    }
+
+    final long threadId = Thread.currentThread().getId();
+    final long before = threadMXBean.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+      eventProcessor.process(context, input, handler);
+    }
+    final long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+
+    assertThat(allocated)
+        .as("bytes allocated across %d calls", MEASURED_ITERATIONS)
+        .isLessThanOrEqualTo(ALLOCATION_ALLOWANCE_BYTES);
+  }
+
+  private static EventEngineTask buildTask() {
+    return new EventEngineTask()
+        .setId(UUID.randomUUID())
+        .setTenantId("t-1")
+        .setTaskParameters(new EventEngineTaskParameters()
+            .setMetricGroup("cpu")
+            .setZoneQuorumCount(1)
+            .setDefaultConsecutiveCount(2)
+            .setStateExpressions(List.of(
+                new StateExpression()
+                    .setState(TaskState.CRITICAL)
+                    .setExpression(new LogicalExpression()
+                        .setOperator(Operator.OR)
+                        .setExpressions(List.of(
+                            new ComparisonExpression()
+                                .setInput("usage")
+                                .setComparator(Comparator.GREATER_THAN)
+                                .setComparisonValue(75),
+                            new ComparisonExpression()
+                                .setInput(new PercentageFunction()
+                                    .setPart("used")
+                                    .setWhole("total"))
+                                .setComparator(Comparator.GREATER_THAN_OR_EQUAL_TO)
+                                .setComparisonValue(90)
+                        ))
+                    )
+                    .setMessage("Usage of #{usage} is too high"),
+                new StateExpression()
+                    .setState(TaskState.WARNING)
+                    .setExpression(new LogicalExpression()
+                        .setOperator(Operator.AND)
+                        .setExpressions(List.of(
+                            new ComparisonExpression()
+                                .setInput("device")
+                                .setComparator(Comparator.REGEX_MATCH)
+                                .setComparisonValue("^/dev/sd[a-z]\\d$"),
+                            new ComparisonExpression()
+                                .setInput("idle")
+                                .setComparator(Comparator.LESS_THAN)
+                                .setComparisonValue(10)
+                        ))
+                    )
+            ))
+        );
+  }
+}
@@ -18,13 +18,22 @@ package com.rackspace.salus.event.processor;
 
 import static org.apache.commons.lang3.RandomStringUtils.randomAlphanumeric;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
+import com.rackspace.salus.event.processor.WindowFunction.Aggregate;
+import com.rackspace.salus.event.statemachines.ConcurrentQuorumStateMachine;
+import com.rackspace.salus.event.statemachines.EntryInterner;
+import com.rackspace.salus.event.statemachines.PackedQuorumStateMachine;
 import com.rackspace.salus.telemetry.entities.EventEngineTask;
 import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters;
 import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.Comparator;
 import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.ComparisonExpression;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.PreviousFunction;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.RateFunction;
 import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.StateExpression;
 import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.TaskState;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -71,5 +80,372 @@ public class EventProcessorContextBuilderTest {
     assertThat(result).isNotNull();
     assertThat(result.getTask()).isSameAs(task);
     assertThat(result.getStateMachine()).isNotNull();
+    assertThat(result.getCompiledStateExpressions()).hasSize(1);
+    assertThat(result.getCompiledStateExpressions().get(0).stateExpression)
+        .isSameAs(task.getTaskParameters().getStateExpressions().get(0));
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testFromTask_invalidRegex() {
+    final EventEngineTask task = new EventEngineTask()
+        .setId(UUID.randomUUID())
+        .setTenantId(randomAlphanumeric(10))
+        .setTaskParameters(new EventEngineTaskParameters()
+            .setMetricGroup("disk")
+            .setZoneQuorumCount(1)
+            .setStateExpressions(List.of(
+                new StateExpression()
+                    .setState(TaskState.CRITICAL)
+                    .setExpression(new ComparisonExpression()
+                        .setInput("path")
+                        .setComparator(Comparator.REGEX_MATCH)
+                        .setComparisonValue("/var/[log")
+                    )
+            ))
+        );
+
+    // rejected once when compiling the task rather than on each input
+    assertThatThrownBy(() -> EventProcessorContextBuilder.fromTask(task))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  public void testFromTask_invalidNumericalComparator() {
+    final EventEngineTask task = new EventEngineTask()
+        .setId(UUID.randomUUID())
+        .setTenantId(randomAlphanumeric(10))
+        .setTaskParameters(new EventEngineTaskParameters()
+            .setMetricGroup("cpu")
+            .setZoneQuorumCount(1)
+            .setStateExpressions(List.of(
+                new StateExpression()
+                    .setState(TaskState.CRITICAL)
+                    .setExpression(new ComparisonExpression()
+                        .setInput("usage")
+                        .setComparator(Comparator.REGEX_MATCH)
+                        .setComparisonValue(50)
+                    )
+            ))
+        );
+
+    assertThatThrownBy(() -> EventProcessorContextBuilder.fromTask(task))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("numerical comparison");
+  }
+
+  @Test
+  public void testFromTask_invalidWindowFunction() {
+    final EventEngineTask task = new EventEngineTask()
+        .setId(UUID.randomUUID())
+        .setTenantId(randomAlphanumeric(10))
+        .setTaskParameters(new EventEngineTaskParameters()
+            .setMetricGroup("cpu")
+            .setZoneQuorumCount(1)
+            .setStateExpressions(List.of(
+                new StateExpression()
+                    .setState(TaskState.CRITICAL)
+                    .setExpression(new ComparisonExpression()
+                        .setInput(new WindowFunction()
+                            .setOf("usage")
+                            .setAggregate(Aggregate.AVG)
+                            .setSamples(5)
+                            .setSeconds(60L))
+                        .setComparator(Comparator.GREATER_THAN)
+                        .setComparisonValue(50)
+                    )
+            ))
+        );
+
+    assertThatThrownBy(() -> EventProcessorContextBuilder.fromTask(task))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("exactly one of samples or seconds");
+  }
+
+  @Test
+  public void testFromTask_windowExceedsMaxSamples() {
+    assertThatThrownBy(() -> EventProcessorContextBuilder.fromTask(
+        buildWindowTask(new WindowFunction().setSeconds(
+            (long) ContextBuildOptions.DEFAULT_MAX_WINDOW_SAMPLES + 1))))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("Window seconds must be between 1 and 4096");
+    assertThatThrownBy(() -> EventProcessorContextBuilder.fromTask(
+        buildWindowTask(new WindowFunction().setSamples(
+            ContextBuildOptions.DEFAULT_MAX_WINDOW_SAMPLES + 1))))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("Window samples must be between 1 and 4096");
+
+    // the bound is configurable
+    final ContextBuildOptions options = new ContextBuildOptions().setMaxWindowSamples(60);
+    EventProcessorContextBuilder.fromTask(
+        buildWindowTask(new WindowFunction().setSeconds(60L)), options);
+    assertThatThrownBy(() -> EventProcessorContextBuilder.fromTask(
+        buildWindowTask(new WindowFunction().setSamples(61)), options))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> EventProcessorContextBuilder.fromTask(
+        buildWindowTask(new WindowFunction().setSamples(1)),
+        new ContextBuildOptions().setMaxWindowSamples(0)))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  public void testFromTask_quantileSecondsOverflow() {
+    final EventEngineTask task = new EventEngineTask()
+        .setId(UUID.randomUUID())
+        .setTenantId(randomAlphanumeric(10))
+        .setTaskParameters(new EventEngineTaskParameters()
+            .setMetricGroup("cpu")
+            .setZoneQuorumCount(1)
+            .setStateExpressions(List.of(
+                new StateExpression()
+                    .setState(TaskState.CRITICAL)
+                    .setExpression(new ComparisonExpression()
+                        .setInput(new QuantileFunction()
+                            .setOf("usage")
+                            .setQuantile(0.5)
+                            .setSeconds(Long.MAX_VALUE / 10))
+                        .setComparator(Comparator.GREATER_THAN)
+                        .setComparisonValue(50)
+                    )
+            ))
+        );
+
+    assertThatThrownBy(() -> EventProcessorContextBuilder.fromTask(task))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("seconds are too large");
+  }
+
+  @Test
+  public void testFromTask_invalidBaselineFunction() {
+    final EventEngineTask task = new EventEngineTask()
+        .setId(UUID.randomUUID())
+        .setTenantId(randomAlphanumeric(10))
+        .setTaskParameters(new EventEngineTaskParameters()
+            .setMetricGroup("cpu")
+            .setZoneQuorumCount(1)
+            .setStateExpressions(List.of(
+                new StateExpression()
+                    .setState(TaskState.CRITICAL)
+                    .setExpression(new ComparisonExpression()
+                        .setInput(new BaselineFunction()
+                            .setOf("usage")
+                            .setSeasonSeconds(86400L))
+                        .setComparator(Comparator.GREATER_THAN)
+                        .setComparisonValue(3)
+                    )
+            ))
+        );
+
+    assertThatThrownBy(() -> EventProcessorContextBuilder.fromTask(task))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("requires a season length");
+  }
+
+  @Test
+  public void testUpdate_preservesState() {
+    final EventEngineTask task = buildWindowTask(UUID.randomUUID(), 2, 50, "usage is high");
+    final EventProcessor eventProcessor = new EventProcessor();
+    final EventProcessorContext context = EventProcessorContextBuilder.fromTask(task);
+    final List<String> messages = new ArrayList<>();
+    final StateChangeHandler handler = (transition, message) ->
+        messages.add(transition.getOverall().getTo() + ":" + message);
+
+    eventProcessor.process(context, buildInput("2007-12-03T10:15:30.00Z", 90), handler);
+    eventProcessor.process(context, buildInput("2007-12-03T10:15:31.00Z", 90), handler);
+    assertThat(messages).containsExactly("CRITICAL:usage is high");
+
+    final EventEngineTask updatedTask =
+        buildWindowTask(task.getId(), 2, 60, "usage is too high");
+    final EventProcessorContext updated = EventProcessorContextBuilder.update(context, updatedTask);
+
+    assertThat(updated.getTask()).isSameAs(updatedTask);
+    assertThat(updated.getStateMachine()).isSameAs(context.getStateMachine());
+
+    // the window carried over averages to 60, which no longer exceeds the updated threshold
+    eventProcessor.process(updated, buildInput("2007-12-03T10:15:32.00Z", 0), handler);
+    assertThat(messages).hasSize(1);
+    eventProcessor.process(updated, buildInput("2007-12-03T10:15:33.00Z", 0), handler);
+    assertThat(messages).containsExactly("CRITICAL:usage is high", "OK:null");
+  }
+
+  @Test
+  public void testUpdate_keepsHistoryOfRetainedMetrics() {
+    final UUID taskId = UUID.randomUUID();
+    final StateExpression rate = new StateExpression()
+        .setState(TaskState.CRITICAL)
+        .setExpression(new ComparisonExpression()
+            .setInput(new RateFunction().setOf("bytes"))
+            .setComparator(Comparator.GREATER_THAN)
+            .setComparisonValue(10));
+    final EventProcessor eventProcessor = new EventProcessor();
+    final EventProcessorContext context = EventProcessorContextBuilder.fromTask(
+        buildRateTask(taskId, List.of(rate)));
+    final List<TaskState> states = new ArrayList<>();
+    final StateChangeHandler handler =
+        (transition, message) -> states.add(transition.getOverall().getTo());
+    eventProcessor.process(context, new EventProcessorInput(
+        Instant.parse("2007-12-03T10:15:30.00Z"), "public/west", Map.of("bytes", 0)), handler);
+
+    // also looks back on another metric, so the history gains a column
+    final EventProcessorContext updated = EventProcessorContextBuilder.update(context,
+        buildRateTask(taskId, List.of(new StateExpression()
+            .setState(TaskState.WARNING)
+            .setExpression(new ComparisonExpression()
+                .setInput(new PreviousFunction().setOf("packets"))
+                .setComparator(Comparator.GREATER_THAN)
+                .setComparisonValue(1000)), rate)));
+
+    final InputHistory history = updated.getInputHistory();
+    assertThat(history.getMetricNames()).containsExactly("packets", "bytes");
+    final InputHistory.ZoneHistory west = history.getZone("public/west");
+    assertThat(west.size()).isEqualTo(1);
+    assertThat(west.getNumber(0, 0)).isNaN();
+    assertThat(west.getNumber(0, 1)).isEqualTo(0);
+    assertThat(west.getTimestamp(0)).isEqualTo(Instant.parse("2007-12-03T10:15:30.00Z"));
+
+    // a rate of 20 against the carried over sample
+    eventProcessor.process(updated, new EventProcessorInput(
+        Instant.parse("2007-12-03T10:15:40.00Z"), "public/west", Map.of("bytes", 200)), handler);
+    assertThat(states).containsExactly(TaskState.OK, TaskState.CRITICAL);
+  }
+
+  @Test
+  public void testUpdate_consecutiveCountChanged() {
+    final EventEngineTask task = buildWindowTask(UUID.randomUUID(), 2, 50, null);
+    final EventProcessorContext context = EventProcessorContextBuilder.fromTask(task);
+
+    final EventProcessorContext updated = EventProcessorContextBuilder.update(context,
+        buildWindowTask(task.getId(), 3, 50, null));
+
+    assertThat(updated.getStateMachine()).isNotSameAs(context.getStateMachine());
+  }
+
+  @Test
+  public void testUpdate_differentTask() {
+    final EventProcessorContext context = EventProcessorContextBuilder.fromTask(
+        buildWindowTask(UUID.randomUUID(), 2, 50, null));
+
+    assertThatThrownBy(() -> EventProcessorContextBuilder.update(context,
+        buildWindowTask(UUID.randomUUID(), 2, 50, null))
+    ).isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  public void testFromTask_concurrentZoneStates() {
+    final EventProcessorContext context = EventProcessorContextBuilder.fromTask(
+        buildWindowTask(UUID.randomUUID(), 1, 50, null),
+        new ContextBuildOptions().setConcurrentZoneStates(true));
+
+    assertThat(context.getStateMachine()).isInstanceOf(ConcurrentQuorumStateMachine.class);
+    final ConcurrentQuorumStateMachine<TaskState, String> stateMachine =
+        (ConcurrentQuorumStateMachine<TaskState, String>) context.getStateMachine();
+    stateMachine.process("public/west", TaskState.CRITICAL);
+    assertThat(stateMachine.getState("public/west")).isEqualTo(TaskState.CRITICAL);
+    assertThat(stateMachine.getOverallState()).isEqualTo(TaskState.CRITICAL);
+
+    assertThatThrownBy(() -> EventProcessorContextBuilder.fromTask(
+        buildWindowTask(UUID.randomUUID(), 1, 50, null),
+        new ContextBuildOptions().setConcurrentZoneStates(true).setPackedZoneStates(true))
+    ).isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> EventProcessorContextBuilder.fromTask(
+        buildWindowTask(UUID.randomUUID(), 1, 50, null),
+        new ContextBuildOptions().setConcurrentZoneStates(true).setAdaptiveOrdering(true))
+    ).isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  public void testFromTask_packedZoneStatesUseGivenInterner() {
+    final EntryInterner<String> zoneInterner = new EntryInterner<>();
+    final ContextBuildOptions options = new ContextBuildOptions()
+        .setPackedZoneStates(true)
+        .setZoneInterner(zoneInterner);
+    final EventProcessorContext first = EventProcessorContextBuilder.fromTask(
+        buildWindowTask(UUID.randomUUID(), 1, 50, null), options);
+    final EventProcessorContext second = EventProcessorContextBuilder.fromTask(
+        buildWindowTask(UUID.randomUUID(), 1, 50, null), options);
+
+    assertThat(first.getStateMachine()).isInstanceOf(PackedQuorumStateMachine.class);
+    first.getStateMachine().process("public/west", TaskState.CRITICAL);
+    second.getStateMachine().process("public/west", TaskState.OK);
+
+    assertThat(zoneInterner.size()).isEqualTo(1);
+    assertThat(zoneInterner.entryOf(zoneInterner.findId("public/west"))).isEqualTo("public/west");
+  }
+
+  @Test
+  public void testFromTask_packedZoneStatesShareDefaultInterner() {
+    final ContextBuildOptions options = new ContextBuildOptions().setPackedZoneStates(true);
+    final String zone = "private/" + UUID.randomUUID();
+    final EventProcessorContext first = EventProcessorContextBuilder.fromTask(
+        buildWindowTask(UUID.randomUUID(), 1, 50, null), options);
+    final EventProcessorContext second = EventProcessorContextBuilder.fromTask(
+        buildWindowTask(UUID.randomUUID(), 1, 50, null), options);
+
+    first.getStateMachine().process(zone, TaskState.CRITICAL);
+    final int id = EventProcessorContextBuilder.SHARED_ZONE_INTERNER.findId(zone);
+    assertThat(id).isNotEqualTo(-1);
+    second.getStateMachine().process(zone, TaskState.OK);
+    assertThat(EventProcessorContextBuilder.SHARED_ZONE_INTERNER.findId(zone)).isEqualTo(id);
+  }
+
+  private static EventEngineTask buildWindowTask(WindowFunction window) {
+    return new EventEngineTask()
+        .setId(UUID.randomUUID())
+        .setTenantId("t-1")
+        .setTaskParameters(new EventEngineTaskParameters()
+            .setMetricGroup("cpu")
+            .setZoneQuorumCount(1)
+            .setStateExpressions(List.of(
+                new StateExpression()
+                    .setState(TaskState.CRITICAL)
+                    .setExpression(new ComparisonExpression()
+                        .setInput(window.setOf("usage").setAggregate(Aggregate.AVG))
+                        .setComparator(Comparator.GREATER_THAN)
+                        .setComparisonValue(50)
+                    )
+            ))
+        );
+  }
+
+  private static EventEngineTask buildRateTask(UUID taskId,
+                                               List<StateExpression> stateExpressions) {
+    return new EventEngineTask()
+        .setId(taskId)
+        .setTenantId("t-1")
+        .setTaskParameters(new EventEngineTaskParameters()
+            .setMetricGroup("net")
+            .setZoneQuorumCount(1)
+            .setDefaultConsecutiveCount(1)
+            .setStateExpressions(stateExpressions)
+        );
+  }
+
+  private static EventEngineTask buildWindowTask(UUID taskId, int consecutiveCount,
+                                                 int threshold, String message) {
+    return new EventEngineTask()
+        .setId(taskId)
+        .setTenantId("t-1")
+        .setTaskParameters(new EventEngineTaskParameters()
+            .setMetricGroup("cpu")
+            .setZoneQuorumCount(1)
+            .setDefaultConsecutiveCount(consecutiveCount)
+            .setStateExpressions(List.of(
+                new StateExpression()
+                    .setState(TaskState.CRITICAL)
+                    .setExpression(new ComparisonExpression()
+                        .setInput(new WindowFunction()
+                            .setOf("usage")
+                            .setAggregate(Aggregate.AVG)
+                            .setSamples(3))
+                        .setComparator(Comparator.GREATER_THAN)
+                        .setComparisonValue(threshold)
+                    )
+                    .setMessage(message)
+            ))
+        );
+  }
+
+  private static EventProcessorInput buildInput(String timestamp, int usage) {
+    return new EventProcessorInput(Instant.parse(timestamp), "public/west",
+        Map.of("usage", usage));
+  }
+}
@@ -18,6 +18,7 @@ package com.rackspace.salus.event.processor;
 
 import static org.apache.commons.lang3.RandomStringUtils.randomAlphanumeric;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isNull;
@@ -25,19 +26,28 @@ import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 
+import com.rackspace.salus.event.statemachines.ConcurrentQuorumStateMachine;
 import com.rackspace.salus.telemetry.entities.EventEngineTask;
 import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters;
 import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.Comparator;
 import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.ComparisonExpression;
 import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.LogicalExpression;
 import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.LogicalExpression.Operator;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.RateFunction;
 import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.StateExpression;
 import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.TaskState;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
@@ -154,6 +164,323 @@ public class EventProcessorTest {
         "Usage of 66 is too high or idle of 9 is too low");
   }
 
+  @Test
+  public void testProcessBatch_outOfOrder() {
+    final EventProcessor eventProcessor = new EventProcessor();
+    EventProcessorContext context = buildTestContext();
+
+    final List<EventProcessorInput> inputs = List.of(
+        buildInput("2007-12-03T10:15:35.00Z", "public/east", 91, 50),
+        buildInput("2007-12-03T10:15:34.00Z", "public/west", 90, 50),
+        buildInput("2007-12-03T10:15:31.00Z", "public/east", 31, 50),
+        buildInput("2007-12-03T10:15:30.00Z", "public/west", 25, 50)
+    );
+
+    final List<String> observed = new ArrayList<>();
+    eventProcessor.processBatch(context, inputs, (transition, message) ->
+        observed.add(transition.getOverall().getFrom() + "->" + transition.getOverall().getTo()
+            + ":" + message)
+    );
+
+    // evaluated in timestamp order, so reaches OK before CRITICAL
+    assertThat(observed).containsExactly(
+        "null->OK:null",
+        "OK->CRITICAL:Usage of 91 is too high or idle of 50 is too low"
+    );
+    // and the given list is left as-is
+    assertThat(inputs.get(0).getZone()).isEqualTo("public/east");
+  }
+
+  @Test
+  public void testProcess_indexedInput() {
+    final EventProcessor eventProcessor = new EventProcessor();
+    EventProcessorContext context = buildTestContext();
+    final MetricSchema schema = context.getMetricSchema();
+
+    assertThat(schema.getMetricNames()).containsExactly("usage", "idle");
+
+    eventProcessor.process(context, buildIndexedInput(schema, "public/west", 25, 50),
+        stateChangeHandler);
+    verifyHandlerNotCalled();
+
+    eventProcessor.process(context, buildIndexedInput(schema, "public/east", 31, 50),
+        stateChangeHandler);
+    verifyHandlerCalled(null, TaskState.OK, null);
+
+    eventProcessor.process(context, buildIndexedInput(schema, "public/west", 90, 50),
+        stateChangeHandler);
+    verifyHandlerNotCalled();
+
+    eventProcessor.process(context, buildIndexedInput(schema, "public/east", 91.5, 50),
+        stateChangeHandler);
+    verifyHandlerCalled(
+        TaskState.OK, TaskState.CRITICAL,
+        "Usage of 91.5 is too high or idle of 50 is too low");
+  }
+
+  @Test
+  public void testGetValue_indexedInputMatchesMapInput() {
+    final MetricSchema schema = new MetricSchema(List.of("count", "usage", "ratio", "path"));
+    final Instant timestamp = Instant.parse("2007-12-03T10:15:30.00Z");
+    final EventProcessorInput mapInput = new EventProcessorInput(timestamp, "public/west",
+        Map.of("count", 5, "usage", 5.0, "ratio", 0.25, "path", "/var"));
+    final IndexedEventProcessorInput indexedInput = schema.newInput(timestamp, "public/west")
+        .setNumber("count", 5)
+        .setNumber("usage", 5.0)
+        .setNumber("ratio", 0.25)
+        .setString("path", "/var");
+
+    for (String name : schema.getMetricNames()) {
+      final int slot = schema.slotOf(name);
+      assertThat(String.valueOf(indexedInput.getValue(slot, name)))
+          .isEqualTo(String.valueOf(mapInput.getValue(slot, name)));
+    }
+    assertThat(indexedInput.getValue(schema.slotOf("usage"), "usage").toString())
+        .isEqualTo("5.0");
+    assertThat(indexedInput.getValue(schema.slotOf("count"), "count").toString())
+        .isEqualTo("5");
+  }
+
+  @Test
+  public void testGetValue_reusableInputMatchesMapInput() {
+    final Instant timestamp = Instant.parse("2007-12-03T10:15:30.00Z");
+    final EventProcessorInput mapInput = new EventProcessorInput(timestamp, "public/west",
+        Map.of("count", 5, "usage", 5.0, "ratio", 0.25, "path", "/var"));
+    final ReusableEventProcessorInput reusableInput = new ReusableEventProcessorInput()
+        .setTimestamp(timestamp)
+        .setZone("public/west")
+        .setNumber("count", 5)
+        .setNumber("usage", 5.0)
+        .setNumber("ratio", 0.25)
+        .setString("path", "/var");
+
+    for (String name : List.of("count", "usage", "ratio", "path")) {
+      assertThat(String.valueOf(reusableInput.getValue(-1, name)))
+          .isEqualTo(String.valueOf(mapInput.getValue(-1, name)));
+    }
+    assertThat(reusableInput.getValue(-1, "usage").toString()).isEqualTo("5.0");
+    assertThat(reusableInput.getValue(-1, "count").toString()).isEqualTo("5");
+  }
+
+  @Test
+  public void testProcess_indexedInputOtherSchema() {
+    final EventProcessor eventProcessor = new EventProcessor();
+    EventProcessorContext context = buildTestContext();
+    EventProcessorContext otherContext = buildTestContext();
+
+    assertThatThrownBy(() ->
+        eventProcessor.process(context,
+            buildIndexedInput(otherContext.getMetricSchema(), "public/west", 25, 50),
+            stateChangeHandler
+        ))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  public void testProcess_lazyMessage() {
+    final EventProcessor eventProcessor = new EventProcessor();
+    EventProcessorContext context = buildTestContext();
+
+    final List<Supplier<String>> messages = new ArrayList<>();
+    final LazyStateChangeHandler lazyHandler = (transition, message) -> messages.add(message);
+
+    eventProcessor.process(context,
+        buildInput("2007-12-03T10:15:30.00Z", "public/west", 90, 50), lazyHandler);
+    eventProcessor.process(context,
+        buildInput("2007-12-03T10:15:31.00Z", "public/east", 91, 50), lazyHandler);
+
+    assertThat(messages).hasSize(1);
+    final String rendered = messages.get(0).get();
+    assertThat(rendered).isEqualTo("Usage of 91 is too high or idle of 50 is too low");
+    // and is cached
+    assertThat(messages.get(0).get()).isSameAs(rendered);
+  }
+
+  @Test
+  public void testInterpolateMessage_specialCharacters() {
+    final EventProcessor eventProcessor = new EventProcessor();
+
+    final String result = eventProcessor.interpolateMessage(
+        "Path #{path} costs $#{cost}", Map.of("path", "C:\\temp", "cost", 5)
+    );
+
+    assertThat(result).isEqualTo("Path C:\\temp costs $5");
+  }
+
+  @Test
+  public void testProcess_rateIsPerZone() {
+    final EventProcessor eventProcessor = new EventProcessor();
+    final EventProcessorContext context = EventProcessorContextBuilder.fromTask(
+        new EventEngineTask()
+            .setId(UUID.randomUUID())
+            .setTenantId(randomAlphanumeric(10))
+            .setTaskParameters(new EventEngineTaskParameters()
+                .setMetricGroup("net")
+                .setZoneQuorumCount(1)
+                .setDefaultConsecutiveCount(1)
+                .setStateExpressions(List.of(
+                    new StateExpression()
+                        .setState(TaskState.CRITICAL)
+                        .setExpression(new ComparisonExpression()
+                            .setInput(new RateFunction().setOf("bytes"))
+                            .setComparator(Comparator.GREATER_THAN)
+                            .setComparisonValue(10)
+                        )
+                ))
+            )
+    );
+
+    final List<TaskState> states = new ArrayList<>();
+    final StateChangeHandler handler =
+        (transition, message) -> states.add(transition.getOverall().getTo());
+
+    eventProcessor.process(context, new EventProcessorInput(
+        Instant.parse("2007-12-03T10:15:30.00Z"), "public/east", Map.of("bytes", 0)), handler);
+    eventProcessor.process(context, new EventProcessorInput(
+        Instant.parse("2007-12-03T10:15:35.00Z"), "public/west", Map.of("bytes", 1000)), handler);
+    // rate of 20 within the east zone, which would be negative if compared against west
+    eventProcessor.process(context, new EventProcessorInput(
+        Instant.parse("2007-12-03T10:15:40.00Z"), "public/east", Map.of("bytes", 200)), handler);
+
+    assertThat(states).containsExactly(TaskState.OK, TaskState.CRITICAL);
+
+    final InputHistory.ZoneHistory east = context.getInputHistory().getZone("public/east");
+    // only the most recent input is looked back on, so only it is retained
+    assertThat(east.size()).isEqualTo(1);
+    assertThat(east.getNumber(0, 0)).isEqualTo(200);
+    assertThat(east.getTimestamp(0)).isEqualTo(Instant.parse("2007-12-03T10:15:40.00Z"));
+    assertThat(context.getInputHistory().getZone("public/west").size()).isEqualTo(1);
+  }
+
+  @Test
+  public void testProcess_reportedNaNIsUnequal() {
+    final EventProcessorContext context = EventProcessorContextBuilder.fromTask(
+        new EventEngineTask()
+            .setId(UUID.randomUUID())
+            .setTenantId(randomAlphanumeric(10))
+            .setTaskParameters(new EventEngineTaskParameters()
+                .setMetricGroup("cpu")
+                .setZoneQuorumCount(1)
+                .setDefaultConsecutiveCount(1)
+                .setStateExpressions(List.of(
+                    new StateExpression()
+                        .setState(TaskState.CRITICAL)
+                        .setExpression(new ComparisonExpression()
+                            .setInput("usage")
+                            .setComparator(Comparator.NOT_EQUAL_TO)
+                            .setComparisonValue(5))
+                ))
+            ));
+    final ExpressionEvaluator evaluator = context.getCompiledStateExpressions().get(0).evaluator;
+    final Instant timestamp = Instant.parse("2007-12-03T10:15:30.00Z");
+
+    // a reported NaN is unequal to the threshold, as when comparing the floats themselves
+    assertThat(evaluator.evaluate(context,
+        new EventProcessorInput(timestamp, "public/west", Map.of("usage", Double.NaN))))
+        .isTrue();
+    assertThat(evaluator.evaluate(context,
+        context.getMetricSchema().newInput(timestamp, "public/west")
+            .setNumber("usage", Double.NaN)))
+        .isTrue();
+    assertThat(evaluator.evaluate(context,
+        new ReusableEventProcessorInput().setTimestamp(timestamp).setZone("public/west")
+            .setNumber("usage", Double.NaN)))
+        .isTrue();
+    // while an absent metric satisfies no comparison
+    assertThat(evaluator.evaluate(context,
+        new EventProcessorInput(timestamp, "public/west", Map.of("idle", 5))))
+        .isFalse();
+    assertThat(evaluator.evaluate(context,
+        context.getMetricSchema().newInput(timestamp, "public/west")))
+        .isFalse();
+  }
+
+  @Test
+  public void testProcess_concurrentZoneStates() throws Exception {
+    final int threads = 4;
+    final int rounds = 2_000;
+    final EventProcessor eventProcessor = new EventProcessor();
+    final EventProcessorContext context = EventProcessorContextBuilder.fromTask(
+        new EventEngineTask()
+            .setId(UUID.randomUUID())
+            .setTenantId(randomAlphanumeric(10))
+            .setTaskParameters(new EventEngineTaskParameters()
+                .setMetricGroup("http")
+                .setZoneQuorumCount(1)
+                .setDefaultConsecutiveCount(1)
+                .setStateExpressions(List.of(
+                    new StateExpression()
+                        .setState(TaskState.CRITICAL)
+                        .setExpression(new LogicalExpression()
+                            .setOperator(Operator.OR)
+                            .setExpressions(List.of(
+                                new ComparisonExpression()
+                                    .setInput("status")
+                                    .setComparator(Comparator.REGEX_MATCH)
+                                    .setComparisonValue("^fail"),
+                                new ComparisonExpression()
+                                    .setInput(new QuantileFunction()
+                                        .setOf("latency")
+                                        .setQuantile(0.5))
+                                    .setComparator(Comparator.GREATER_THAN)
+                                    .setComparisonValue(100)
+                            ))
+                        )
+                ))
+            ),
+        new ContextBuildOptions().setConcurrentZoneStates(true)
+    );
+    final ConcurrentQuorumStateMachine<TaskState, String> stateMachine =
+        (ConcurrentQuorumStateMachine<TaskState, String>) context.getStateMachine();
+    final AtomicInteger mismatches = new AtomicInteger();
+    final StateChangeHandler handler = (transition, message) -> { };
+
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        final String zone = "zone-" + t;
+        // even zones are critical by their median latency, odd zones alternate by their status
+        final boolean slow = t % 2 == 0;
+        futures.add(executor.submit(() -> {
+          for (int round = 0; round < rounds; round++) {
+            final boolean failed = round % 2 == 0;
+            eventProcessor.process(context, new EventProcessorInput(
+                Instant.ofEpochSecond(1_000_000 + round), zone, Map.of(
+                "status", (failed ? "failed-" : "ok-") + round,
+                "latency", slow ? 200 : 10
+            )), handler);
+            final TaskState expected = slow || failed ? TaskState.CRITICAL : TaskState.OK;
+            if (stateMachine.getState(zone) != expected) {
+              mismatches.incrementAndGet();
+            }
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(mismatches.get()).isZero();
+    assertThat(stateMachine.getState("zone-0")).isEqualTo(TaskState.CRITICAL);
+    // the last round of each odd zone reported an ok status
+    assertThat(stateMachine.getState("zone-1")).isEqualTo(TaskState.OK);
+    assertThat(stateMachine.getOverallState()).isEqualTo(TaskState.CRITICAL);
+  }
+
+  private IndexedEventProcessorInput buildIndexedInput(MetricSchema schema, String zone,
+                                                       double usage, long idle) {
+    return schema.newInput(Instant.parse("2007-12-03T10:15:30.00Z"), zone)
+        .setNumber("usage", usage)
+        .setNumber("idle", idle)
+        // not referenced by the task, so ignored
+        .setNumber("system", 12);
+  }
+
   private EventProcessorInput processNextInput(EventProcessor eventProcessor, EventProcessorContext context,
                                                Iterator<EventProcessorInput> iterator) {
     EventProcessorInput input = iterator.next();
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.rackspace.salus.event.processor.ExpressionCompiler.OrEvaluator;
+import com.rackspace.salus.event.processor.ExpressionCompiler.StringSetMatch;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.Comparator;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.ComparisonExpression;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.LogicalExpression;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.LogicalExpression.Operator;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class ExpressionCompilerTest {
+
+  @Test
+  public void testCompile_combinesStringMatchesOfSameMetric() {
+    final LogicalExpression expression = new LogicalExpression()
+        .setOperator(Operator.OR)
+        .setExpressions(List.of(
+            comparison("path", Comparator.REGEX_MATCH, "^/var/log"),
+            comparison("usage", Comparator.GREATER_THAN, 90),
+            comparison("path", Comparator.EQUAL_TO, "/tmp"),
+            comparison("path", Comparator.REGEX_MATCH, "boot$"),
+            // back-references can't be combined, so evaluated on its own
+            comparison("path", Comparator.REGEX_MATCH, "(a)\\1"),
+            comparison("device", Comparator.EQUAL_TO, "sda")
+        ));
+
+    final ExpressionEvaluator evaluator = new ExpressionCompiler().compileExpression(expression);
+
+    assertThat(evaluator).isInstanceOf(OrEvaluator.class);
+    final ExpressionEvaluator[] children = ((OrEvaluator) evaluator).children;
+    assertThat(children).hasSize(4);
+    assertThat(((StringSetMatch) children[0]).matchers).hasSize(1);
+    assertThat(children[0]).isInstanceOf(StringSetMatch.class);
+
+    assertThat(evaluate(evaluator, Map.of("path", "/var/log/messages"))).isTrue();
+    assertThat(evaluate(evaluator, Map.of("path", "/tmp"))).isTrue();
+    assertThat(evaluate(evaluator, Map.of("path", "/tmp/other"))).isFalse();
+    assertThat(evaluate(evaluator, Map.of("path", "/boot"))).isTrue();
+    assertThat(evaluate(evaluator, Map.of("path", "/aa"))).isTrue();
+    assertThat(evaluate(evaluator, Map.of("path", "/home", "usage", 91))).isTrue();
+    assertThat(evaluate(evaluator, Map.of("path", "/home", "usage", 10))).isFalse();
+    assertThat(evaluate(evaluator, Map.of("device", "sda"))).isTrue();
+  }
+
+  @Test
+  public void testCompile_doesNotCombineQuotingOrInlineFlags() {
+    final LogicalExpression expression = new LogicalExpression()
+        .setOperator(Operator.OR)
+        .setExpressions(List.of(
+            // each is valid alone, but would break or leak into a combined alternation
+            comparison("path", Comparator.REGEX_MATCH, "\\Qa.b"),
+            comparison("path", Comparator.REGEX_MATCH, "(?x)foo # comment"),
+            comparison("path", Comparator.REGEX_MATCH, "(?i)abc"),
+            comparison("path", Comparator.REGEX_MATCH, "^bar"),
+            comparison("path", Comparator.REGEX_MATCH, "baz$"),
+            comparison("path", Comparator.EQUAL_TO, "/tmp")
+        ));
+
+    final ExpressionEvaluator evaluator = new ExpressionCompiler().compileExpression(expression);
+
+    final ExpressionEvaluator[] children = ((OrEvaluator) evaluator).children;
+    assertThat(children).hasSize(4);
+    assertThat(children[0]).isNotInstanceOf(StringSetMatch.class);
+    assertThat(children[3]).isInstanceOf(StringSetMatch.class);
+
+    assertThat(evaluate(evaluator, Map.of("path", "a.b"))).isTrue();
+    assertThat(evaluate(evaluator, Map.of("path", "axb"))).isFalse();
+    assertThat(evaluate(evaluator, Map.of("path", "foo"))).isTrue();
+    assertThat(evaluate(evaluator, Map.of("path", "ABC"))).isTrue();
+    assertThat(evaluate(evaluator, Map.of("path", "bar"))).isTrue();
+    assertThat(evaluate(evaluator, Map.of("path", "BAR"))).isFalse();
+    assertThat(evaluate(evaluator, Map.of("path", "xbaz"))).isTrue();
+    assertThat(evaluate(evaluator, Map.of("path", "/tmp"))).isTrue();
+    assertThat(evaluate(evaluator, Map.of("path", "xyz"))).isFalse();
+  }
+
+  @Test
+  public void testCompile_adaptiveOrdering() {
+    final LogicalExpression expression = new LogicalExpression()
+        .setOperator(Operator.AND)
+        .setExpressions(List.of(
+            comparison("path", Comparator.REGEX_MATCH, "^/var/log/.*\\.log$"),
+            comparison("usage", Comparator.GREATER_THAN, 90)
+        ));
+    final ExpressionCompiler compiler =
+        new ExpressionCompiler(new ContextBuildOptions().setAdaptiveOrdering(true));
+
+    final ExpressionEvaluator evaluator = compiler.compileExpression(expression);
+
+    assertThat(evaluator).isInstanceOf(AdaptiveLogicalEvaluator.class);
+    for (int i = 0; i < AdaptiveLogicalEvaluator.REORDER_INTERVAL; i++) {
+      assertThat(evaluate(evaluator, Map.of("path", "/var/log/messages.log", "usage", 10)))
+          .isFalse();
+    }
+    assertThat(evaluate(evaluator, Map.of("path", "/var/log/messages.log", "usage", 91)))
+        .isTrue();
+
+    final LogicalExpressionStats stats = compiler.getAdaptiveEvaluators().get(0).getStats();
+    assertThat(stats.getReorders()).isEqualTo(1);
+    assertThat(stats.getEvaluations()).isEqualTo(AdaptiveLogicalEvaluator.REORDER_INTERVAL + 1);
+    // the usage comparison always short-circuits the AND, so it is moved ahead of the regex
+    assertThat(stats.getChildren())
+        .extracting(LogicalExpressionStats.ChildStats::getDeclaredPosition)
+        .containsExactly(1, 0);
+  }
+
+  @Test
+  public void testCompile_adaptiveOrderingKeepsDeclaredShortCircuitOfThrowingChild() {
+    final LogicalExpression expression = new LogicalExpression()
+        .setOperator(Operator.AND)
+        .setExpressions(List.of(
+            comparison("path", Comparator.REGEX_MATCH, "^/var/log/.*\\.log$"),
+            comparison("usage", Comparator.GREATER_THAN, 90)
+        ));
+    final ExpressionCompiler compiler =
+        new ExpressionCompiler(new ContextBuildOptions().setAdaptiveOrdering(true));
+    final ExpressionEvaluator evaluator = compiler.compileExpression(expression);
+    for (int i = 0; i < AdaptiveLogicalEvaluator.REORDER_INTERVAL; i++) {
+      evaluate(evaluator, Map.of("path", "/var/log/messages.log", "usage", 10));
+    }
+    assertThat(compiler.getAdaptiveEvaluators().get(0).getStats().getChildren())
+        .extracting(LogicalExpressionStats.ChildStats::getDeclaredPosition)
+        .containsExactly(1, 0);
+
+    // the usage comparison now comes first and throws on a string, while the declared order
+    // short-circuits on the path first
+    assertThat(evaluate(evaluator, Map.of("path", "/home", "usage", "high"))).isFalse();
+    assertThatThrownBy(() ->
+        evaluate(evaluator, Map.of("path", "/var/log/messages.log", "usage", "high")))
+        .isInstanceOf(ClassCastException.class);
+  }
+
+  @Test
+  public void testCompile_adaptiveOrderingReportsDeclaredPositions() {
+    final LogicalExpression expression = new LogicalExpression()
+        .setOperator(Operator.OR)
+        .setExpressions(List.of(
+            comparison("path", Comparator.EQUAL_TO, "/tmp"),
+            comparison("usage", Comparator.GREATER_THAN, 90),
+            comparison("path", Comparator.EQUAL_TO, "/var"),
+            comparison("device", Comparator.EQUAL_TO, "sda")
+        ));
+    final ExpressionCompiler compiler =
+        new ExpressionCompiler(new ContextBuildOptions().setAdaptiveOrdering(true));
+
+    final ExpressionEvaluator evaluator = compiler.compileExpression(expression);
+
+    for (int i = 0; i < AdaptiveLogicalEvaluator.REORDER_INTERVAL; i++) {
+      assertThat(evaluate(evaluator, Map.of("path", "/home", "usage", 10, "device", "sda")))
+          .isTrue();
+    }
+
+    final LogicalExpressionStats stats = compiler.getAdaptiveEvaluators().get(0).getStats();
+    // the path comparisons are combined, so the device comparison is the third compiled child
+    assertThat(stats.getChildren()).hasSize(3);
+    assertThat(stats.getChildren().get(0).getDeclaredPosition()).isEqualTo(3);
+    assertThat(stats.getChildren())
+        .extracting(LogicalExpressionStats.ChildStats::getDeclaredPosition)
+        .containsExactlyInAnyOrder(0, 1, 3);
+  }
+
+  private static boolean evaluate(ExpressionEvaluator evaluator, Map<String, Object> metrics) {
+    return evaluator.evaluate(null,
+        new EventProcessorInput(Instant.parse("2007-12-03T10:15:30.00Z"), "zone", metrics)
+    );
+  }
+
+  private static ComparisonExpression comparison(String input, Comparator comparator,
+                                                 Object value) {
+    return new ComparisonExpression()
+        .setInput(input)
+        .setComparator(comparator)
+        .setComparisonValue(value);
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.rackspace.salus.event.processor.PartitionedEventProcessor.PartitionStats;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+
+public class PartitionedEventProcessorTest {
+
+  @Test
+  public void testSubmit_singleWriterPerContext() throws InterruptedException {
+    final List<EventProcessorContext> contexts = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      contexts.add(EventProcessorContextBuilder.fromTask(TestTasks.cpuTask()));
+    }
+    final Map<UUID, Set<String>> threadsByTask = new ConcurrentHashMap<>();
+
+    try (PartitionedEventProcessor processor = new PartitionedEventProcessor(
+        new EventProcessor(), (transition, message) -> {}, 4, 8)) {
+      for (int n = 0; n < 100; n++) {
+        for (EventProcessorContext context : contexts) {
+          final UUID taskId = context.getTask().getId();
+          processor.submit(context, new RecordingInput(n % 2 == 0 ? 90 : 10, () ->
+              threadsByTask.computeIfAbsent(taskId, id -> ConcurrentHashMap.newKeySet())
+                  .add(Thread.currentThread().getName())
+          ));
+        }
+      }
+      processor.drain();
+
+      assertThat(processor.getPartitionStats()).hasSize(4);
+      assertThat(processor.getPartitionStats().stream()
+          .mapToLong(PartitionStats::getProcessed).sum()
+      ).isEqualTo(2000);
+    }
+
+    assertThat(threadsByTask).hasSize(contexts.size());
+    assertThat(threadsByTask.values()).allSatisfy(threads -> assertThat(threads).hasSize(1));
+  }
+
+  @Test
+  public void testTrySubmit_fullQueue() throws InterruptedException {
+    final CountDownLatch processing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final EventProcessorContext context =
+        EventProcessorContextBuilder.fromTask(TestTasks.cpuTask());
+
+    try (PartitionedEventProcessor processor =
+        new PartitionedEventProcessor(new EventProcessor(), (transition, message) -> {}, 1, 2)) {
+      // occupies the worker until released
+      processor.submit(context, new RecordingInput(90, () -> {
+        processing.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }));
+      processing.await();
+
+      assertThat(processor.trySubmit(context, new RecordingInput(90, () -> {}))).isTrue();
+      assertThat(processor.trySubmit(context, new RecordingInput(90, () -> {}))).isTrue();
+      assertThat(processor.trySubmit(context, new RecordingInput(90, () -> {}))).isFalse();
+
+      final PartitionStats stats = processor.getPartitionStats().get(0);
+      assertThat(stats.getQueueDepth()).isEqualTo(2);
+      assertThat(stats.getRejected()).isEqualTo(1);
+
+      release.countDown();
+      processor.drain();
+      assertThat(processor.getPartitionStats().get(0).getProcessed()).isEqualTo(3);
+    }
+  }
+
+  @Test
+  public void testDrain_afterClose() throws InterruptedException {
+    final EventProcessorContext context =
+        EventProcessorContextBuilder.fromTask(TestTasks.cpuTask());
+    final Set<Boolean> daemonWorkers = ConcurrentHashMap.newKeySet();
+    final PartitionedEventProcessor processor =
+        new PartitionedEventProcessor(new EventProcessor(), (transition, message) -> {}, 2, 4);
+    processor.submit(context, new RecordingInput(90, () ->
+        daemonWorkers.add(Thread.currentThread().isDaemon())
+    ));
+
+    processor.close();
+
+    // the input queued before closing is still processed
+    assertThat(processor.getPartitionStats().stream()
+        .mapToLong(PartitionStats::getProcessed).sum()
+    ).isEqualTo(1);
+    assertThat(daemonWorkers).containsExactly(true);
+    assertThatThrownBy(processor::drain)
+        .isInstanceOf(IllegalStateException.class);
+    assertThatThrownBy(() -> processor.submit(context, new RecordingInput(90, () -> {})))
+        .isInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  public void testClose_fullQueueProcessesInProgressSubmit() throws Exception {
+    final CountDownLatch processing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final EventProcessorContext context =
+        EventProcessorContextBuilder.fromTask(TestTasks.cpuTask());
+    final PartitionedEventProcessor processor =
+        new PartitionedEventProcessor(new EventProcessor(), (transition, message) -> {}, 1, 1);
+
+    // occupies the worker until released
+    processor.submit(context, new RecordingInput(90, () -> {
+      processing.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }));
+    processing.await();
+    processor.submit(context, new RecordingInput(90, () -> {}));
+
+    // blocks on the full queue
+    final Thread submitter = new Thread(() -> {
+      try {
+        processor.submit(context, new RecordingInput(90, () -> {}));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    submitter.start();
+    // once the submit has found the queue full, closing must wait for it
+    while (processor.getPartitionStats().get(0).getBlocked() == 0) {
+      Thread.yield();
+    }
+
+    final Thread closer = new Thread(() -> {
+      try {
+        processor.close();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    closer.start();
+    release.countDown();
+    closer.join(10_000);
+    submitter.join(10_000);
+
+    assertThat(closer.isAlive()).isFalse();
+    assertThat(processor.getPartitionStats().get(0).getProcessed()).isEqualTo(3);
+    assertThat(processor.getPartitionStats().get(0).getBlocked()).isEqualTo(1);
+  }
+
+  /**
+   * Runs the given callback on the processing thread when the metric is read
+   */
+  private static class RecordingInput extends EventProcessorInput {
+
+    private final Runnable onRead;
+
+    RecordingInput(int usage, Runnable onRead) {
+      super(Instant.parse("2007-12-03T10:15:30.00Z"), "public/west", Map.of("usage", usage));
+      this.onRead = onRead;
+    }
+
+    @Override
+    public float getNumber(int slot, String name) {
+      onRead.run();
+      return super.getNumber(slot, name);
+    }
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+public class PatternCacheTest {
+
+  @Test
+  public void testGet_reusesCompiledPattern() {
+    final PatternCache cache = new PatternCache(10);
+
+    final Pattern first = cache.get("^/dev/sd[a-z]$");
+    final Pattern second = cache.get("^/dev/sd[a-z]$");
+
+    assertThat(second).isSameAs(first);
+    assertThat(cache.getStats().missCount()).isEqualTo(1);
+    assertThat(cache.getStats().hitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testGet_invalid() {
+    final PatternCache cache = new PatternCache(10);
+
+    assertThatThrownBy(() -> cache.get("/var/[log"))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  public void testGet_bounded() {
+    final PatternCache cache = new PatternCache(2);
+
+    cache.get("a");
+    cache.get("b");
+    cache.get("c");
+
+    assertThat(cache.size()).isLessThanOrEqualTo(2);
+    assertThat(cache.getStats().evictionCount()).isGreaterThanOrEqualTo(1);
+  }
+}
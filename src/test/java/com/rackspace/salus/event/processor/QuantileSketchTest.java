@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class QuantileSketchTest {
+
+  @Test
+  public void testGetQuantile_withinRelativeAccuracy() {
+    final Random random = new Random(0);
+    final QuantileSketch sketch = new QuantileSketch();
+    final double[] values = new double[50_000];
+    for (int i = 0; i < values.length; i++) {
+      // a long-tailed distribution, much like latencies
+      values[i] = Math.exp(random.nextGaussian() * 2);
+      sketch.add(values[i]);
+    }
+    Arrays.sort(values);
+
+    for (double quantile : new double[]{0.5, 0.9, 0.95, 0.99}) {
+      final double expected = values[(int) (quantile * (values.length - 1))];
+      assertThat(sketch.getQuantile(quantile))
+          .as("quantile %f", quantile)
+          .isCloseTo(expected, within(expected * 0.011));
+    }
+    assertThat(sketch.getQuantile(0)).isEqualTo(values[0]);
+    assertThat(sketch.getQuantile(1)).isEqualTo(values[values.length - 1]);
+  }
+
+  @Test
+  public void testMerge_sameAsCombined() {
+    final QuantileSketch combined = new QuantileSketch();
+    final QuantileSketch east = new QuantileSketch();
+    final QuantileSketch west = new QuantileSketch();
+    for (int i = -500; i < 1000; i++) {
+      combined.add(i);
+      (i % 2 == 0 ? east : west).add(i);
+    }
+
+    east.merge(west);
+
+    assertThat(east.getCount()).isEqualTo(combined.getCount());
+    for (double quantile : new double[]{0, 0.1, 0.5, 0.9, 1}) {
+      assertThat(east.getQuantile(quantile)).isEqualTo(combined.getQuantile(quantile));
+    }
+  }
+
+  @Test
+  public void testAdd_boundedBuckets() {
+    final QuantileSketch sketch = new QuantileSketch(0.01, 64);
+    for (int i = 1; i <= 100_000; i++) {
+      sketch.add(i);
+    }
+
+    // the lowest buckets were collapsed but the upper quantiles remain accurate
+    assertThat(sketch.getQuantile(0.99)).isCloseTo(99_000, within(99_000 * 0.011));
+  }
+
+  @Test
+  public void testClear() {
+    final QuantileSketch sketch = new QuantileSketch();
+    sketch.add(1_000);
+    sketch.clear();
+
+    assertThat(sketch.getQuantile(0.5)).isNaN();
+    sketch.add(5);
+    assertThat(sketch.getQuantile(0.5)).isEqualTo(5);
+  }
+
+  @Test
+  public void testMerge_differentParameters() {
+    assertThatThrownBy(() -> new QuantileSketch().merge(new QuantileSketch(0.05, 100)))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
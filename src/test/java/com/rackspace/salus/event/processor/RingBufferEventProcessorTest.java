@@ -0,0 +1,199 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.rackspace.salus.event.processor.PartitionedEventProcessor.PartitionStats;
+import com.rackspace.salus.telemetry.entities.EventEngineTask;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+
+public class RingBufferEventProcessorTest {
+
+  private static final Instant TIMESTAMP = Instant.parse("2007-12-03T10:15:30.00Z");
+
+  @Test
+  public void testPublish_singleWriterPerContext() throws InterruptedException {
+    final List<EventProcessorContext> contexts = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      contexts.add(EventProcessorContextBuilder.fromTask(buildTask()));
+    }
+    // every input causes a transition and those to CRITICAL have the task ID as the message
+    final Map<String, Set<String>> threadsByTask = new ConcurrentHashMap<>();
+    final StateChangeHandler handler = (transition, message) -> {
+      if (message != null) {
+        threadsByTask.computeIfAbsent(message, id -> ConcurrentHashMap.newKeySet())
+            .add(Thread.currentThread().getName());
+      }
+    };
+
+    try (RingBufferEventProcessor processor =
+        new RingBufferEventProcessor(new EventProcessor(), handler, 4, 16)) {
+      for (int n = 0; n < 100; n++) {
+        for (EventProcessorContext context : contexts) {
+          final long sequence = processor.next();
+          processor.get(sequence)
+              .setTimestamp(TIMESTAMP)
+              .setZone("public/west")
+              .setNumber("usage", n % 2 == 0 ? 90 : 10);
+          processor.publish(sequence, context);
+        }
+      }
+      processor.drain();
+
+      assertThat(processor.getOccupancy()).isEqualTo(0);
+      assertThat(processor.getPartitionStats()).hasSize(4);
+      assertThat(processor.getPartitionStats().stream()
+          .mapToLong(PartitionStats::getProcessed).sum()
+      ).isEqualTo(2000);
+    }
+
+    assertThat(threadsByTask).hasSize(contexts.size());
+    assertThat(threadsByTask.values()).allSatisfy(threads -> assertThat(threads).hasSize(1));
+  }
+
+  @Test
+  public void testTryNext_fullBuffer() throws InterruptedException {
+    final CountDownLatch processing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final EventProcessorContext context = EventProcessorContextBuilder.fromTask(buildTask());
+    // occupies the consumer on the first transition until released
+    final StateChangeHandler handler = (transition, message) -> {
+      processing.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    };
+
+    try (RingBufferEventProcessor processor =
+        new RingBufferEventProcessor(new EventProcessor(), handler, 1, 2)) {
+      publish(processor, processor.tryNext(), context);
+      processing.await();
+
+      // the slot being processed is not released until its batch completes
+      publish(processor, processor.tryNext(), context);
+      assertThat(processor.tryNext()).isEqualTo(-1);
+      assertThat(processor.getOccupancy()).isEqualTo(2);
+      assertThat(processor.getRejected()).isEqualTo(1);
+
+      release.countDown();
+      processor.drain();
+      assertThat(processor.getOccupancy()).isEqualTo(0);
+      assertThat(processor.getPartitionStats().get(0).getProcessed()).isEqualTo(2);
+    }
+  }
+
+  @Test
+  public void testPublish_wakesParkedDaemonConsumer() throws InterruptedException {
+    final EventProcessorContext context = EventProcessorContextBuilder.fromTask(buildTask());
+    final List<Thread> consumerThreads = new CopyOnWriteArrayList<>();
+    final StateChangeHandler handler =
+        (transition, message) -> consumerThreads.add(Thread.currentThread());
+
+    try (RingBufferEventProcessor processor =
+        new RingBufferEventProcessor(new EventProcessor(), handler, 1, 4)) {
+      publish(processor, processor.next(), context);
+      processor.drain();
+      assertThat(consumerThreads).hasSize(1);
+      final Thread consumer = consumerThreads.get(0);
+      assertThat(consumer.isDaemon()).isTrue();
+
+      // a consumer that went idle after draining, and so may have parked without a timeout,
+      // is woken by the next publish
+      final long sequence = processor.next();
+      processor.get(sequence)
+          .setTimestamp(TIMESTAMP)
+          .setZone("public/west")
+          .setNumber("usage", 10);
+      processor.publish(sequence, context);
+      processor.drain();
+      assertThat(consumerThreads).hasSize(2);
+    }
+  }
+
+  @Test
+  public void testDrain_consumerStopped() throws InterruptedException {
+    final EventProcessorContext context = EventProcessorContextBuilder.fromTask(buildTask());
+    // an Error is not contained by the consumer, so it stops
+    final StateChangeHandler handler = (transition, message) -> {
+      throw new AssertionError("handler failed");
+    };
+
+    try (RingBufferEventProcessor processor =
+        new RingBufferEventProcessor(new EventProcessor(), handler, 1, 2)) {
+      publish(processor, processor.next(), context);
+      assertThatThrownBy(processor::drain)
+          .isInstanceOf(IllegalStateException.class)
+          .hasMessage("Consumer of partition 0 stopped");
+
+      // the producer does not wait forever for the stopped consumer to free a slot
+      publish(processor, processor.next(), context);
+      assertThatThrownBy(processor::next)
+          .isInstanceOf(IllegalStateException.class)
+          .hasMessage("Consumer of partition 0 stopped");
+    }
+  }
+
+  @Test
+  public void testPublish_unclaimedSequence() throws InterruptedException {
+    final EventProcessorContext context = EventProcessorContextBuilder.fromTask(buildTask());
+
+    try (RingBufferEventProcessor processor =
+        new RingBufferEventProcessor(new EventProcessor(), (transition, message) -> {}, 1, 4)) {
+      final long sequence = processor.next();
+      assertThatThrownBy(() -> processor.publish(sequence + 1, context))
+          .isInstanceOf(IllegalArgumentException.class);
+    }
+  }
+
+  @Test
+  public void testConstructor_bufferSizeNotPowerOfTwo() {
+    assertThatThrownBy(() ->
+        new RingBufferEventProcessor(new EventProcessor(), (transition, message) -> {}, 1, 12)
+    ).isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private static void publish(RingBufferEventProcessor processor, long sequence,
+                              EventProcessorContext context) {
+    assertThat(sequence).isNotEqualTo(-1);
+    processor.get(sequence)
+        .setTimestamp(TIMESTAMP)
+        .setZone("public/west")
+        .setNumber("usage", 90);
+    processor.publish(sequence, context);
+  }
+
+  /**
+   * @return a task whose CRITICAL message is its ID
+   */
+  private static EventEngineTask buildTask() {
+    final UUID taskId = UUID.randomUUID();
+    return TestTasks.cpuTask(taskId.toString()).setId(taskId);
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import com.rackspace.salus.event.processor.WindowFunction.Aggregate;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import org.junit.Test;
+
+public class SlidingWindowTest {
+
+  @Test
+  public void testAdd_sampleBounded() {
+    final SlidingWindow window = new SlidingWindow(-1, "usage", 3, Long.MAX_VALUE);
+
+    window.add(1000, 5);
+    window.add(2000, 1);
+    window.add(3000, 9);
+    window.add(4000, 3);
+
+    assertThat(window.count()).isEqualTo(3);
+    assertThat(window.get(Aggregate.SUM)).isEqualTo(13);
+    assertThat(window.get(Aggregate.AVG)).isCloseTo(13 / 3.0, within(1e-9));
+    assertThat(window.get(Aggregate.MIN)).isEqualTo(1);
+    assertThat(window.get(Aggregate.MAX)).isEqualTo(9);
+  }
+
+  @Test
+  public void testAdd_growsToLargeSampleBound() {
+    final SlidingWindow window = new SlidingWindow(-1, "usage", 1000, Long.MAX_VALUE);
+
+    for (int i = 0; i < 2000; i++) {
+      window.add(i, i);
+    }
+
+    assertThat(window.count()).isEqualTo(1000);
+    assertThat(window.get(Aggregate.MIN)).isEqualTo(1000);
+    assertThat(window.get(Aggregate.MAX)).isEqualTo(1999);
+  }
+
+  @Test
+  public void testAdd_ageBounded() {
+    final SlidingWindow window = new SlidingWindow(-1, "usage", Integer.MAX_VALUE, 10_000);
+
+    window.add(0, 100);
+    window.add(5_000, 2);
+    // missing values still advance the window's time
+    window.add(12_000, Float.NaN);
+
+    assertThat(window.count()).isEqualTo(1);
+    assertThat(window.get(Aggregate.MAX)).isEqualTo(2);
+
+    window.add(30_000, Float.NaN);
+    assertThat(window.count()).isEqualTo(0);
+    assertThat(window.get(Aggregate.AVG)).isNaN();
+    assertThat(window.get(Aggregate.COUNT)).isEqualTo(0);
+  }
+
+  @Test
+  public void testAdd_ageBoundedEvictsBeyondMaxSamples() {
+    final SlidingWindow window = new SlidingWindow(-1, "usage", 4, 60_000);
+
+    for (int i = 0; i < 100; i++) {
+      window.add(i, i);
+    }
+
+    // every sample is within the age, but only the latest are retained
+    assertThat(window.count()).isEqualTo(4);
+    assertThat(window.get(Aggregate.MIN)).isEqualTo(96);
+    assertThat(window.get(Aggregate.SUM)).isEqualTo(96 + 97 + 98 + 99);
+  }
+
+  @Test
+  public void testAdd_matchesRescan() {
+    final Random random = new Random(0);
+    final SlidingWindow window = new SlidingWindow(-1, "usage", 50, 60_000);
+    final Deque<long[]> expected = new ArrayDeque<>();
+
+    long time = 0;
+    for (int i = 0; i < 10_000; i++) {
+      time += random.nextInt(3_000);
+      final int value = random.nextInt(200) - 100;
+      window.add(time, value);
+
+      expected.addLast(new long[]{time, value});
+      while (expected.size() > 50 || time - expected.peekFirst()[0] > 60_000) {
+        expected.removeFirst();
+      }
+
+      long sum = 0;
+      long min = Long.MAX_VALUE;
+      long max = Long.MIN_VALUE;
+      for (long[] sample : expected) {
+        sum += sample[1];
+        min = Math.min(min, sample[1]);
+        max = Math.max(max, sample[1]);
+      }
+      assertThat(window.count()).isEqualTo(expected.size());
+      assertThat(window.get(Aggregate.SUM)).isCloseTo(sum, within(1e-9));
+      assertThat(window.get(Aggregate.MIN)).isEqualTo(min);
+      assertThat(window.get(Aggregate.MAX)).isEqualTo(max);
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import com.rackspace.salus.telemetry.entities.EventEngineTask;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.Comparator;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.ComparisonExpression;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.StateExpression;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.TaskState;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Tasks shared by the tests of the processing stages, which only need a single expression that
+ * transitions on every input.
+ */
+final class TestTasks {
+
+  private TestTasks() {
+  }
+
+  /**
+   * @return a cpu task, with a quorum and consecutive count of one, that is CRITICAL when the
+   * usage is over 50
+   */
+  static EventEngineTask cpuTask() {
+    return cpuTask(Comparator.GREATER_THAN, 50);
+  }
+
+  /**
+   * @return a cpu task, with a quorum and consecutive count of one, that is CRITICAL when the
+   * usage compares to the given value
+   */
+  static EventEngineTask cpuTask(Comparator comparator, Object comparisonValue) {
+    return new EventEngineTask()
+        .setId(UUID.randomUUID())
+        .setTenantId("t-1")
+        .setTaskParameters(new EventEngineTaskParameters()
+            .setMetricGroup("cpu")
+            .setZoneQuorumCount(1)
+            .setDefaultConsecutiveCount(1)
+            .setStateExpressions(List.of(
+                new StateExpression()
+                    .setState(TaskState.CRITICAL)
+                    .setExpression(new ComparisonExpression()
+                        .setInput("usage")
+                        .setComparator(comparator)
+                        .setComparisonValue(comparisonValue))
+            ))
+        );
+  }
+
+  /**
+   * @return a task of {@link #cpuTask()} whose CRITICAL state has the given message
+   */
+  static EventEngineTask cpuTask(String message) {
+    final EventEngineTask task = cpuTask();
+    task.getTaskParameters().getStateExpressions().get(0).setMessage(message);
+    return task;
+  }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.event.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.rackspace.salus.event.statemachines.MultiStateTransition;
+import com.rackspace.salus.telemetry.entities.EventEngineTask;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.Comparator;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.ComparisonExpression;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.StateExpression;
+import com.rackspace.salus.telemetry.entities.EventEngineTaskParameters.TaskState;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.Test;
+
+public class ThresholdIndexTest {
+
+  private static final Comparator[] COMPARATORS = {
+      Comparator.GREATER_THAN,
+      Comparator.GREATER_THAN_OR_EQUAL_TO,
+      Comparator.LESS_THAN,
+      Comparator.LESS_THAN_OR_EQUAL_TO,
+      Comparator.EQUAL_TO,
+      Comparator.NOT_EQUAL_TO
+  };
+
+  @Test
+  public void testEvaluate_matchesDirectEvaluation() {
+    final ThresholdIndex index = new ThresholdIndex();
+    final List<EventProcessorContext> contexts = new ArrayList<>();
+    for (int threshold = 0; threshold < 10; threshold++) {
+      for (Comparator comparator : COMPARATORS) {
+        final EventProcessorContext context = EventProcessorContextBuilder.fromTask(
+            buildTask("cpu", comparator, threshold));
+        index.register(context);
+        contexts.add(context);
+      }
+    }
+    assertThat(index.size()).isEqualTo(contexts.size());
+
+    for (int value = -1; value <= 10; value++) {
+      final EventProcessorInput input = buildInput(Map.of("usage", value));
+      final ConditionResults results = index.evaluate("cpu", input);
+
+      for (EventProcessorContext context : contexts) {
+        final ExpressionEvaluator evaluator =
+            context.getCompiledStateExpressions().get(0).evaluator;
+        assertThat(evaluator).isInstanceOf(SharedCondition.class);
+
+        final boolean direct = evaluator.evaluate(context, input);
+        context.setConditionResults(results);
+        try {
+          assertThat(evaluator.evaluate(context, input))
+              .as("%s with value %d", context.getTask().getTaskParameters(), value)
+              .isEqualTo(direct);
+        } finally {
+          context.setConditionResults(null);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testRegister_keepsContextHashCode() {
+    final ThresholdIndex index = new ThresholdIndex();
+    final EventProcessorContext context = EventProcessorContextBuilder.fromTask(
+        buildTask("cpu", Comparator.GREATER_THAN, 50));
+    final int hashCode = context.hashCode();
+
+    index.register(context);
+    assertThat(context.hashCode()).isEqualTo(hashCode);
+    assertThat(context.toString()).doesNotContain("compiledStateExpressions");
+    index.unregister(context);
+    assertThat(context.hashCode()).isEqualTo(hashCode);
+  }
+
+  @Test
+  public void testRegister_failedRecompileKeepsRegistration() {
+    final ThresholdIndex index = new ThresholdIndex();
+    final EventProcessorContext context = EventProcessorContextBuilder.fromTask(
+        buildTask("cpu", Comparator.GREATER_THAN, 50));
+    index.register(context);
+    final ExpressionEvaluator registered =
+        context.getCompiledStateExpressions().get(0).evaluator;
+
+    // references a metric outside of the context's schema, so re-compiling fails
+    ((ComparisonExpression) context.getTask().getTaskParameters().getStateExpressions().get(0)
+        .getExpression()).setInput("idle");
+    assertThatThrownBy(() -> index.register(context))
+        .isInstanceOf(IllegalStateException.class);
+
+    assertThat(index.size()).isEqualTo(1);
+    assertThat(context.getCompiledStateExpressions().get(0).evaluator).isSameAs(registered);
+    assertThat(index.evaluate("cpu", buildInput(Map.of("usage", 75))).matchedCount())
+        .isEqualTo(1);
+
+    // neither the failed attempt nor the kept registration leave IDs allocated once removed
+    ((ComparisonExpression) context.getTask().getTaskParameters().getStateExpressions().get(0)
+        .getExpression()).setInput("usage");
+    index.unregister(context);
+    final EventProcessorContext other = EventProcessorContextBuilder.fromTask(
+        buildTask("cpu", Comparator.GREATER_THAN, 90));
+    index.register(other);
+    assertThat(((SharedCondition) other.getCompiledStateExpressions().get(0).evaluator).id)
+        .isEqualTo(0);
+  }
+
+  @Test
+  public void testEvaluate_missingMetric() {
+    final ThresholdIndex index = new ThresholdIndex();
+    index.register(EventProcessorContextBuilder.fromTask(
+        buildTask("cpu", Comparator.NOT_EQUAL_TO, 5)));
+
+    final ConditionResults results = index.evaluate("cpu", buildInput(Map.of("idle", 5)));
+
+    assertThat(results.matchedCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testEvaluate_reportedNaN() {
+    final ThresholdIndex index = new ThresholdIndex();
+    final EventProcessorContext notEqual = EventProcessorContextBuilder.fromTask(
+        buildTask("cpu", Comparator.NOT_EQUAL_TO, 5));
+    final EventProcessorContext greater = EventProcessorContextBuilder.fromTask(
+        buildTask("cpu", Comparator.GREATER_THAN, 5));
+    index.register(notEqual);
+    index.register(greater);
+
+    final EventProcessorInput input = buildInput(Map.of("usage", Double.NaN));
+    final ConditionResults results = index.evaluate("cpu", input);
+
+    // the same as evaluating the comparisons directly
+    assertThat(results.matchedCount()).isEqualTo(1);
+    notEqual.setConditionResults(results);
+    assertThat(notEqual.getCompiledStateExpressions().get(0).evaluator.evaluate(notEqual, input))
+        .isTrue();
+    greater.setConditionResults(results);
+    assertThat(greater.getCompiledStateExpressions().get(0).evaluator.evaluate(greater, input))
+        .isFalse();
+  }
+
+  @Test
+  public void testProcess_withResults() {
+    final ThresholdIndex index = new ThresholdIndex();
+    final EventProcessorContext low = EventProcessorContextBuilder.fromTask(
+        buildTask("cpu", Comparator.GREATER_THAN, 50));
+    final EventProcessorContext high = EventProcessorContextBuilder.fromTask(
+        buildTask("cpu", Comparator.GREATER_THAN, 90));
+    index.register(low);
+    index.register(high);
+
+    final EventProcessorInput input = buildInput(Map.of("usage", 75));
+    final ConditionResults results = index.evaluate("cpu", input);
+    assertThat(results.matchedCount()).isEqualTo(1);
+
+    final EventProcessor eventProcessor = new EventProcessor();
+    final List<TaskState> lowStates = new ArrayList<>();
+    final List<TaskState> highStates = new ArrayList<>();
+    eventProcessor.process(low, input,
+        (transition, message) -> lowStates.add(overallTo(transition)), results);
+    eventProcessor.process(high, input,
+        (transition, message) -> highStates.add(overallTo(transition)), results);
+
+    assertThat(lowStates).containsExactly(TaskState.CRITICAL);
+    assertThat(highStates).containsExactly(TaskState.OK);
+    assertThat(low.getConditionResults()).isNull();
+  }
+
+  @Test
+  public void testUnregister_restoresEvaluator() {
+    final ThresholdIndex index = new ThresholdIndex();
+    final EventProcessorContext context = EventProcessorContextBuilder.fromTask(
+        buildTask("cpu", Comparator.GREATER_THAN, 50));
+
+    index.register(context);
+    index.unregister(context);
+
+    assertThat(index.size()).isEqualTo(0);
+    assertThat(context.getCompiledStateExpressions().get(0).evaluator)
+        .isNotInstanceOf(SharedCondition.class);
+    assertThat(index.evaluate("cpu", buildInput(Map.of("usage", 75))).matchedCount())
+        .isEqualTo(0);
+  }
+
+  @Test
+  public void testProcess_staleResultsFallBackForReusedId() {
+    final ThresholdIndex index = new ThresholdIndex();
+    final EventProcessorContext removed = EventProcessorContextBuilder.fromTask(
+        buildTask("cpu", Comparator.GREATER_THAN, 50));
+    index.register(removed);
+
+    final EventProcessorInput input = buildInput(Map.of("usage", 75));
+    final ConditionResults results = index.evaluate("cpu", input);
+    assertThat(results.matchedCount()).isEqualTo(1);
+
+    index.unregister(removed);
+    // re-uses the ID of the removed context's condition
+    final EventProcessorContext added = EventProcessorContextBuilder.fromTask(
+        buildTask("cpu", Comparator.GREATER_THAN, 90));
+    index.register(added);
+
+    final List<TaskState> states = new ArrayList<>();
+    new EventProcessor().process(added, input,
+        (transition, message) -> states.add(overallTo(transition)), results);
+
+    assertThat(states).containsExactly(TaskState.OK);
+  }
+
+  @Test
+  public void testProcess_resultsPredatingRegistrationFallBack() {
+    final ThresholdIndex index = new ThresholdIndex();
+    final EventProcessorInput input = buildInput(Map.of("usage", 75));
+    final ConditionResults results = index.evaluate("cpu", input);
+
+    final EventProcessorContext added = EventProcessorContextBuilder.fromTask(
+        buildTask("cpu", Comparator.GREATER_THAN, 50));
+    index.register(added);
+
+    final List<TaskState> states = new ArrayList<>();
+    new EventProcessor().process(added, input,
+        (transition, message) -> states.add(overallTo(transition)), results);
+
+    assertThat(states).containsExactly(TaskState.CRITICAL);
+  }
+
+  @Test
+  public void testRegister_rejectsSecondSharedSource() {
+    final ThresholdIndex index = new ThresholdIndex();
+    final ConditionNetwork network = new ConditionNetwork();
+    final EventProcessorContext context = EventProcessorContextBuilder.fromTask(
+        buildTask("cpu", Comparator.GREATER_THAN, 50));
+    network.register(context);
+
+    assertThatThrownBy(() -> index.register(context))
+        .isInstanceOf(IllegalStateException.class);
+    assertThat(index.size()).isEqualTo(0);
+    // the network's binding is left in place
+    assertThat(((SharedCondition) context.getCompiledStateExpressions().get(0).evaluator).source)
+        .isSameAs(network);
+
+    network.unregister(context);
+    index.register(context);
+    assertThat(index.size()).isEqualTo(1);
+  }
+
+  private static TaskState overallTo(MultiStateTransition<TaskState, String> transition) {
+    return transition.getOverall().getTo();
+  }
+
+  private static EventEngineTask buildTask(String metricGroup, Comparator comparator,
+                                           int threshold) {
+    return new EventEngineTask()
+        .setId(UUID.randomUUID())
+        .setTenantId("t-1")
+        .setTaskParameters(new EventEngineTaskParameters()
+            .setMetricGroup(metricGroup)
+            .setZoneQuorumCount(1)
+            .setDefaultConsecutiveCount(1)
+            .setStateExpressions(List.of(
+                new StateExpression()
+                    .setState(TaskState.CRITICAL)
+                    .setExpression(new ComparisonExpression()
+                        .setInput("usage")
+                        .setComparator(comparator)
+                        .setComparisonValue(threshold))
+            ))
+        );
+  }
+
+  private static EventProcessorInput buildInput(Map<String, Object> metrics) {
+    return new EventProcessorInput(Instant.parse("2007-12-03T10:15:30.00Z"), "public/west",
+        metrics);
+  }
+}
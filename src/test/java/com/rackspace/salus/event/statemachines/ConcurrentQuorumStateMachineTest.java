@@ -0,0 +1,173 @@
+package com.rackspace.salus.event.statemachines;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.rackspace.salus.event.statemachines.ConsecutiveCountStateMachine.StateSpec;
+import com.rackspace.salus.event.statemachines.MultiStateTransition.Observation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class ConcurrentQuorumStateMachineTest {
+
+  @Test
+  void quorumOfConsecutiveCounts() {
+    final ConcurrentQuorumStateMachine<Level, String> sm = new ConcurrentQuorumStateMachine<>(
+        2, List.of(StateSpec.of(Level.LOW, 1), StateSpec.of(Level.HIGH, 2)));
+
+    assertThat(sm.process("zoneA", Level.HIGH)).isNull();
+    assertThat(sm.process("zoneB", Level.HIGH)).isNull();
+    assertThat(sm.process("zoneA", Level.HIGH)).isNull();
+    assertThat(sm.getState("zoneA")).isEqualTo(Level.HIGH);
+    assertThat(sm.countOf(Level.HIGH)).isEqualTo(1);
+
+    assertThat(sm.process("zoneB", Level.HIGH))
+        .isEqualTo(
+            new MultiStateTransition<Level, String>()
+                .setOverall(new StateTransition<>(null, Level.HIGH))
+                .setObservations(Map.of(
+                    "zoneA", new Observation<Level>().setState(Level.HIGH),
+                    "zoneB", new Observation<Level>().setState(Level.HIGH)
+                ))
+        );
+    assertThat(sm.getOverallState()).isEqualTo(Level.HIGH);
+
+    assertThat(sm.process("zoneA", Level.LOW)).isNull();
+    assertThat(sm.process("zoneB", Level.LOW).getOverall())
+        .isEqualTo(new StateTransition<>(Level.HIGH, Level.LOW));
+  }
+
+  @Test
+  void unknownState() {
+    final ConcurrentQuorumStateMachine<Level, String> sm =
+        new ConcurrentQuorumStateMachine<>(1, List.of(StateSpec.of(Level.LOW)));
+
+    assertThatThrownBy(() -> sm.process("zoneA", Level.HIGH))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void concurrentZonesTransitionOverallOnce() throws Exception {
+    final int threads = 4;
+    final int zonesPerThread = 4;
+    final int rounds = 500;
+    // every zone is needed for the quorum, so each round has exactly one overall transition
+    final ConcurrentQuorumStateMachine<Level, String> sm = new ConcurrentQuorumStateMachine<>(
+        threads * zonesPerThread, List.of(StateSpec.of(Level.LOW), StateSpec.of(Level.HIGH)));
+    final AtomicInteger transitions = new AtomicInteger();
+    final CyclicBarrier barrier = new CyclicBarrier(threads);
+
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        final int thread = t;
+        futures.add(executor.submit(() -> {
+          for (int round = 0; round < rounds; round++) {
+            final Level level = round % 2 == 0 ? Level.HIGH : Level.LOW;
+            for (int zone = 0; zone < zonesPerThread; zone++) {
+              if (sm.process(thread + "-" + zone, level) != null) {
+                transitions.incrementAndGet();
+              }
+            }
+            barrier.await();
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(transitions.get()).isEqualTo(rounds);
+    assertThat(sm.getOverallState()).isEqualTo(Level.LOW);
+  }
+
+  @Test
+  void contendedTransitionsOnlyLatchQuorumStates() throws Exception {
+    final int threads = 4;
+    final int zonesPerThread = 4;
+    final int iterations = 20_000;
+    // a majority quorum, so the zones are repeatedly split across both states
+    final int quorum = threads * zonesPerThread / 2 + 1;
+    final AtomicInteger violations = new AtomicInteger();
+    final AtomicInteger toHigh = new AtomicInteger();
+    final AtomicInteger toLow = new AtomicInteger();
+    final ConcurrentQuorumStateMachine<Level, String> sm =
+        new ConcurrentQuorumStateMachine<>(
+            quorum, List.of(StateSpec.of(Level.LOW), StateSpec.of(Level.HIGH))) {
+          @Override
+          MultiStateTransition<Level, String> latched(int fromOrdinal, Tally latched) {
+            int total = 0;
+            for (int count : latched.counts) {
+              total += count;
+            }
+            if (latched.counts[latched.overallOrdinal] < quorum || total > threads * zonesPerThread
+                || fromOrdinal == latched.overallOrdinal) {
+              violations.incrementAndGet();
+            }
+            (latched.overallOrdinal == Level.HIGH.ordinal() ? toHigh : toLow).incrementAndGet();
+            return super.latched(fromOrdinal, latched);
+          }
+        };
+    final AtomicInteger returned = new AtomicInteger();
+
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        final int thread = t;
+        futures.add(executor.submit(() -> {
+          final Random random = new Random(thread);
+          for (int i = 0; i < iterations; i++) {
+            final Level level = random.nextBoolean() ? Level.HIGH : Level.LOW;
+            final MultiStateTransition<Level, String> transition =
+                sm.process(thread + "-" + random.nextInt(zonesPerThread), level);
+            if (transition != null) {
+              returned.incrementAndGet();
+            }
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(violations.get()).isZero();
+    assertThat(returned.get()).isEqualTo(toHigh.get() + toLow.get());
+    // each latch alternates the overall state, starting from no state
+    assertThat(Math.abs(toHigh.get() - toLow.get())).isLessThanOrEqualTo(1);
+
+    // once quiesced, the counts agree with the states of the zones
+    int high = 0;
+    for (int t = 0; t < threads; t++) {
+      for (int zone = 0; zone < zonesPerThread; zone++) {
+        if (sm.getState(t + "-" + zone) == Level.HIGH) {
+          high++;
+        }
+      }
+    }
+    assertThat(sm.countOf(Level.HIGH)).isEqualTo(high);
+    assertThat(sm.countOf(Level.LOW)).isEqualTo(threads * zonesPerThread - high);
+  }
+
+  private enum Level {
+    LOW, HIGH
+  }
+}
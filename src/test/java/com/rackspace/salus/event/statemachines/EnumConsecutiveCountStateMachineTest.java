@@ -0,0 +1,71 @@
+package com.rackspace.salus.event.statemachines;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.rackspace.salus.event.statemachines.ConsecutiveCountStateMachine.StateSpec;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class EnumConsecutiveCountStateMachineTest {
+
+  @Test
+  void consecutiveCountStates() {
+    final EnumConsecutiveCountStateMachine<Level> sm =
+        new EnumConsecutiveCountStateMachine<>(List.of(
+            StateSpec.of(Level.ONE, 1),
+            StateSpec.of(Level.TWO, 2),
+            StateSpec.of(Level.THREE, 3)
+        ));
+
+    // initial state, nothing
+    assertThat(sm.process(Level.ONE)).isNull();
+
+    // two-state, one left
+    assertThat(sm.process(Level.TWO)).isNull();
+    // two-state, transitioned
+    assertThat(sm.process(Level.TWO))
+        .isEqualTo(new StateTransition<>(Level.ONE, Level.TWO));
+    assertThat(sm.getState()).isEqualTo(Level.TWO);
+
+    // transition immediately to one-state
+    assertThat(sm.process(Level.ONE))
+        .isEqualTo(new StateTransition<>(Level.TWO, Level.ONE));
+
+    // three-state, interrupted by the current state, which restarts the count
+    assertThat(sm.process(Level.THREE)).isNull();
+    assertThat(sm.process(Level.THREE)).isNull();
+    assertThat(sm.process(Level.ONE)).isNull();
+    assertThat(sm.process(Level.THREE)).isNull();
+    assertThat(sm.process(Level.THREE)).isNull();
+    assertThat(sm.process(Level.THREE))
+        .isEqualTo(new StateTransition<>(Level.ONE, Level.THREE));
+  }
+
+  @Test
+  void reusesTransitions() {
+    final List<StateSpec<Level>> specs = List.of(StateSpec.of(Level.ONE), StateSpec.of(Level.TWO));
+    final EnumConsecutiveCountStateMachine<Level> first =
+        new EnumConsecutiveCountStateMachine<>(specs);
+    final EnumConsecutiveCountStateMachine<Level> second =
+        new EnumConsecutiveCountStateMachine<>(specs);
+
+    final StateTransition<Level> transition = first.process(Level.TWO);
+    assertThat(first.process(Level.ONE)).isNotNull();
+    assertThat(first.process(Level.TWO)).isSameAs(transition);
+    assertThat(second.process(Level.TWO)).isSameAs(transition);
+  }
+
+  @Test
+  void unknownState() {
+    final EnumConsecutiveCountStateMachine<Level> sm =
+        new EnumConsecutiveCountStateMachine<>(List.of(StateSpec.of(Level.ONE)));
+
+    assertThatThrownBy(() -> sm.process(Level.TWO))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private enum Level {
+    ONE, TWO, THREE
+  }
+}
@@ -0,0 +1,87 @@
+package com.rackspace.salus.event.statemachines;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.rackspace.salus.event.statemachines.ConsecutiveCountStateMachine.StateSpec;
+import com.rackspace.salus.event.statemachines.MultiStateTransition.Observation;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class PackedQuorumStateMachineTest {
+
+  @Test
+  void quorumOfConsecutiveCounts() {
+    final PackedQuorumStateMachine<Level, String> sm = new PackedQuorumStateMachine<>(
+        2,
+        List.of(StateSpec.of(Level.LOW, 1), StateSpec.of(Level.HIGH, 2)),
+        new EntryInterner<>()
+    );
+
+    assertThat(sm.process("zoneA", Level.HIGH)).isNull();
+    assertThat(sm.process("zoneB", Level.HIGH)).isNull();
+    assertThat(sm.getState("zoneA")).isEqualTo(Level.LOW);
+
+    // zoneA reaches its consecutive count, but not yet the quorum
+    assertThat(sm.process("zoneA", Level.HIGH)).isNull();
+    assertThat(sm.getState("zoneA")).isEqualTo(Level.HIGH);
+    assertThat(sm.countOf(Level.HIGH)).isEqualTo(1);
+
+    assertThat(sm.process("zoneB", Level.HIGH))
+        .isEqualTo(
+            new MultiStateTransition<Level, String>()
+                .setOverall(new StateTransition<>(null, Level.HIGH))
+                .setObservations(Map.of(
+                    "zoneA", new Observation<Level>().setState(Level.HIGH),
+                    "zoneB", new Observation<Level>().setState(Level.HIGH)
+                ))
+        );
+
+    // LOW has a consecutive count of one, but alone is short of the quorum
+    assertThat(sm.process("zoneA", Level.LOW)).isNull();
+    assertThat(sm.getState("zoneA")).isEqualTo(Level.LOW);
+    assertThat(sm.getState("zoneC")).isNull();
+  }
+
+  @Test
+  void sharesInterner() {
+    final EntryInterner<String> interner = new EntryInterner<>();
+    final List<StateSpec<Level>> specs = List.of(StateSpec.of(Level.LOW), StateSpec.of(Level.HIGH));
+    final PackedQuorumStateMachine<Level, String> first =
+        new PackedQuorumStateMachine<>(1, specs, interner);
+    final PackedQuorumStateMachine<Level, String> second =
+        new PackedQuorumStateMachine<>(1, specs, interner);
+
+    // zones are processed in an order other than their IDs to exercise insertion
+    first.process("zoneB", Level.LOW);
+    second.process("zoneA", Level.LOW);
+    second.process("zoneC", Level.HIGH);
+    second.process("zoneB", Level.LOW);
+
+    assertThat(interner.size()).isEqualTo(3);
+    assertThat(interner.entryOf(interner.findId("zoneA"))).isEqualTo("zoneA");
+    assertThat(first.collectObservations()).containsOnlyKeys("zoneB");
+    assertThat(second.collectObservations()).containsOnlyKeys("zoneA", "zoneB", "zoneC");
+    assertThat(second.getState("zoneC")).isEqualTo(Level.HIGH);
+    assertThat(second.getState("zoneA")).isEqualTo(Level.LOW);
+
+    // reading an unseen zone does not register it
+    assertThat(second.getState("zoneD")).isNull();
+    assertThat(interner.findId("zoneD")).isEqualTo(-1);
+    assertThat(interner.size()).isEqualTo(3);
+  }
+
+  @Test
+  void unknownState() {
+    final PackedQuorumStateMachine<Level, String> sm = new PackedQuorumStateMachine<>(
+        1, List.of(StateSpec.of(Level.LOW)), new EntryInterner<>());
+
+    assertThatThrownBy(() -> sm.process("zoneA", Level.HIGH))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private enum Level {
+    LOW, HIGH
+  }
+}
@@ -2,7 +2,9 @@ package com.rackspace.salus.event.statemachines;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import com.rackspace.salus.event.statemachines.ConsecutiveCountStateMachine.StateSpec;
 import com.rackspace.salus.event.statemachines.MultiStateTransition.Observation;
+import java.util.List;
 import java.util.Map;
 import org.junit.jupiter.api.Test;
 
@@ -150,4 +152,39 @@ class QuorumStateMachineTest {
     assertThat(sm.process("zoneA", "WARNING"))
         .isNull();
   }
-}
\ No newline at end of file
+
+  @Test
+  void processMaintainsCountsPerState() {
+    QuorumStateMachine<Level, String> sm = new QuorumStateMachine<>(
+        2,
+        () -> new ConsecutiveCountStateMachine<>(List.of(
+            StateSpec.of(Level.LOW), StateSpec.of(Level.HIGH)))
+    );
+
+    // entries start out in the first state of their specs
+    assertThat(sm.process("zoneA", Level.HIGH)).isNull();
+    assertThat(sm.countOf(Level.LOW)).isEqualTo(0);
+    assertThat(sm.countOf(Level.HIGH)).isEqualTo(1);
+
+    assertThat(sm.process("zoneB", Level.LOW)).isNull();
+    assertThat(sm.process("zoneC", Level.HIGH))
+        .isNotNull()
+        .extracting(MultiStateTransition::getOverall)
+        .isEqualTo(new StateTransition<>(null, Level.HIGH));
+    assertThat(sm.countOf(Level.LOW)).isEqualTo(1);
+    assertThat(sm.countOf(Level.HIGH)).isEqualTo(2);
+
+    // zoneB never left LOW, so it counts towards the quorum
+    assertThat(sm.process("zoneA", Level.LOW))
+        .isNotNull()
+        .extracting(MultiStateTransition::getOverall)
+        .isEqualTo(new StateTransition<>(Level.HIGH, Level.LOW));
+    assertThat(sm.process("zoneC", Level.LOW)).isNull();
+    assertThat(sm.countOf(Level.LOW)).isEqualTo(3);
+    assertThat(sm.countOf(Level.HIGH)).isEqualTo(0);
+  }
+
+  private enum Level {
+    LOW, HIGH
+  }
+}
@@ -0,0 +1,53 @@
+package com.rackspace.salus.event.statemachines;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.rackspace.salus.event.statemachines.ConsecutiveCountStateMachine.StateSpec;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class StateSpecTableTest {
+
+  @Test
+  void internsEqualSpecs() {
+    final StateSpecTable<Level> table = StateSpecTable.of(List.of(
+        StateSpec.of(Level.ONE, 1), StateSpec.of(Level.TWO, 2)));
+
+    assertThat(StateSpecTable.of(List.of(StateSpec.of(Level.ONE, 1), StateSpec.of(Level.TWO, 2))))
+        .isSameAs(table);
+    // differing count
+    assertThat(StateSpecTable.of(List.of(StateSpec.of(Level.ONE, 1), StateSpec.of(Level.TWO, 3))))
+        .isNotSameAs(table);
+    // differing initial state
+    assertThat(StateSpecTable.of(List.of(StateSpec.of(Level.TWO, 2), StateSpec.of(Level.ONE, 1))))
+        .isNotSameAs(table);
+  }
+
+  @Test
+  void machinesShareTable() {
+    final StateSpecTable<Level> table = StateSpecTable.of(List.of(
+        StateSpec.of(Level.ONE), StateSpec.of(Level.TWO, 2)));
+    final EnumConsecutiveCountStateMachine<Level> first =
+        new EnumConsecutiveCountStateMachine<>(table);
+    final EnumConsecutiveCountStateMachine<Level> second =
+        new EnumConsecutiveCountStateMachine<>(table);
+
+    assertThat(first.process(Level.TWO)).isNull();
+    assertThat(first.process(Level.TWO))
+        .isEqualTo(new StateTransition<>(Level.ONE, Level.TWO));
+    // the state of each machine is its own
+    assertThat(second.getState()).isEqualTo(Level.ONE);
+    assertThat(second.process(Level.TWO)).isNull();
+  }
+
+  @Test
+  void emptySpecs() {
+    assertThatThrownBy(() -> StateSpecTable.of(List.<StateSpec<Level>>of()))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private enum Level {
+    ONE, TWO
+  }
+}